@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Compares what one sync costs in transactions and change notifications when it is written
+    the way the sync adapter used to (location query, location insert, bulkInsert, delete) and
+    when it is written as one applyBatch.
+ */
+public class TestApplyBatch extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestApplyBatch.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+    private static final long NOTIFICATION_SETTLE_MILLIS = 500;
+
+    private WeatherProvider mProvider;
+    private ContentProviderClient mClient;
+    private HandlerThread mObserverThread;
+    private final AtomicInteger mNotifications = new AtomicInteger();
+    private ContentObserver mObserver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearTables();
+
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mProvider = (WeatherProvider) mClient.getLocalContentProvider();
+
+        mObserverThread = new HandlerThread("BatchObserverThread");
+        mObserverThread.start();
+        mObserver = new ContentObserver(new Handler(mObserverThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mNotifications.incrementAndGet();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.BASE_CONTENT_URI, true, mObserver);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        mObserverThread.quit();
+        mClient.release();
+        super.tearDown();
+    }
+
+    public void testSyncCost() throws Exception {
+        // Before: one provider call per step, each in its own transaction
+        insertStaleDay();
+        int[] before = measure(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                        new String[]{LocationEntry._ID},
+                        LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{TestUtilities.TEST_LOCATION}, null);
+                assertFalse(cursor.moveToFirst());
+                cursor.close();
+                Uri locationUri = mContext.getContentResolver().insert(
+                        LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues());
+                long locationId = ContentUris.parseId(locationUri);
+                ContentValues[] days = new ContentValues[DAYS];
+                for (int i = 0; i < DAYS; i++) {
+                    days[i] = createDay(i);
+                    days[i].put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                }
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+                deleteStaleDays();
+            }
+        });
+
+        clearTables();
+        insertStaleDay();
+        int[] after = measure(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mContext.getContentResolver().applyBatch(
+                            WeatherContract.CONTENT_AUTHORITY, createSyncBatch());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        Log.i(LOG_TAG, String.format("Per sync: before %d transactions, %d notifications;"
+                + " after %d transactions, %d notifications", before[0], before[1], after[0], after[1]));
+
+        assertEquals("Error: the old sequence should cost three write transactions", 3, before[0]);
+        assertEquals("Error: the old sequence should post three notifications", 3, before[1]);
+        assertEquals("Error: applyBatch should run in a single transaction", 1, after[0]);
+        // One for the location, one for its forecast, and one for the stale day of the other
+        // location
+        assertEquals("Error: applyBatch should notify each affected URI once", 3, after[1]);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals("Error: batch did not store every day", DAYS, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testUnchangedBatchIsQuiet() throws Exception {
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                createSyncBatch());
+
+        // The location exists now, so the second batch refers to it directly
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        long locationId = cursor.getLong(0);
+        cursor.close();
+
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < DAYS; i++) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(createDay(i))
+                    .withValue(WeatherEntry.COLUMN_LOC_KEY, locationId)
+                    .build());
+        }
+        final ContentProviderResult[][] results = new ContentProviderResult[1][];
+        int[] cost = measure(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    results[0] = mContext.getContentResolver().applyBatch(
+                            WeatherContract.CONTENT_AUTHORITY, operations);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        for (ContentProviderResult result : results[0]) {
+            assertNull("Error: an unchanged row was reported as written", result.uri);
+            assertEquals(0, result.count.intValue());
+        }
+        assertEquals("Error: an unchanged batch notified observers", 0, cost[1]);
+    }
+
+    // Returns {write transactions, notifications} caused by the runnable
+    private int[] measure(Runnable sync) throws InterruptedException {
+        Thread.sleep(NOTIFICATION_SETTLE_MILLIS);
+        int transactions = mProvider.getWriteTransactionCount();
+        mNotifications.set(0);
+        sync.run();
+        Thread.sleep(NOTIFICATION_SETTLE_MILLIS);
+        return new int[]{mProvider.getWriteTransactionCount() - transactions,
+                mNotifications.get()};
+    }
+
+    // The same shape of batch SunshineSyncAdapter builds for a new location
+    private ArrayList<ContentProviderOperation> createSyncBatch() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (int i = 0; i < DAYS; i++) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(createDay(i))
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(FIRST_DAY)})
+                .build());
+        return operations;
+    }
+
+    private void clearTables() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private void deleteStaleDays() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(FIRST_DAY)});
+    }
+
+    private static ContentValues createDay(int day) {
+        ContentValues values = TestUtilities.createWeatherValues(0);
+        values.remove(WeatherEntry.COLUMN_LOC_KEY);
+        values.put(WeatherEntry.COLUMN_DATE, FIRST_DAY + day * DAY_IN_MILLIS);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + day);
+        return values;
+    }
+
+    // Leaves a day from before the forecast in the table, so the delete step has work to do
+    private void insertStaleDay() {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, TestUtilities.TEST_LOCATION + "-stale");
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        long locationId = dbHelper.getWritableDatabase().insert(LocationEntry.TABLE_NAME, null, location);
+        ContentValues stale = TestUtilities.createWeatherValues(locationId);
+        stale.put(WeatherEntry.COLUMN_DATE, FIRST_DAY - DAY_IN_MILLIS);
+        dbHelper.getWritableDatabase().insert(WeatherEntry.TABLE_NAME, null, stale);
+        dbHelper.close();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/*
+    Checks that rows written through the compiled statements come out the way the provider
+    always wrote them, and measures how many rows a second bulkInsert writes.
+ */
+public class TestBulkWriter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkWriter.class.getSimpleName();
+
+    private static final int DAYS = 16;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+    // bulkInsert gets the rows in arrays of at most this many, to keep the heap small
+    private static final int CHUNK = 10000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearTables();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearTables();
+        super.tearDown();
+    }
+
+    public void testUpsertKeepsIdsAndSkipsUnchangedRows() {
+        ContentValues[] rows = createRows(0, DAYS, 0);
+        assertEquals(DAYS, bulkInsert(rows));
+        long firstId = getId(1, FIRST_DAY);
+
+        assertEquals("Error: unchanged rows were written again", 0,
+                bulkInsert(createRows(0, DAYS, 0)));
+
+        ContentValues[] changed = createRows(0, DAYS, 0);
+        changed[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Rain");
+        assertEquals("Error: only the changed row should have been written", 1,
+                bulkInsert(changed));
+        assertEquals("Error: a changed row should be updated in place", firstId,
+                getId(1, FIRST_DAY));
+        assertEquals(DAYS, countWeather());
+    }
+
+    public void testDatesAreNormalized() {
+        ContentValues[] rows = createRows(0, 3, 0);
+        for (ContentValues row : rows) {
+            // Later the same day
+            row.put(WeatherEntry.COLUMN_DATE,
+                    row.getAsLong(WeatherEntry.COLUMN_DATE) + DAY_IN_MILLIS / 2);
+        }
+        bulkInsert(rows);
+        for (int day = 0; day < 3; day++) {
+            assertTrue("Error: the date wasn't normalized",
+                    getId(1, FIRST_DAY + DAY_IN_MILLIS * day) > 0);
+        }
+        assertEquals("Error: the same day written again should be the same row", 0,
+                bulkInsert(createRows(0, 3, 0)));
+    }
+
+    public void testRowsWithOtherColumnsStillWork() {
+        ContentValues[] rows = createRows(0, 2, 0);
+        // As if an older caller didn't know about the wind yet
+        rows[1].remove(WeatherEntry.COLUMN_WIND_SPEED);
+        rows[1].remove(WeatherEntry.COLUMN_DEGREES);
+        rows[1].putNull(WeatherEntry.COLUMN_SHORT_DESC);
+        // Written in the same transaction as the first, which compiled the statements
+        assertEquals("Error: a row with a NOT NULL column missing was written", 1,
+                bulkInsert(rows));
+
+        rows[1] = createRows(1, 1, 0)[0];
+        rows[1].remove(WeatherEntry.COLUMN_DEGREES);
+        rows[1].put(WeatherEntry.COLUMN_DEGREES, 90);
+        assertEquals(1, bulkInsert(rows));
+    }
+
+    public void testBatchUsesTheSameRules() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues row : createRows(0, DAYS, 0)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(row).build());
+        }
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        for (ContentProviderResult result : results) {
+            assertNotNull("Error: a new row wasn't reported", result.uri);
+        }
+        results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        for (ContentProviderResult result : results) {
+            assertNull("Error: an unchanged row was reported as written", result.uri);
+        }
+    }
+
+    // Rows a second for a fresh insert, a repeat of the same rows, and rows that all changed
+    public void testRowsPerSecond() {
+        for (int rows : new int[]{14, 1000, 100000}) {
+            clearTables();
+            long insertNanos = time(rows, 0, rows);
+            long unchangedNanos = time(rows, 0, 0);
+            long changedNanos = time(rows, 1, rows);
+            Log.i(LOG_TAG, rows + " rows: " + perSecond(rows, insertNanos) + " inserted/s, "
+                    + perSecond(rows, unchangedNanos) + " unchanged/s, "
+                    + perSecond(rows, changedNanos) + " changed/s");
+        }
+    }
+
+    // Writes that many rows, DAYS to a location, and checks how many were counted as written
+    private long time(int rows, int generation, int expectedWritten) {
+        long nanos = 0;
+        int written = 0;
+        for (int start = 0; start < rows; start += CHUNK) {
+            int count = Math.min(CHUNK, rows - start);
+            ContentValues[] chunk = new ContentValues[count];
+            for (int i = 0; i < count; i++) {
+                int row = start + i;
+                chunk[i] = createRow(row / DAYS + 1, row % DAYS, generation);
+            }
+            long begin = System.nanoTime();
+            written += bulkInsert(chunk);
+            nanos += System.nanoTime() - begin;
+        }
+        assertEquals(expectedWritten, written);
+        return nanos;
+    }
+
+    private static long perSecond(int rows, long nanos) {
+        return rows * 1000000000L / Math.max(1, nanos);
+    }
+
+    private ContentValues[] createRows(int firstLocation, int days, int generation) {
+        ContentValues[] rows = new ContentValues[days];
+        for (int day = 0; day < days; day++) {
+            rows[day] = createRow(firstLocation + 1, day, generation);
+        }
+        return rows;
+    }
+
+    private static ContentValues createRow(long locationId, int day, int generation) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherEntry.COLUMN_DATE, FIRST_DAY + DAY_IN_MILLIS * day);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 10.5 + generation);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 20.25 + day);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1024.5);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        values.put(WeatherEntry.COLUMN_DEGREES, 180.0);
+        return values;
+    }
+
+    private int bulkInsert(ContentValues[] rows) {
+        return mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, rows);
+    }
+
+    private long getId(long locationId, long date) {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(locationId), Long.toString(date)}, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countWeather() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void clearTables() {
+        mContext.getContentResolver().delete(HourlyWeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Counts how often the cursors of the forecast lists and of single days would reload, the way
+    a CursorLoader does on every change of its cursor, when a sync writes some of the locations
+    and days they show.
+ */
+public class TestChangeNotifications extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestChangeNotifications.class.getSimpleName();
+
+    private static final int DAYS = 7;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+    private static final long NOTIFICATION_SETTLE_MILLIS = 500;
+    // The forecast list's loader is throttled, so the days a write notifies one by one reload
+    // it once
+    private static final long LIST_THROTTLE_MILLIS = 100;
+    private static final String LOCATION_A = "notify-a";
+    private static final String LOCATION_B = "notify-b";
+    private static final String LOCATION_C = "notify-c";
+
+    private HandlerThread mObserverThread;
+    private final Map<String, LoaderCursor> mLoaders = new LinkedHashMap<String, LoaderCursor>();
+    private long mLocationA;
+    private long mLocationB;
+    private long mLocationC;
+
+    // A cursor kept open and observed, like a loader holds on to the one it delivered.  With a
+    // throttle, the changes heard until it runs out are one reload.
+    private static class LoaderCursor extends ContentObserver {
+        final Cursor mCursor;
+        final AtomicInteger mReloads = new AtomicInteger();
+        private final Handler mHandler;
+        private final long mThrottleMillis;
+        // Only used on the handler's thread
+        private boolean mReloadPending;
+        private final Runnable mReload = new Runnable() {
+            @Override
+            public void run() {
+                mReloadPending = false;
+                mReloads.incrementAndGet();
+            }
+        };
+
+        LoaderCursor(Cursor cursor, Handler handler, long throttleMillis) {
+            super(handler);
+            mHandler = handler;
+            mThrottleMillis = throttleMillis;
+            mCursor = cursor;
+            mCursor.registerContentObserver(this);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            if (mThrottleMillis == 0) {
+                mReloads.incrementAndGet();
+            } else if (!mReloadPending) {
+                mReloadPending = true;
+                mHandler.postDelayed(mReload, mThrottleMillis);
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearTables();
+        mLocationA = insertLocation(LOCATION_A);
+        mLocationB = insertLocation(LOCATION_B);
+        mLocationC = insertLocation(LOCATION_C);
+        bulkInsert(createRows(mLocationA, 0));
+        bulkInsert(createRows(mLocationB, 0));
+        bulkInsert(createRows(mLocationC, 0));
+
+        mObserverThread = new HandlerThread("LoaderCursorThread");
+        mObserverThread.start();
+        Handler handler = new Handler(mObserverThread.getLooper());
+        // What the forecast list and the detail view of each location would have loaded
+        for (String location : new String[]{LOCATION_A, LOCATION_B, LOCATION_C}) {
+            observe(location + " list",
+                    WeatherEntry.buildWeatherLocationWithStartDate(location, FIRST_DAY), handler,
+                    LIST_THROTTLE_MILLIS);
+            observe(location + " day 0",
+                    WeatherEntry.buildWeatherLocationWithDate(location, FIRST_DAY), handler, 0);
+            observe(location + " day 3", WeatherEntry.buildWeatherLocationWithDate(location,
+                    FIRST_DAY + 3 * DAY_IN_MILLIS), handler, 0);
+        }
+        Thread.sleep(NOTIFICATION_SETTLE_MILLIS);
+        resetReloads();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (LoaderCursor loader : mLoaders.values()) {
+            loader.mCursor.unregisterContentObserver(loader);
+            loader.mCursor.close();
+        }
+        mLoaders.clear();
+        mObserverThread.quit();
+        clearTables();
+        super.tearDown();
+    }
+
+    // A sync that changed one day of A and the whole forecast of B, and nothing of C
+    public void testSyncOnlyReloadsWhatChanged() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        ContentValues[] rowsA = createRows(mLocationA, 0);
+        rowsA[0] = createRow(mLocationA, 0, 1);
+        ContentValues[] rowsB = createRows(mLocationB, 1);
+        for (ContentValues[] rows : new ContentValues[][]{rowsA, rowsB,
+                createRows(mLocationC, 0)}) {
+            for (ContentValues row : rows) {
+                operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(row).build());
+            }
+        }
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        Thread.sleep(NOTIFICATION_SETTLE_MILLIS);
+        logReloads("applyBatch");
+
+        assertReloads(LOCATION_A + " list", 1);
+        assertReloads(LOCATION_A + " day 0", 1);
+        assertReloads(LOCATION_A + " day 3", 0);
+        // Every day of B changed, so every view of B reloads, once
+        assertReloads(LOCATION_B + " list", 1);
+        assertReloads(LOCATION_B + " day 0", 1);
+        assertReloads(LOCATION_B + " day 3", 1);
+        assertReloads(LOCATION_C + " list", 0);
+        assertReloads(LOCATION_C + " day 0", 0);
+        assertReloads(LOCATION_C + " day 3", 0);
+    }
+
+    public void testBulkInsertOnlyReloadsItsLocation() throws Exception {
+        ContentValues[] rows = createRows(mLocationC, 0);
+        rows[3] = createRow(mLocationC, 3, 1);
+        assertEquals(1, bulkInsert(rows));
+        Thread.sleep(NOTIFICATION_SETTLE_MILLIS);
+        logReloads("bulkInsert");
+
+        assertReloads(LOCATION_C + " list", 1);
+        assertReloads(LOCATION_C + " day 3", 1);
+        assertReloads(LOCATION_C + " day 0", 0);
+        assertReloads(LOCATION_A + " list", 0);
+        assertReloads(LOCATION_B + " list", 0);
+    }
+
+    // Every day of B but one, which the detail view shows
+    public void testUnchangedDayDoesntReload() throws Exception {
+        ContentValues[] rows = createRows(mLocationB, 1);
+        rows[3] = createRow(mLocationB, 3, 0);
+        assertEquals(DAYS - 1, bulkInsert(rows));
+        Thread.sleep(NOTIFICATION_SETTLE_MILLIS);
+        logReloads("bulkInsert");
+
+        assertReloads(LOCATION_B + " day 3", 0);
+        assertReloads(LOCATION_B + " day 0", 1);
+        assertReloads(LOCATION_B + " list", 1);
+        assertReloads(LOCATION_A + " list", 0);
+        assertReloads(LOCATION_C + " list", 0);
+    }
+
+    // The sync's delete of the days gone by, which happen to be only B's
+    public void testDeleteOnlyReloadsTheDeletedDays() throws Exception {
+        int deleted = mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(mLocationB), Long.toString(FIRST_DAY)});
+        assertEquals(1, deleted);
+        Thread.sleep(NOTIFICATION_SETTLE_MILLIS);
+        logReloads("delete");
+
+        assertReloads(LOCATION_B + " list", 1);
+        assertReloads(LOCATION_B + " day 0", 1);
+        assertReloads(LOCATION_B + " day 3", 0);
+        assertReloads(LOCATION_A + " list", 0);
+        assertReloads(LOCATION_C + " list", 0);
+    }
+
+    public void testEachDayIsNotified() {
+        Set<Uri> changed = new LinkedHashSet<Uri>();
+        for (int day = 0; day < DAYS; day++) {
+            if (day != 3) {
+                changed.add(WeatherEntry.buildWeatherLocationWithDate(LOCATION_A,
+                        FIRST_DAY + day * DAY_IN_MILLIS));
+            }
+        }
+        Uri dayOfB = WeatherEntry.buildWeatherLocationWithDate(LOCATION_B, FIRST_DAY);
+        changed.add(dayOfB);
+        changed.add(HourlyWeatherEntry.buildHourlyWeatherLocation(LOCATION_A));
+
+        List<Uri> notify = WeatherProvider.getUrisToNotify(changed);
+        assertEquals(changed.size(), notify.size());
+        assertTrue(notify.containsAll(changed));
+        assertFalse("Error: the unchanged day of A would reload",
+                notify.contains(WeatherEntry.buildWeatherLocation(LOCATION_A)));
+
+        // Unless the whole table is notified anyway
+        changed.add(WeatherEntry.CONTENT_URI);
+        notify = WeatherProvider.getUrisToNotify(changed);
+        assertEquals(2, notify.size());
+        assertTrue(notify.contains(WeatherEntry.CONTENT_URI));
+        assertTrue(notify.contains(HourlyWeatherEntry.buildHourlyWeatherLocation(LOCATION_A)));
+    }
+
+    private void observe(String name, Uri uri, Handler handler, long throttleMillis) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertNotNull(cursor);
+        mLoaders.put(name, new LoaderCursor(cursor, handler, throttleMillis));
+    }
+
+    private void resetReloads() {
+        for (LoaderCursor loader : mLoaders.values()) {
+            loader.mReloads.set(0);
+        }
+    }
+
+    private void assertReloads(String name, int expected) {
+        assertEquals("Error: wrong number of reloads for " + name, expected,
+                mLoaders.get(name).mReloads.get());
+    }
+
+    private void logReloads(String write) {
+        int total = 0;
+        for (LoaderCursor loader : mLoaders.values()) {
+            total += loader.mReloads.get();
+        }
+        Log.i(LOG_TAG, write + ": " + total + " reloads over " + mLoaders.size() + " cursors");
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private static ContentValues[] createRows(long locationId, int generation) {
+        ContentValues[] rows = new ContentValues[DAYS];
+        for (int day = 0; day < DAYS; day++) {
+            rows[day] = createRow(locationId, day, generation);
+        }
+        return rows;
+    }
+
+    private static ContentValues createRow(long locationId, int day, int generation) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        values.put(WeatherEntry.COLUMN_DATE, FIRST_DAY + DAY_IN_MILLIS * day);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 10.5 + generation);
+        return values;
+    }
+
+    private int bulkInsert(ContentValues[] rows) {
+        return mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, rows);
+    }
+
+    private void clearTables() {
+        mContext.getContentResolver().delete(HourlyWeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherStatsEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Builds a populated database at each version upgrades are supported from, upgrades it, and
+    checks that the rows survived and the schema ended up as a fresh install's.
+ */
+public class TestDbUpgrade extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbUpgrade.class.getSimpleName();
+
+    private static final String UPGRADED_DATABASE = "weather_upgrade_test.db";
+    private static final String FRESH_DATABASE = "weather_fresh_test.db";
+
+    private static final int LOCATIONS = 5;
+    private static final int DAYS = 14;
+    private static final int PERIODS = 40;
+
+    // The location and weather tables as they were at WeatherDbMigrations.MIN_VERSION
+    private static final String[] MIN_VERSION_SCHEMA = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, "
+                    + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, "
+                    + "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                    + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+                    + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, "
+                    + " FOREIGN KEY (location_id) REFERENCES location (_id),  "
+                    + "UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteDatabases();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDatabases();
+        super.tearDown();
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        String freshSchema = getSchema(openFresh());
+        for (int version = WeatherDbMigrations.MIN_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(UPGRADED_DATABASE);
+            Map<String, Long> rowCounts = createPopulated(version);
+
+            WeatherDbHelper helper = new WeatherDbHelper(mContext, UPGRADED_DATABASE);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            for (Map.Entry<String, Long> table : rowCounts.entrySet()) {
+                assertEquals("Error: rows of " + table.getKey() + " lost upgrading from version "
+                                + version, (long) table.getValue(),
+                        DatabaseUtils.queryNumEntries(db, table.getKey()));
+            }
+            assertEquals("Error: upgrading from version " + version
+                    + " doesn't give the schema of a fresh install", freshSchema, getSchema(db));
+            helper.close();
+        }
+    }
+
+    public void testUpgradedDatabaseIsUsable() {
+        createPopulated(WeatherDbMigrations.MIN_VERSION);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, UPGRADED_DATABASE);
+        SQLiteDatabase db = helper.getWritableDatabase();
+
+        // A REPLACE on the old rows still hits the unique constraint rather than adding a row
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null, "1");
+        assertTrue(cursor.moveToFirst());
+        ContentValues values = new ContentValues();
+        DatabaseUtils.cursorRowToContentValues(cursor, values);
+        cursor.close();
+        values.remove(WeatherEntry._ID);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Replaced");
+        db.insert(WeatherEntry.TABLE_NAME, null, values);
+        assertEquals(LOCATIONS * DAYS, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+
+        insertHourly(db, getLocationIds(db));
+        assertEquals(LOCATIONS * PERIODS,
+                DatabaseUtils.queryNumEntries(db, HourlyWeatherEntry.TABLE_NAME));
+        helper.close();
+    }
+
+    public void testTooOldVersionStartsOver() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(UPGRADED_DATABASE, 0, null);
+        db.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT)");
+        db.execSQL("INSERT INTO location (location_setting) VALUES ('94043')");
+        db.setVersion(WeatherDbMigrations.MIN_VERSION - 1);
+        db.close();
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, UPGRADED_DATABASE);
+        db = helper.getWritableDatabase();
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        assertEquals(getSchema(openFresh()), getSchema(db));
+        helper.close();
+    }
+
+    public void testRebuildTableKeepsRowsAndReferences() {
+        createPopulated(WeatherDbHelper.DATABASE_VERSION);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, UPGRADED_DATABASE);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        String weatherSql = getCreateSql(db, WeatherEntry.TABLE_NAME);
+
+        // A new column, which the copy leaves at its default
+        String locationSql = getCreateSql(db, LocationEntry.TABLE_NAME);
+        String newLocationSql = locationSql.substring(0, locationSql.lastIndexOf(')'))
+                + ", extra INTEGER NOT NULL DEFAULT 7)";
+        db.beginTransaction();
+        try {
+            WeatherDbMigrations.rebuildTable(db, LocationEntry.TABLE_NAME, newLocationSql);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        assertEquals(LOCATIONS, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        assertEquals(LOCATIONS, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM " + LocationEntry.TABLE_NAME + " WHERE extra = 7", null));
+        assertEquals("Error: the weather table's foreign key was pointed at the old table",
+                weatherSql, getCreateSql(db, WeatherEntry.TABLE_NAME));
+
+        // The weather still joins to its locations by the same ids
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + WeatherEntry.TABLE_NAME
+                + " INNER JOIN " + LocationEntry.TABLE_NAME + " ON " + WeatherEntry.TABLE_NAME
+                + "." + WeatherEntry.COLUMN_LOC_KEY + " = " + LocationEntry.TABLE_NAME + "."
+                + LocationEntry._ID, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(LOCATIONS * DAYS, cursor.getInt(0));
+        cursor.close();
+        helper.close();
+    }
+
+    /*
+        Creates the test database at the given version, the way an install of that version
+        left it, and fills every table it had.  Returns the number of rows in each table.
+     */
+    private Map<String, Long> createPopulated(int version) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(UPGRADED_DATABASE, 0, null);
+        for (String sql : MIN_VERSION_SCHEMA) {
+            db.execSQL(sql);
+        }
+        assertTrue(WeatherDbMigrations.migrate(db, WeatherDbMigrations.MIN_VERSION, version));
+        db.setVersion(version);
+
+        long[] locationIds = new long[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, "location" + i);
+            values.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+            values.put(LocationEntry.COLUMN_COORD_LAT, 10.0 + i);
+            values.put(LocationEntry.COLUMN_COORD_LONG, -20.0 - i);
+            locationIds[i] = db.insert(LocationEntry.TABLE_NAME, null, values);
+        }
+        for (long locationId : locationIds) {
+            for (int day = 0; day < DAYS; day++) {
+                ContentValues values = TestUtilities.createWeatherValues(locationId);
+                values.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * 86400000L);
+                db.insert(WeatherEntry.TABLE_NAME, null, values);
+            }
+        }
+        if (hasTable(db, SyncMetricsEntry.TABLE_NAME)) {
+            for (int i = 0; i < 3; i++) {
+                ContentValues values = new ContentValues();
+                for (String column : WeatherDbMigrations.getColumns(db, SyncMetricsEntry.TABLE_NAME)) {
+                    if (!SyncMetricsEntry._ID.equals(column)) {
+                        values.put(column, i);
+                    }
+                }
+                db.insert(SyncMetricsEntry.TABLE_NAME, null, values);
+            }
+        }
+        if (hasTable(db, HourlyWeatherEntry.TABLE_NAME)) {
+            insertHourly(db, locationIds);
+        }
+        if (hasTable(db, WeatherArchiveEntry.TABLE_NAME)) {
+            insertArchive(db, locationIds);
+        }
+        if (hasTable(db, WeatherStatsEntry.ARCHIVED_TABLE_NAME)) {
+            insertArchivedForStats(db, locationIds);
+        }
+
+        Map<String, Long> rowCounts = new HashMap<String, Long>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'"
+                + " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        while (cursor.moveToNext()) {
+            String table = cursor.getString(0);
+            long rows = DatabaseUtils.queryNumEntries(db, table);
+            assertTrue("Error: nothing in " + table + " at version " + version, rows > 0);
+            rowCounts.put(table, rows);
+        }
+        cursor.close();
+        db.close();
+        return rowCounts;
+    }
+
+    private static void insertHourly(SQLiteDatabase db, long[] locationIds) {
+        for (long locationId : locationIds) {
+            for (int period = 0; period < PERIODS; period++) {
+                ContentValues values = new ContentValues();
+                values.put(HourlyWeatherEntry.COLUMN_LOC_KEY, locationId);
+                values.put(HourlyWeatherEntry.COLUMN_TIME,
+                        TestUtilities.TEST_DATE + period * HourlyWeatherEntry.PERIOD_MILLIS);
+                values.put(HourlyWeatherEntry.COLUMN_WEATHER_ID, 800);
+                values.put(HourlyWeatherEntry.COLUMN_TEMP, 12.5);
+                values.put(HourlyWeatherEntry.COLUMN_HUMIDITY, 80.0);
+                values.put(HourlyWeatherEntry.COLUMN_PRESSURE, 1012.0);
+                values.put(HourlyWeatherEntry.COLUMN_WIND_SPEED, 3.5);
+                values.put(HourlyWeatherEntry.COLUMN_DEGREES, 270.0);
+                db.insert(HourlyWeatherEntry.TABLE_NAME, null, values);
+            }
+        }
+    }
+
+    // A month of one archived day per location
+    private static void insertArchive(SQLiteDatabase db, long[] locationIds) {
+        ArchiveCodec.Day day = new ArchiveCodec.Day();
+        day.mJulianDay = 2457000;
+        day.mWeatherId = 800;
+        day.mDescription = "Clear";
+        List<ArchiveCodec.Day> days = new ArrayList<ArchiveCodec.Day>();
+        days.add(day);
+        for (long locationId : locationIds) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherArchiveEntry.COLUMN_LOC_KEY, locationId);
+            values.put(WeatherArchiveEntry.COLUMN_MONTH, 201412);
+            values.put(WeatherArchiveEntry.COLUMN_RESOLUTION, 1);
+            values.put(WeatherArchiveEntry.COLUMN_DATA, ArchiveCodec.encode(days));
+            db.insert(WeatherArchiveEntry.TABLE_NAME, null, values);
+        }
+    }
+
+    // The day before the forecast, as archiving leaves it for the stats
+    private static void insertArchivedForStats(SQLiteDatabase db, long[] locationIds) {
+        for (long locationId : locationIds) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            values.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE - 86400000L);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 65.0);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 75.0);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            values.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            db.insert(WeatherStatsEntry.ARCHIVED_TABLE_NAME, null, values);
+        }
+    }
+
+    private static long[] getLocationIds(SQLiteDatabase db) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                null, null, null, null, null);
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
+
+    private SQLiteDatabase openFresh() {
+        return new WeatherDbHelper(mContext, FRESH_DATABASE).getReadableDatabase();
+    }
+
+    private static boolean hasTable(SQLiteDatabase db, String table) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{table}) > 0;
+    }
+
+    private static String getCreateSql(SQLiteDatabase db, String name) {
+        return DatabaseUtils.stringForQuery(db, "SELECT sql FROM sqlite_master WHERE name = ?",
+                new String[]{name});
+    }
+
+    // Every table and index, with whitespace evened out.  ALTER TABLE ... ADD COLUMN splices
+    // the new column in right after whatever space preceded the closing parenthesis.
+    private static String getSchema(SQLiteDatabase db) {
+        StringBuilder schema = new StringBuilder();
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'"
+                + " ORDER BY type, name", null);
+        while (cursor.moveToNext()) {
+            schema.append(cursor.getString(0)).append(' ').append(cursor.getString(1)).append(": ");
+            String sql = cursor.getString(2);
+            if (sql != null) {
+                schema.append(sql.replaceAll("\\s+", " ").replace("( ", "(").replace(" )", ")")
+                        .replace(" ,", ","));
+            }
+            schema.append('\n');
+        }
+        cursor.close();
+        return schema.toString();
+    }
+
+    private void deleteDatabases() {
+        mContext.deleteDatabase(UPGRADED_DATABASE);
+        mContext.deleteDatabase(FRESH_DATABASE);
+    }
+}
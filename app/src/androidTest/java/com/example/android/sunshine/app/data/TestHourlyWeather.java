@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+
+/*
+    Checks the hourly weather table: time window queries, that they are answered from an index,
+    and what writing and reading back 40 periods for each of 25 locations costs.
+ */
+public class TestHourlyWeather extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestHourlyWeather.class.getSimpleName();
+
+    private static final int PERIODS = 40;
+    private static final int LOCATIONS = 25;
+    private static final long FIRST_PERIOD = TestUtilities.TEST_DATE;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearTables();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearTables();
+        super.tearDown();
+    }
+
+    public void testTimeWindowQuery() {
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] periods = new ContentValues[PERIODS];
+        for (int i = 0; i < PERIODS; i++) {
+            periods[i] = createPeriod(locationId, i);
+        }
+        assertEquals(PERIODS, mContext.getContentResolver()
+                .bulkInsert(HourlyWeatherEntry.CONTENT_URI, periods));
+
+        // The second day only
+        long start = FIRST_PERIOD + DAY_IN_MILLIS;
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyWeatherEntry.buildHourlyWeatherLocationWithRange(TestUtilities.TEST_LOCATION,
+                        start, start + DAY_IN_MILLIS),
+                null, null, null, null);
+        assertEquals("Error: a day should hold 8 periods", 8, cursor.getCount());
+        int i = 8;
+        while (cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("Error: wrong period in the window", cursor,
+                    createPeriod(locationId, i++));
+        }
+        cursor.close();
+
+        // Storing a period again replaces it rather than adding another row
+        ContentValues changed = createPeriod(locationId, 0);
+        changed.put(HourlyWeatherEntry.COLUMN_TEMP, -40.0);
+        mContext.getContentResolver().insert(HourlyWeatherEntry.CONTENT_URI, changed);
+        cursor = mContext.getContentResolver().query(
+                HourlyWeatherEntry.buildHourlyWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals(PERIODS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: the period was not replaced", cursor, changed);
+        cursor.close();
+    }
+
+    public void testTimeWindowQueryUsesIndex() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        // The same statement the provider runs for hourly_weather/<location>?start=..&end=..
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN SELECT * FROM "
+                + HourlyWeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME
+                + " ON " + HourlyWeatherEntry.TABLE_NAME + "." + HourlyWeatherEntry.COLUMN_LOC_KEY
+                + " = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID
+                + " WHERE " + LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING
+                + " = ? AND " + HourlyWeatherEntry.COLUMN_TIME + " >= ? AND "
+                + HourlyWeatherEntry.COLUMN_TIME + " < ? ORDER BY "
+                + HourlyWeatherEntry.COLUMN_TIME + " ASC",
+                new String[]{TestUtilities.TEST_LOCATION, "0", "1"});
+        int detailIndex = plan.getColumnIndex("detail");
+        boolean readsHourly = false;
+        StringBuilder details = new StringBuilder();
+        while (plan.moveToNext()) {
+            String detail = plan.getString(detailIndex);
+            details.append(detail).append('\n');
+            if (detail.contains(HourlyWeatherEntry.TABLE_NAME)) {
+                readsHourly = true;
+                assertTrue("Error: the hourly weather isn't searched by index:\n" + detail,
+                        detail.contains("USING INDEX") || detail.contains("USING COVERING INDEX"));
+            }
+        }
+        plan.close();
+        db.close();
+        Log.i(LOG_TAG, "Query plan:\n" + details);
+        assertTrue("Error: the plan doesn't read the hourly weather at all", readsHourly);
+    }
+
+    public void testBenchmark() throws Exception {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+
+        // The shape of batch a sync builds for new locations
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (int location = 0; location < LOCATIONS; location++) {
+            int locationOperation = operations.size();
+            ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, getLocation(location));
+            operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                    .withValues(locationValues)
+                    .build());
+            for (int i = 0; i < PERIODS; i++) {
+                ContentValues period = createPeriod(0, i);
+                period.remove(HourlyWeatherEntry.COLUMN_LOC_KEY);
+                operations.add(ContentProviderOperation.newInsert(HourlyWeatherEntry.CONTENT_URI)
+                        .withValues(period)
+                        .withValueBackReference(HourlyWeatherEntry.COLUMN_LOC_KEY,
+                                locationOperation)
+                        .build());
+            }
+        }
+
+        int transactions = provider.getWriteTransactionCount();
+        long start = System.nanoTime();
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        long insertMicros = (System.nanoTime() - start) / 1000;
+        assertEquals("Error: the whole batch should be one transaction",
+                1, provider.getWriteTransactionCount() - transactions);
+        client.release();
+
+        // What a screen showing the next day for every location would ask for
+        long windowStart = FIRST_PERIOD + DAY_IN_MILLIS;
+        int rows = 0;
+        start = System.nanoTime();
+        for (int location = 0; location < LOCATIONS; location++) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    HourlyWeatherEntry.buildHourlyWeatherLocationWithRange(getLocation(location),
+                            windowStart, windowStart + DAY_IN_MILLIS),
+                    new String[]{HourlyWeatherEntry.COLUMN_TIME, HourlyWeatherEntry.COLUMN_TEMP},
+                    null, null, null);
+            while (cursor.moveToNext()) {
+                rows++;
+            }
+            cursor.close();
+        }
+        long queryMicros = (System.nanoTime() - start) / 1000;
+
+        Log.i(LOG_TAG, String.format("%d locations x %d periods: insert %d us (%d us per row),"
+                        + " %d day window queries %d us (%d us each)",
+                LOCATIONS, PERIODS, insertMicros, insertMicros / (LOCATIONS * PERIODS),
+                LOCATIONS, queryMicros, queryMicros / LOCATIONS));
+
+        Cursor cursor = mContext.getContentResolver().query(HourlyWeatherEntry.CONTENT_URI,
+                new String[]{HourlyWeatherEntry._ID}, null, null, null);
+        assertEquals("Error: batch did not store every period", LOCATIONS * PERIODS,
+                cursor.getCount());
+        cursor.close();
+        assertEquals("Error: every window should hold a day of periods", LOCATIONS * 8, rows);
+    }
+
+    private static String getLocation(int location) {
+        return TestUtilities.TEST_LOCATION + "-" + location;
+    }
+
+    private static ContentValues createPeriod(long locationId, int index) {
+        ContentValues values = new ContentValues();
+        values.put(HourlyWeatherEntry.COLUMN_LOC_KEY, locationId);
+        values.put(HourlyWeatherEntry.COLUMN_TIME,
+                FIRST_PERIOD + index * HourlyWeatherEntry.PERIOD_MILLIS);
+        values.put(HourlyWeatherEntry.COLUMN_WEATHER_ID, 800 + index % 4);
+        values.put(HourlyWeatherEntry.COLUMN_TEMP, 10.5 + index % 8);
+        values.put(HourlyWeatherEntry.COLUMN_HUMIDITY, 60.0 + index % 20);
+        values.put(HourlyWeatherEntry.COLUMN_PRESSURE, 1012.5 + index % 6);
+        values.put(HourlyWeatherEntry.COLUMN_WIND_SPEED, 3.5 + index % 3);
+        values.put(HourlyWeatherEntry.COLUMN_DEGREES, (index * 45.0) % 360);
+        return values;
+    }
+
+    private void clearTables() {
+        mContext.getContentResolver().delete(HourlyWeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -512,4 +512,60 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // Sending the same forecast twice should leave the table, and every observer, alone.  Only
+    // the rows that really changed are written, and they keep their _ID.
+    public void testBulkInsertSkipsUnchangedRows() throws InterruptedException {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+        long[] idsBefore = getWeatherIds();
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        int changedCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: an identical bulkInsert reported changed rows", 0, changedCount);
+
+        // Give a stray notification the chance to arrive before checking that there was none
+        Thread.sleep(500);
+        assertFalse("Error: an identical bulkInsert notified observers",
+                weatherObserver.mContentChanged);
+
+        ContentValues[] oneChanged = createBulkInsertWeatherValues(locationRowId);
+        oneChanged[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        changedCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, oneChanged);
+        assertEquals("Error: expected exactly one changed row", 1, changedCount);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        long[] idsAfter = getWeatherIds();
+        assertEquals(idsBefore.length, idsAfter.length);
+        for (int i = 0; i < idsBefore.length; i++) {
+            assertEquals("Error: row " + i + " was replaced instead of updated",
+                    idsBefore[i], idsAfter[i]);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null,
+                null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToPosition(3));
+        TestUtilities.validateCurrentRecord("testBulkInsertSkipsUnchangedRows", cursor, oneChanged[3]);
+        cursor.close();
+    }
+
+    private long[] getWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/*
+    Checks that the forecast queries of a location are answered from the cache until a write
+    touches that location, and that what comes out of the cache is what the database holds.
+ */
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final int DAYS = 7;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+    private static final String LOCATION_A = "cache-a";
+    private static final String LOCATION_B = "cache-b";
+
+    private WeatherProvider mProvider;
+    private ContentProviderClient mClient;
+    private long mLocationA;
+    private long mLocationB;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearTables();
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mProvider = (WeatherProvider) mClient.getLocalContentProvider();
+
+        mLocationA = insertLocation(LOCATION_A);
+        mLocationB = insertLocation(LOCATION_B);
+        bulkInsert(createRows(mLocationA, 0));
+        bulkInsert(createRows(mLocationB, 0));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mClient.release();
+        clearTables();
+        super.tearDown();
+    }
+
+    public void testRepeatedQueryIsAHit() {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        Uri uri = WeatherEntry.buildWeatherLocation(LOCATION_A);
+        assertMiss(uri);
+        assertHit(uri);
+        assertHit(uri);
+        // Another projection is another result
+        int misses = mProvider.getCacheMissCount();
+        close(mContext.getContentResolver().query(uri, new String[]{WeatherEntry.COLUMN_DATE},
+                null, null, null));
+        assertEquals(misses + 1, mProvider.getCacheMissCount());
+    }
+
+    public void testWriteToTheLocationInvalidates() {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        Uri uri = WeatherEntry.buildWeatherLocation(LOCATION_A);
+        assertMiss(uri);
+        ContentValues changed = createRow(mLocationA, 0, 1);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, changed);
+        assertMiss(uri);
+        assertCachedMatchesDatabase(uri);
+    }
+
+    public void testOtherWritesKeepTheEntry() {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(LOCATION_A, FIRST_DAY);
+        assertMiss(uri);
+        // Another location
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                createRow(mLocationB, 0, 1));
+        assertHit(uri);
+        // The same row again, which writes nothing
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                createRow(mLocationA, 0, 0));
+        assertEquals(0, bulkInsert(createRows(mLocationA, 0)));
+        assertHit(uri);
+    }
+
+    public void testBulkInsertInvalidates() {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(LOCATION_A, FIRST_DAY);
+        assertMiss(uri);
+        assertEquals(DAYS, bulkInsert(createRows(mLocationA, 1)));
+        assertMiss(uri);
+        assertCachedMatchesDatabase(uri);
+    }
+
+    public void testBatchInvalidatesOnceCommitted() throws Exception {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        Uri uri = WeatherEntry.buildWeatherLocation(LOCATION_A);
+        Uri otherUri = WeatherEntry.buildWeatherLocation(LOCATION_B);
+        assertMiss(uri);
+        assertMiss(otherUri);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues row : createRows(mLocationA, 1)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(row).build());
+        }
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        assertMiss(uri);
+        assertHit(otherUri);
+        assertCachedMatchesDatabase(uri);
+    }
+
+    public void testDeleteInvalidatesEverything() {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        Uri uri = WeatherEntry.buildWeatherLocation(LOCATION_A);
+        Uri otherUri = WeatherEntry.buildWeatherLocation(LOCATION_B);
+        assertMiss(uri);
+        assertMiss(otherUri);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(FIRST_DAY)});
+        assertMiss(uri);
+        assertMiss(otherUri);
+        assertCachedMatchesDatabase(uri);
+    }
+
+    public void testLocationInsertInvalidatesItsEmptyForecast() {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        Uri uri = WeatherEntry.buildWeatherLocation("cache-c");
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        long locationId = insertLocation("cache-c");
+        bulkInsert(createRows(locationId, 0));
+        cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertEquals("Error: the forecast cached before the location was stored came back",
+                DAYS, cursor.getCount());
+        cursor.close();
+    }
+
+    // The cached copy holds the same values, in the same order, as a query past the cache
+    private void assertCachedMatchesDatabase(Uri uri) {
+        Cursor cached = mContext.getContentResolver().query(uri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        int hits = mProvider.getCacheHitCount();
+        Cursor again = mContext.getContentResolver().query(uri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(hits + 1, mProvider.getCacheHitCount());
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        Cursor direct = WeatherProvider.getRouteQuery(uri, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC").query(dbHelper.getReadableDatabase(), null);
+        try {
+            assertSameRows(direct, cached);
+            assertSameRows(direct, again);
+        } finally {
+            cached.close();
+            again.close();
+            direct.close();
+            dbHelper.close();
+        }
+    }
+
+    private static void assertSameRows(Cursor expected, Cursor actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getColumnCount(), actual.getColumnCount());
+        expected.moveToPosition(-1);
+        actual.moveToPosition(-1);
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            for (int i = 0; i < expected.getColumnCount(); i++) {
+                assertEquals(expected.getColumnName(i), actual.getColumnName(i));
+                assertEquals("Error: column " + expected.getColumnName(i) + " differs",
+                        expected.getString(i), actual.getString(i));
+            }
+        }
+    }
+
+    private void assertHit(Uri uri) {
+        int hits = mProvider.getCacheHitCount();
+        close(mContext.getContentResolver().query(uri, null, null, null, null));
+        assertEquals("Error: expected a hit for " + uri, hits + 1, mProvider.getCacheHitCount());
+    }
+
+    private void assertMiss(Uri uri) {
+        int misses = mProvider.getCacheMissCount();
+        close(mContext.getContentResolver().query(uri, null, null, null, null));
+        assertEquals("Error: expected a miss for " + uri, misses + 1,
+                mProvider.getCacheMissCount());
+    }
+
+    private static void close(Cursor cursor) {
+        assertNotNull(cursor);
+        cursor.close();
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private static ContentValues[] createRows(long locationId, int generation) {
+        ContentValues[] rows = new ContentValues[DAYS];
+        for (int day = 0; day < DAYS; day++) {
+            rows[day] = createRow(locationId, day, generation);
+        }
+        return rows;
+    }
+
+    private static ContentValues createRow(long locationId, int day, int generation) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        values.put(WeatherEntry.COLUMN_DATE, FIRST_DAY + DAY_IN_MILLIS * day);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 10.5 + generation);
+        return values;
+    }
+
+    private int bulkInsert(ContentValues[] rows) {
+        return mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, rows);
+    }
+
+    private void clearTables() {
+        mContext.getContentResolver().delete(HourlyWeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherStatsEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Asks SQLite how it plans the queries the provider runs for each of its routes, against a
+    database the size of a heavy user's, and fails if any of them reads a whole table.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String DATABASE = "weather_query_plans_test.db";
+
+    private static final int LOCATIONS = 10000;
+    private static final int DAYS = 16;
+    private static final int RUNS = 200;
+    private static final long DAY_MILLIS = 1000 * 60 * 60 * 24;
+
+    private WeatherDbHelper mHelper;
+    private SQLiteDatabase mDb;
+    private long mFirstDay;
+
+    // A query the app makes, with the uri and selection it makes it with
+    private static class Case {
+        final String mName;
+        final Uri mUri;
+        final String mSelection;
+        final String[] mSelectionArgs;
+        final String mSortOrder;
+
+        Case(String name, Uri uri, String selection, String[] selectionArgs, String sortOrder) {
+            mName = name;
+            mUri = uri;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+        }
+
+        WeatherProvider.RouteQuery getRouteQuery() {
+            return WeatherProvider.getRouteQuery(mUri, mSelection, mSelectionArgs, mSortOrder);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE);
+        mHelper = new WeatherDbHelper(mContext, DATABASE);
+        mDb = mHelper.getWritableDatabase();
+        mFirstDay = WeatherContract.normalizeDate(System.currentTimeMillis());
+        fill();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE);
+        super.tearDown();
+    }
+
+    public void testNoRouteScansATable() {
+        for (Case c : getCases(new Random(0))) {
+            for (String step : explain(c.getRouteQuery())) {
+                assertFalse("Error: " + c.mName + " reads a whole table: " + step,
+                        step.startsWith("SCAN"));
+            }
+        }
+    }
+
+    // A window of days is read off the key in date order, so nothing has to be sorted and the
+    // read stops at the limit
+    public void testWindowsAreNotSorted() {
+        for (Case c : getCases(new Random(0))) {
+            if (c.getRouteQuery().mLimit == null) {
+                continue;
+            }
+            for (String step : explain(c.getRouteQuery())) {
+                assertFalse("Error: " + c.mName + " sorts the forecast: " + step,
+                        step.contains("TEMP B-TREE"));
+            }
+        }
+    }
+
+    public void testWindowOfDays() {
+        String location = getLocationSetting(42);
+        assertEquals(new long[]{mFirstDay + 3 * DAY_MILLIS, mFirstDay + 4 * DAY_MILLIS},
+                readDates(WeatherEntry.buildWeatherLocationWithStartDate(location,
+                        mFirstDay + DAY_MILLIS, 2, 2)));
+        assertEquals(new long[]{mFirstDay},
+                readDates(WeatherEntry.buildWeatherLocationWithStartDate(location,
+                        mFirstDay, 0, 1)));
+        // Past the end of the forecast, and no limit at all
+        assertEquals(2, readDates(WeatherEntry.buildWeatherLocationWithStartDate(location,
+                mFirstDay, DAYS - 2, 5)).length);
+        assertEquals(DAYS - 1, readDates(WeatherEntry.buildWeatherLocationWithStartDate(location,
+                mFirstDay, 1, 0)).length);
+        assertEquals(DAYS, readDates(WeatherEntry.buildWeatherLocationWithStartDate(location,
+                mFirstDay)).length);
+    }
+
+    public void testOldDaysAreFoundByDate() {
+        WeatherProvider.RouteQuery prune = WeatherProvider.getRouteQuery(
+                WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(mFirstDay)}, null);
+        boolean usesIndex = false;
+        for (String step : explain(prune)) {
+            if (step.contains(WeatherDbHelper.WEATHER_DATE_INDEX)) {
+                usesIndex = true;
+            }
+        }
+        assertTrue("Error: deleting the days gone by doesn't use the date index", usesIndex);
+    }
+
+    // Logs the time of every route, then again with the weather table keyed the way it was
+    // before (date, location_id), to show what the indexes are worth
+    public void testBenchmark() {
+        Random random = new Random(0);
+        List<Case> cases = getCases(random);
+        long[] currentMicros = time(cases);
+
+        mDb.execSQL("DROP INDEX " + WeatherDbHelper.WEATHER_DATE_INDEX);
+        String create = getCreateSql(WeatherEntry.TABLE_NAME).replace(
+                "UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ")",
+                "UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_LOC_KEY + ")");
+        assertFalse("Error: the weather table isn't keyed by location first",
+                create.equals(getCreateSql(WeatherEntry.TABLE_NAME)));
+        mDb.beginTransaction();
+        try {
+            WeatherDbMigrations.rebuildTable(mDb, WeatherEntry.TABLE_NAME, create);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        long[] oldMicros = time(cases);
+
+        for (int i = 0; i < cases.size(); i++) {
+            Log.i(LOG_TAG, cases.get(i).mName + ": " + currentMicros[i] + " us, was "
+                    + oldMicros[i] + " us (" + LOCATIONS + " locations x " + DAYS + " days)");
+        }
+    }
+
+    private List<Case> getCases(Random random) {
+        String location = getLocationSetting(random.nextInt(LOCATIONS));
+        String locationId = Integer.toString(random.nextInt(LOCATIONS) + 1);
+        String dateSortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+        long day = mFirstDay + DAY_MILLIS * random.nextInt(DAYS);
+
+        List<Case> cases = new ArrayList<Case>();
+        // The forecast list, and what the widgets and the wearable show
+        cases.add(new Case("WEATHER_WITH_LOCATION",
+                WeatherEntry.buildWeatherLocation(location), null, null, dateSortOrder));
+        cases.add(new Case("WEATHER_WITH_LOCATION from a date",
+                WeatherEntry.buildWeatherLocationWithStartDate(location, day),
+                null, null, dateSortOrder));
+        // Today's row, for the widgets, Muzei, the notification and the wearable
+        cases.add(new Case("WEATHER_WITH_LOCATION, one day",
+                WeatherEntry.buildWeatherLocationWithStartDate(location, day, 0, 1),
+                null, null, null));
+        cases.add(new Case("WEATHER_WITH_LOCATION, a window",
+                WeatherEntry.buildWeatherLocationWithStartDate(location, mFirstDay, 3, 7),
+                null, null, dateSortOrder));
+        // The detail view
+        cases.add(new Case("WEATHER_WITH_LOCATION_AND_DATE",
+                WeatherEntry.buildWeatherLocationWithDate(location, day), null, null, null));
+        // The sync looking up the row it is about to write
+        cases.add(new Case("WEATHER by date and location", WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ? AND " + WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(day), locationId}, null));
+        // The sync deleting the days gone by
+        cases.add(new Case("WEATHER up to a date", WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(mFirstDay)}, null));
+        // The sync and the deltas finding their locations
+        cases.add(new Case("LOCATION by setting", LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{location}, null));
+        cases.add(new Case("LOCATION by several settings", LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " IN (?,?,?)",
+                new String[]{location, getLocationSetting(random.nextInt(LOCATIONS)),
+                        getLocationSetting(random.nextInt(LOCATIONS))}, null));
+        cases.add(new Case("LOCATION by id", LocationEntry.CONTENT_URI,
+                LocationEntry._ID + " = ?", new String[]{locationId}, null));
+        cases.add(new Case("HOURLY_WEATHER_WITH_LOCATION",
+                HourlyWeatherEntry.buildHourlyWeatherLocationWithRange(location,
+                        mFirstDay, mFirstDay + DAY_MILLIS), null, null, null));
+        // "Warmest day this week", and the months of a location
+        cases.add(new Case("WEATHER_STATS_WITH_LOCATION_AND_PERIOD of a date",
+                WeatherStatsEntry.buildWeatherStatsLocationWithDate(location,
+                        WeatherStatsEntry.PERIOD_WEEK, day), null, null, null));
+        cases.add(new Case("WEATHER_STATS_WITH_LOCATION_AND_PERIOD",
+                WeatherStatsEntry.buildWeatherStatsLocation(location,
+                        WeatherStatsEntry.PERIOD_MONTH), null, null, null));
+        return cases;
+    }
+
+    private long[] readDates(Uri uri) {
+        Cursor cursor = WeatherProvider.getRouteQuery(uri, null, null, null)
+                .query(mDb, new String[]{WeatherEntry.COLUMN_DATE});
+        try {
+            long[] dates = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                dates[i] = cursor.getLong(0);
+            }
+            return dates;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertEquals(long[] expected, long[] actual) {
+        assertTrue("Error: expected " + Arrays.toString(expected) + " but got "
+                + Arrays.toString(actual), Arrays.equals(expected, actual));
+    }
+
+    private List<String> explain(WeatherProvider.RouteQuery query) {
+        List<String> steps = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + query.toSql(null),
+                query.mSelectionArgs);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                steps.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return steps;
+    }
+
+    // Average microseconds to read all the rows of each case
+    private long[] time(List<Case> cases) {
+        long[] micros = new long[cases.size()];
+        for (int i = 0; i < cases.size(); i++) {
+            WeatherProvider.RouteQuery query = cases.get(i).getRouteQuery();
+            long start = System.nanoTime();
+            for (int run = 0; run < RUNS; run++) {
+                Cursor cursor = query.query(mDb, null);
+                cursor.getCount();
+                cursor.close();
+            }
+            micros[i] = (System.nanoTime() - start) / 1000 / RUNS;
+        }
+        return micros;
+    }
+
+    // The stats are written as the triggers would leave them, except that the periods aren't
+    // lined up with weeks and months.  Running the triggers for every row would take minutes.
+    private void fill() {
+        long start = System.nanoTime();
+        List<String> triggers = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("SELECT name, sql FROM sqlite_master WHERE type = 'trigger'",
+                null);
+        while (cursor.moveToNext()) {
+            mDb.execSQL("DROP TRIGGER " + cursor.getString(0));
+            triggers.add(cursor.getString(1));
+        }
+        cursor.close();
+
+        SQLiteStatement location = mDb.compileStatement("INSERT INTO " + LocationEntry.TABLE_NAME
+                + " (" + LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_SETTING + ", "
+                + LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_COORD_LAT + ", "
+                + LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, 0, 0)");
+        SQLiteStatement weather = mDb.compileStatement("INSERT INTO " + WeatherEntry.TABLE_NAME
+                + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", "
+                + WeatherEntry.COLUMN_SHORT_DESC + ", " + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", " + WeatherEntry.COLUMN_DEGREES
+                + ") VALUES (?, ?, 'Clear', 800, 10, 20, 50, 1000, 5, 180)");
+        SQLiteStatement stats = mDb.compileStatement("INSERT INTO " + WeatherStatsEntry.TABLE_NAME
+                + " (" + WeatherStatsEntry.COLUMN_LOC_KEY + ", " + WeatherStatsEntry.COLUMN_PERIOD
+                + ", " + WeatherStatsEntry.COLUMN_START_DATE + ", "
+                + WeatherStatsEntry.COLUMN_END_DATE + ", " + WeatherStatsEntry.COLUMN_DAYS + ", "
+                + WeatherStatsEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherStatsEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherStatsEntry.COLUMN_AVG_MIN_TEMP + ", "
+                + WeatherStatsEntry.COLUMN_AVG_MAX_TEMP + ", "
+                + WeatherStatsEntry.COLUMN_HUMIDITY + ", "
+                + WeatherStatsEntry.COLUMN_PRESSURE + ", "
+                + WeatherStatsEntry.COLUMN_WIND_SPEED + ", "
+                + WeatherStatsEntry.COLUMN_WARMEST_DATE + ", "
+                + WeatherStatsEntry.COLUMN_COLDEST_DATE
+                + ") VALUES (?, ?, ?, ?, ?, 10, 20, 10, 20, 50, 1000, 5, ?, ?)");
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < LOCATIONS; i++) {
+                location.bindLong(1, i + 1);
+                location.bindString(2, getLocationSetting(i));
+                location.bindString(3, "City " + i);
+                location.executeInsert();
+                for (int day = 0; day < DAYS; day++) {
+                    weather.bindLong(1, i + 1);
+                    weather.bindLong(2, mFirstDay + DAY_MILLIS * day);
+                    weather.executeInsert();
+                }
+                insertStats(stats, i + 1, WeatherStatsEntry.PERIOD_WEEK, 7);
+                insertStats(stats, i + 1, WeatherStatsEntry.PERIOD_MONTH, 31);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            location.close();
+            weather.close();
+            stats.close();
+        }
+        for (String trigger : triggers) {
+            mDb.execSQL(trigger);
+        }
+        Log.i(LOG_TAG, "Filled " + LOCATIONS + " locations x " + DAYS + " days in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    private void insertStats(SQLiteStatement stats, long locationId, String period,
+                             int periodDays) {
+        for (int first = 0; first < DAYS; first += periodDays) {
+            long startDate = mFirstDay + DAY_MILLIS * first;
+            stats.bindLong(1, locationId);
+            stats.bindString(2, period);
+            stats.bindLong(3, startDate);
+            stats.bindLong(4, startDate + DAY_MILLIS * periodDays);
+            stats.bindLong(5, Math.min(periodDays, DAYS - first));
+            stats.bindLong(6, startDate);
+            stats.bindLong(7, startDate);
+            stats.executeInsert();
+        }
+    }
+
+    private String getCreateSql(String table) {
+        Cursor cursor = mDb.rawQuery("SELECT sql FROM sqlite_master WHERE name = ?",
+                new String[]{table});
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String getLocationSetting(int i) {
+        return Integer.toString(10000 + i);
+    }
+}
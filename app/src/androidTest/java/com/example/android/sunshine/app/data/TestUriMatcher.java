@@ -36,6 +36,19 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/sync_metrics"
+    private static final Uri TEST_SYNC_METRICS_DIR = WeatherContract.SyncMetricsEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/hourly_weather"
+    private static final Uri TEST_HOURLY_WEATHER_DIR = WeatherContract.HourlyWeatherEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WEATHER_WITH_LOCATION_DIR = WeatherContract.HourlyWeatherEntry.buildHourlyWeatherLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE + WeatherContract.HourlyWeatherEntry.PERIOD_MILLIS);
+    // content://com.example.android.sunshine.app/weather_archive"
+    private static final Uri TEST_WEATHER_ARCHIVE_DIR = WeatherContract.WeatherArchiveEntry.CONTENT_URI;
+    private static final Uri TEST_WEATHER_ARCHIVE_WITH_LOCATION_DIR = WeatherContract.WeatherArchiveEntry.buildWeatherArchiveLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE * 2);
+    private static final Uri TEST_WEATHER_ARCHIVING_DIR = WeatherContract.WeatherEntry.buildWeatherArchivingUri();
+
+    private static final Uri TEST_WEATHER_STATS_DIR = WeatherContract.WeatherStatsEntry.CONTENT_URI;
+    private static final Uri TEST_WEATHER_STATS_WITH_LOCATION_DIR = WeatherContract.WeatherStatsEntry.buildWeatherStatsLocation(LOCATION_QUERY, WeatherContract.WeatherStatsEntry.PERIOD_WEEK);
+    private static final Uri TEST_WEATHER_STATS_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherStatsEntry.buildWeatherStatsLocationWithDate(LOCATION_QUERY, WeatherContract.WeatherStatsEntry.PERIOD_MONTH, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +66,23 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The SYNC METRICS URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_METRICS_DIR), WeatherProvider.SYNC_METRICS);
+        assertEquals("Error: The HOURLY WEATHER URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WEATHER_DIR), WeatherProvider.HOURLY_WEATHER);
+        assertEquals("Error: The HOURLY WEATHER WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WEATHER_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WEATHER_WITH_LOCATION);
+        assertEquals("Error: The WEATHER ARCHIVE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_ARCHIVE_DIR), WeatherProvider.WEATHER_ARCHIVE);
+        assertEquals("Error: The WEATHER ARCHIVE WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_ARCHIVE_WITH_LOCATION_DIR), WeatherProvider.WEATHER_ARCHIVE_WITH_LOCATION);
+        assertEquals("Error: The archiving WEATHER URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_ARCHIVING_DIR), WeatherProvider.WEATHER);
+        assertEquals("Error: The WEATHER STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_STATS_DIR), WeatherProvider.WEATHER_STATS);
+        assertEquals("Error: The WEATHER STATS WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_STATS_WITH_LOCATION_DIR), WeatherProvider.WEATHER_STATS_WITH_LOCATION_AND_PERIOD);
+        assertEquals("Error: The WEATHER STATS WITH LOCATION AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_STATS_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_STATS_WITH_LOCATION_AND_PERIOD);
     }
 }
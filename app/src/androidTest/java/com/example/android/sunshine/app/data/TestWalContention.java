@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Measures how long readers wait while the sync writes, with the write-ahead log and with the
+    rollback journal the database used before.
+ */
+public class TestWalContention extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWalContention.class.getSimpleName();
+
+    private static final String DATABASE = "weather_contention_test.db";
+
+    private static final int LOCATIONS = 100;
+    private static final int DAYS = 16;
+    private static final int WRITE_TRANSACTIONS = 10;
+    // About what reads at once after a sync: the forecast list, a widget and the wearable
+    private static final int READERS = 3;
+    private static final long DAY_MILLIS = 1000 * 60 * 60 * 24;
+
+    private long mFirstDay;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE);
+        mFirstDay = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE);
+        super.tearDown();
+    }
+
+    public void testHelperUsesWriteAheadLog() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, DATABASE);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals("wal", getJournalMode(db));
+        db.beginTransaction();
+        try {
+            assertEquals("Error: the writing connection checkpoints at the wrong size",
+                    WeatherDbHelper.WAL_AUTOCHECKPOINT_PAGES,
+                    DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint", null));
+        } finally {
+            db.endTransaction();
+        }
+        helper.close();
+    }
+
+    public void testReadersDontWaitForWrites() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            Log.i(LOG_TAG, "No write-ahead log before Jelly Bean, nothing to compare");
+            return;
+        }
+        long[] rollback = measure(false);
+        mContext.deleteDatabase(DATABASE);
+        long[] wal = measure(true);
+
+        log("Rollback journal", rollback);
+        log("Write-ahead log", wal);
+        assertTrue("Error: readers still wait for the writes, p99 " + percentile(wal, 99)
+                        + " us against " + percentile(rollback, 99) + " us",
+                percentile(wal, 99) < percentile(rollback, 99));
+    }
+
+    // Reader latencies in microseconds, sorted, while a writer rewrites every row over and over
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private long[] measure(boolean writeAheadLogging) throws Exception {
+        final WeatherDbHelper helper = new WeatherDbHelper(mContext, DATABASE);
+        helper.setWriteAheadLoggingEnabled(writeAheadLogging);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals(writeAheadLogging, "wal".equals(getJournalMode(db)));
+        fill(db);
+
+        final List<Long> latencies = new ArrayList<Long>();
+        final boolean[] writing = {true};
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < WRITE_TRANSACTIONS; i++) {
+                        write(db, i);
+                    }
+                } finally {
+                    synchronized (writing) {
+                        writing[0] = false;
+                    }
+                }
+            }
+        };
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < READERS; i++) {
+            final Random random = new Random(i);
+            readers.add(new Thread() {
+                @Override
+                public void run() {
+                    List<Long> mine = new ArrayList<Long>();
+                    while (true) {
+                        synchronized (writing) {
+                            if (!writing[0]) {
+                                break;
+                            }
+                        }
+                        WeatherProvider.RouteQuery query = WeatherProvider.getRouteQuery(
+                                WeatherEntry.buildWeatherLocation(
+                                        getLocationSetting(random.nextInt(LOCATIONS))),
+                                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+                        long start = System.nanoTime();
+                        Cursor cursor = query.query(helper.getReadableDatabase(), null);
+                        cursor.getCount();
+                        cursor.close();
+                        mine.add((System.nanoTime() - start) / 1000);
+                    }
+                    synchronized (latencies) {
+                        latencies.addAll(mine);
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        helper.close();
+
+        assertFalse("Error: nothing was read", latencies.isEmpty());
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private void fill(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LOCATIONS; i++) {
+                ContentValues location = new ContentValues();
+                location.put(LocationEntry._ID, i + 1);
+                location.put(LocationEntry.COLUMN_LOCATION_SETTING, getLocationSetting(i));
+                location.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+                location.put(LocationEntry.COLUMN_COORD_LAT, 0);
+                location.put(LocationEntry.COLUMN_COORD_LONG, 0);
+                db.insert(LocationEntry.TABLE_NAME, null, location);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        write(db, 0);
+    }
+
+    // What a sync of every location does: all of their days, in one transaction
+    private void write(SQLiteDatabase db, int generation) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LOCATIONS; i++) {
+                for (int day = 0; day < DAYS; day++) {
+                    ContentValues weather = new ContentValues();
+                    weather.put(WeatherEntry.COLUMN_LOC_KEY, i + 1);
+                    weather.put(WeatherEntry.COLUMN_DATE, mFirstDay + DAY_MILLIS * day);
+                    weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+                    weather.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+                    weather.put(WeatherEntry.COLUMN_MIN_TEMP, generation);
+                    weather.put(WeatherEntry.COLUMN_MAX_TEMP, generation + 10);
+                    weather.put(WeatherEntry.COLUMN_HUMIDITY, 50);
+                    weather.put(WeatherEntry.COLUMN_PRESSURE, 1000);
+                    weather.put(WeatherEntry.COLUMN_WIND_SPEED, 5);
+                    weather.put(WeatherEntry.COLUMN_DEGREES, 180);
+                    db.insert(WeatherEntry.TABLE_NAME, null, weather);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static String getJournalMode(SQLiteDatabase db) {
+        return DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null).toLowerCase();
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    private static void log(String mode, long[] sorted) {
+        Log.i(LOG_TAG, mode + ": " + sorted.length + " reads during " + WRITE_TRANSACTIONS
+                + " writes of " + LOCATIONS * DAYS + " rows, p50 " + percentile(sorted, 50)
+                + " us, p99 " + percentile(sorted, 99) + " us, max "
+                + sorted[sorted.length - 1] + " us");
+    }
+
+    private static String getLocationSetting(int i) {
+        return Integer.toString(10000 + i);
+    }
+}
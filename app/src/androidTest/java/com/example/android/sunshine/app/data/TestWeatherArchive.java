@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Checks that the days gone by are moved into the archive and come back out the same, that
+    old months are downsampled, and measures what a year of a location costs to keep and read.
+ */
+public class TestWeatherArchive extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherArchive.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+    private static final int YEAR = 365;
+    private static final int RUNS = 100;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearTables();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationId = ContentUris.parseId(locationUri);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearTables();
+        super.tearDown();
+    }
+
+    public void testCodecRoundTrip() {
+        Random random = new Random(0);
+        List<ArchiveCodec.Day> days = new ArrayList<ArchiveCodec.Day>();
+        int julianDay = 2457000;
+        for (int i = 0; i < 31; i++) {
+            ArchiveCodec.Day day = new ArchiveCodec.Day();
+            julianDay += 1 + random.nextInt(2);
+            day.mJulianDay = julianDay;
+            day.mDays = 1 + random.nextInt(7);
+            day.mWeatherId = 500 + random.nextInt(400);
+            day.mDescription = random.nextBoolean() ? "Clear" : "Light Rain";
+            day.mMin = -20 + random.nextInt(4000) / 100.0;
+            day.mMax = day.mMin + random.nextInt(2000) / 100.0;
+            day.mHumidity = random.nextInt(100);
+            day.mPressure = 950 + random.nextInt(1000) / 10.0;
+            day.mWind = random.nextInt(300) / 10.0;
+            day.mDegrees = random.nextInt(360);
+            days.add(day);
+        }
+        List<ArchiveCodec.Day> decoded = ArchiveCodec.decode(ArchiveCodec.encode(days));
+        assertEquals(days.size(), decoded.size());
+        for (int i = 0; i < days.size(); i++) {
+            ArchiveCodec.Day expected = days.get(i);
+            ArchiveCodec.Day actual = decoded.get(i);
+            assertEquals(expected.mJulianDay, actual.mJulianDay);
+            assertEquals(expected.mDays, actual.mDays);
+            assertEquals(expected.mWeatherId, actual.mWeatherId);
+            assertEquals(expected.mDescription, actual.mDescription);
+            assertEquals(expected.mMin, actual.mMin, 0.005);
+            assertEquals(expected.mMax, actual.mMax, 0.005);
+            assertEquals(expected.mHumidity, actual.mHumidity, 0.005);
+            assertEquals(expected.mPressure, actual.mPressure, 0.005);
+            assertEquals(expected.mWind, actual.mWind, 0.005);
+            assertEquals(expected.mDegrees, actual.mDegrees, 0.005);
+        }
+    }
+
+    public void testDeleteMovesDaysIntoTheArchive() {
+        ContentValues[] days = createDays(0, 20);
+        bulkInsert(days);
+        assertEquals(6, archiveUpTo(5));
+        assertEquals("Error: the forecast should stay in the weather table", 14, countWeather());
+
+        Cursor cursor = queryArchive(0, Long.MAX_VALUE);
+        try {
+            assertEquals(6, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                TestUtilities.validateCurrentRecord("Error: archived day " + i + " differs",
+                        cursor, withoutLocation(days[i]));
+                assertEquals(1, cursor.getInt(cursor.getColumnIndex(WeatherArchiveEntry.COLUMN_DAYS)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // A range, end exclusive
+        cursor = queryArchive(getDate(2), getDate(4));
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testDaysArchivedAgainReplaceTheirOldCopy() {
+        bulkInsert(createDays(0, 3));
+        archiveUpTo(2);
+        ContentValues[] again = createDays(2, 3);
+        again[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Snow");
+        bulkInsert(again);
+        archiveUpTo(4);
+
+        Cursor cursor = queryArchive(0, Long.MAX_VALUE);
+        try {
+            assertEquals(5, cursor.getCount());
+            cursor.moveToPosition(2);
+            assertEquals("Snow",
+                    cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testOldMonthsAreDownsampled() {
+        archiveYear();
+        int newestMonth = 0;
+        Cursor months = mContext.getContentResolver().query(WeatherArchiveEntry.CONTENT_URI,
+                new String[]{WeatherArchiveEntry.COLUMN_MONTH, WeatherArchiveEntry.COLUMN_RESOLUTION},
+                null, null, WeatherArchiveEntry.COLUMN_MONTH + " DESC");
+        try {
+            assertTrue("Error: a year should take a row a month", months.getCount() <= 13);
+            for (int i = 0; months.moveToNext(); i++) {
+                int resolution = months.getInt(1);
+                if (i == 0) {
+                    newestMonth = months.getInt(0);
+                }
+                assertEquals("Error: month " + months.getInt(0) + " has the wrong resolution",
+                        i < WeatherArchiveEntry.RETENTION_MONTHS
+                                ? 1 : WeatherArchiveEntry.DOWNSAMPLED_DAYS, resolution);
+            }
+        } finally {
+            months.close();
+        }
+        assertTrue(newestMonth > 0);
+
+        // Every day is still covered, once
+        Cursor cursor = queryArchive(0, Long.MAX_VALUE);
+        try {
+            int coveredDays = 0;
+            int daysIndex = cursor.getColumnIndex(WeatherArchiveEntry.COLUMN_DAYS);
+            while (cursor.moveToNext()) {
+                coveredDays += cursor.getInt(daysIndex);
+            }
+            assertEquals(YEAR, coveredDays);
+            assertTrue("Error: nothing was downsampled", cursor.getCount() < YEAR / 2);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // What a year of one location costs to keep, and to read back
+    public void testYearScan() {
+        archiveYear();
+        long bytes = 0;
+        Cursor months = mContext.getContentResolver().query(WeatherArchiveEntry.CONTENT_URI,
+                new String[]{"length(" + WeatherArchiveEntry.COLUMN_DATA + ")"},
+                null, null, null);
+        while (months.moveToNext()) {
+            bytes += months.getLong(0);
+        }
+        months.close();
+
+        long start = System.nanoTime();
+        int rows = 0;
+        for (int run = 0; run < RUNS; run++) {
+            Cursor cursor = queryArchive(0, Long.MAX_VALUE);
+            rows = cursor.getCount();
+            cursor.close();
+        }
+        long micros = (System.nanoTime() - start) / 1000 / RUNS;
+        Log.i(LOG_TAG, "A year: " + bytes + " bytes archived, " + rows + " rows read back in "
+                + micros + " us");
+        assertTrue("Error: a year takes " + bytes + " bytes", bytes < YEAR * 20);
+    }
+
+    private void archiveYear() {
+        ContentValues[] days = createDays(0, YEAR);
+        bulkInsert(days);
+        assertEquals(YEAR, archiveUpTo(YEAR - 1));
+        assertEquals(0, countWeather());
+    }
+
+    private int archiveUpTo(int day) {
+        return mContext.getContentResolver().delete(WeatherEntry.buildWeatherArchivingUri(),
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(getDate(day))});
+    }
+
+    private Cursor queryArchive(long start, long end) {
+        return mContext.getContentResolver().query(
+                WeatherArchiveEntry.buildWeatherArchiveLocationWithRange(
+                        TestUtilities.TEST_LOCATION, start, end), null, null, null, null);
+    }
+
+    private ContentValues[] createDays(int first, int count) {
+        Random random = new Random(first);
+        ContentValues[] days = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+            values.put(WeatherEntry.COLUMN_DATE, getDate(first + i));
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, random.nextInt(2000) / 100.0);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 20 + random.nextInt(2000) / 100.0);
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, random.nextBoolean() ? 800 : 500);
+            days[i] = values;
+        }
+        return days;
+    }
+
+    private static ContentValues withoutLocation(ContentValues values) {
+        ContentValues copy = new ContentValues(values);
+        copy.remove(WeatherEntry.COLUMN_LOC_KEY);
+        return copy;
+    }
+
+    private static long getDate(int day) {
+        return WeatherContract.normalizeDate(FIRST_DAY + day * DAY_IN_MILLIS);
+    }
+
+    private void bulkInsert(ContentValues[] days) {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+
+    private int countWeather() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void clearTables() {
+        mContext.getContentResolver().delete(WeatherArchiveEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
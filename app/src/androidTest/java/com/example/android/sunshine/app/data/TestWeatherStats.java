@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherStatsEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Checks that the stats the weather table's triggers keep stay what a scan of the weather
+    table would give, whichever way the weather is written.
+ */
+public class TestWeatherStats extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherStats.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+    // From December 2014 into February 2015
+    private static final int DAYS = 45;
+
+    private long mLocationId;
+
+    // A weather row as the stats see it
+    private static class Day {
+        long mLocationId;
+        long mDate;
+        double mMin;
+        double mMax;
+        double mHumidity;
+        double mPressure;
+        double mWind;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearTables();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationId = ContentUris.parseId(locationUri);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearTables();
+        super.tearDown();
+    }
+
+    public void testStatsFollowInserts() {
+        bulkInsert(createDays(0, DAYS, 0));
+        assertConsistent();
+        assertEquals("Error: December to February is three months", 3,
+                countPeriods(WeatherStatsEntry.PERIOD_MONTH));
+        assertTrue(countPeriods(WeatherStatsEntry.PERIOD_WEEK) >= DAYS / 7);
+    }
+
+    public void testReplaceConflictsUpdateTheStats() {
+        bulkInsert(createDays(0, DAYS, 0));
+
+        // Through the unique key's ON CONFLICT REPLACE, which deletes the old row without
+        // firing the delete trigger
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentValues hot = createDays(10, 1, 1)[0];
+        hot.put(WeatherEntry.COLUMN_MAX_TEMP, 99.0);
+        assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, hot) != -1);
+        ContentValues cold = createDays(30, 1, 2)[0];
+        cold.put(WeatherEntry.COLUMN_MIN_TEMP, -99.0);
+        assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, cold) != -1);
+        dbHelper.close();
+        assertConsistent();
+
+        Cursor week = queryPeriodOf(WeatherStatsEntry.PERIOD_WEEK, getDate(10));
+        try {
+            assertTrue(week.moveToFirst());
+            assertEquals(99.0, getDouble(week, WeatherStatsEntry.COLUMN_MAX_TEMP), 0);
+            assertEquals(getDate(10), getLong(week, WeatherStatsEntry.COLUMN_WARMEST_DATE));
+        } finally {
+            week.close();
+        }
+        Cursor month = queryPeriodOf(WeatherStatsEntry.PERIOD_MONTH, getDate(30));
+        try {
+            assertTrue(month.moveToFirst());
+            assertEquals(-99.0, getDouble(month, WeatherStatsEntry.COLUMN_MIN_TEMP), 0);
+            assertEquals(getDate(30), getLong(month, WeatherStatsEntry.COLUMN_COLDEST_DATE));
+        } finally {
+            month.close();
+        }
+
+        // And back down through the provider, which updates the row in place
+        hot.put(WeatherEntry.COLUMN_MAX_TEMP, 1.0);
+        bulkInsert(new ContentValues[]{hot});
+        assertConsistent();
+    }
+
+    public void testDeletesShrinkAndDropPeriods() {
+        bulkInsert(createDays(0, DAYS, 0));
+        int weeks = countPeriods(WeatherStatsEntry.PERIOD_WEEK);
+
+        // The warmest day of its week goes, so the week's highest has to be found again
+        long warmest = getWarmestDateOfWeek(getDate(20));
+        delete(WeatherEntry.COLUMN_DATE + " = ?", Long.toString(warmest));
+        assertConsistent();
+        assertFalse(warmest == getWarmestDateOfWeek(getDate(20)));
+
+        // A whole week and more
+        delete(WeatherEntry.COLUMN_DATE + " < ?", Long.toString(getDate(14)));
+        assertConsistent();
+        assertTrue(countPeriods(WeatherStatsEntry.PERIOD_WEEK) < weeks);
+
+        delete(null, null);
+        assertEquals(0, countPeriods(WeatherStatsEntry.PERIOD_WEEK));
+        assertEquals(0, countPeriods(WeatherStatsEntry.PERIOD_MONTH));
+    }
+
+    public void testMovedDaysLeaveTheirPeriod() {
+        bulkInsert(createDays(0, 10, 0));
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_DATE, getDate(DAYS));
+        int updated = mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(getDate(0))});
+        assertEquals(1, updated);
+        assertConsistent();
+    }
+
+    public void testArchivingKeepsTheStats() {
+        ContentValues[] days = createDays(0, DAYS, 0);
+        bulkInsert(days);
+        List<Day> stored = readDays();
+        // A Sunday, so yesterday's week and month have days archived and days left
+        long today = getDate(DAYS / 2);
+        long yesterday = getDate(DAYS / 2 - 1);
+        double[] week = readPeriodOf(WeatherStatsEntry.PERIOD_WEEK, yesterday);
+        double[] month = readPeriodOf(WeatherStatsEntry.PERIOD_MONTH, yesterday);
+
+        // The way the sync archives yesterday and the days before it
+        int archived = mContext.getContentResolver().delete(
+                WeatherEntry.buildWeatherArchivingUri(), WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(yesterday)});
+        assertEquals(DAYS / 2, archived);
+        assertPeriodUnchanged(week, WeatherStatsEntry.PERIOD_WEEK, yesterday);
+        assertPeriodUnchanged(month, WeatherStatsEntry.PERIOD_MONTH, yesterday);
+        assertConsistent(stored);
+
+        // And the sync writing the forecast from today again
+        ContentValues[] forecast = new ContentValues[DAYS - DAYS / 2];
+        System.arraycopy(days, DAYS / 2, forecast, 0, forecast.length);
+        bulkInsert(forecast);
+        assertPeriodUnchanged(week, WeatherStatsEntry.PERIOD_WEEK, today);
+        assertConsistent(stored);
+    }
+
+    public void testWarmestDayThisWeek() {
+        ContentValues[] days = createDays(0, DAYS, 0);
+        bulkInsert(days);
+        long today = getDate(DAYS / 2);
+
+        Uri uri = WeatherStatsEntry.buildWeatherStatsLocationWithDate(TestUtilities.TEST_LOCATION,
+                WeatherStatsEntry.PERIOD_WEEK, today);
+        assertEquals(WeatherStatsEntry.CONTENT_ITEM_TYPE,
+                mContext.getContentResolver().getType(uri));
+        Cursor week = mContext.getContentResolver().query(uri, null, null, null, null);
+        try {
+            assertEquals(1, week.getCount());
+            assertTrue(week.moveToFirst());
+            long start = getLong(week, WeatherStatsEntry.COLUMN_START_DATE);
+            long end = getLong(week, WeatherStatsEntry.COLUMN_END_DATE);
+            assertTrue(start <= today && today < end);
+
+            ContentValues warmest = null;
+            for (ContentValues day : days) {
+                long date = day.getAsLong(WeatherEntry.COLUMN_DATE);
+                if (date >= start && date < end && (warmest == null
+                        || day.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP)
+                        > warmest.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP))) {
+                    warmest = day;
+                }
+            }
+            assertNotNull(warmest);
+            assertEquals((long) warmest.getAsLong(WeatherEntry.COLUMN_DATE),
+                    getLong(week, WeatherStatsEntry.COLUMN_WARMEST_DATE));
+        } finally {
+            week.close();
+        }
+    }
+
+    private void assertConsistent() {
+        assertConsistent(readDays());
+    }
+
+    /*
+        Recomputes every stats row from the days, and checks the periods start where they
+        should and between them cover every day once.
+     */
+    private void assertConsistent(List<Day> days) {
+        Cursor stats = mContext.getContentResolver().query(WeatherStatsEntry.CONTENT_URI, null,
+                null, null, null);
+        int weekDays = 0;
+        int monthDays = 0;
+        Time time = new Time();
+        try {
+            while (stats.moveToNext()) {
+                String period = getString(stats, WeatherStatsEntry.COLUMN_PERIOD);
+                long locationId = getLong(stats, WeatherStatsEntry.COLUMN_LOC_KEY);
+                long start = getLong(stats, WeatherStatsEntry.COLUMN_START_DATE);
+                long end = getLong(stats, WeatherStatsEntry.COLUMN_END_DATE);
+                String error = "Error: " + period + " from " + start + " of location "
+                        + locationId;
+
+                time.set(start);
+                assertEquals(error, 0, time.hour);
+                if (WeatherStatsEntry.PERIOD_WEEK.equals(period)) {
+                    assertEquals(error, Time.MONDAY, time.weekDay);
+                    weekDays += getLong(stats, WeatherStatsEntry.COLUMN_DAYS);
+                } else {
+                    assertEquals(error, WeatherStatsEntry.PERIOD_MONTH, period);
+                    assertEquals(error, 1, time.monthDay);
+                    monthDays += getLong(stats, WeatherStatsEntry.COLUMN_DAYS);
+                }
+
+                int count = 0;
+                double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+                double minSum = 0, maxSum = 0, humiditySum = 0, pressureSum = 0, windSum = 0;
+                long warmest = 0, coldest = 0;
+                for (Day day : days) {
+                    if (day.mLocationId != locationId || day.mDate < start || day.mDate >= end) {
+                        continue;
+                    }
+                    count++;
+                    // Days come in date order, so the earliest wins a tie
+                    if (day.mMax > max) {
+                        max = day.mMax;
+                        warmest = day.mDate;
+                    }
+                    if (day.mMin < min) {
+                        min = day.mMin;
+                        coldest = day.mDate;
+                    }
+                    minSum += day.mMin;
+                    maxSum += day.mMax;
+                    humiditySum += day.mHumidity;
+                    pressureSum += day.mPressure;
+                    windSum += day.mWind;
+                }
+                assertTrue(error + " has no days", count > 0);
+                assertEquals(error, count, getLong(stats, WeatherStatsEntry.COLUMN_DAYS));
+                assertEquals(error, min, getDouble(stats, WeatherStatsEntry.COLUMN_MIN_TEMP), 0);
+                assertEquals(error, max, getDouble(stats, WeatherStatsEntry.COLUMN_MAX_TEMP), 0);
+                assertEquals(error, minSum / count,
+                        getDouble(stats, WeatherStatsEntry.COLUMN_AVG_MIN_TEMP), 1e-9);
+                assertEquals(error, maxSum / count,
+                        getDouble(stats, WeatherStatsEntry.COLUMN_AVG_MAX_TEMP), 1e-9);
+                assertEquals(error, humiditySum / count,
+                        getDouble(stats, WeatherStatsEntry.COLUMN_HUMIDITY), 1e-9);
+                assertEquals(error, pressureSum / count,
+                        getDouble(stats, WeatherStatsEntry.COLUMN_PRESSURE), 1e-9);
+                assertEquals(error, windSum / count,
+                        getDouble(stats, WeatherStatsEntry.COLUMN_WIND_SPEED), 1e-9);
+                assertEquals(error, warmest, getLong(stats, WeatherStatsEntry.COLUMN_WARMEST_DATE));
+                assertEquals(error, coldest, getLong(stats, WeatherStatsEntry.COLUMN_COLDEST_DATE));
+            }
+        } finally {
+            stats.close();
+        }
+        assertEquals("Error: the weeks don't cover every day once", days.size(), weekDays);
+        assertEquals("Error: the months don't cover every day once", days.size(), monthDays);
+    }
+
+    private List<Day> readDays() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE,
+                        WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherEntry.COLUMN_HUMIDITY, WeatherEntry.COLUMN_PRESSURE,
+                        WeatherEntry.COLUMN_WIND_SPEED},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        List<Day> days = new ArrayList<Day>();
+        try {
+            while (cursor.moveToNext()) {
+                Day day = new Day();
+                day.mLocationId = cursor.getLong(0);
+                day.mDate = cursor.getLong(1);
+                day.mMin = cursor.getDouble(2);
+                day.mMax = cursor.getDouble(3);
+                day.mHumidity = cursor.getDouble(4);
+                day.mPressure = cursor.getDouble(5);
+                day.mWind = cursor.getDouble(6);
+                days.add(day);
+            }
+        } finally {
+            cursor.close();
+        }
+        return days;
+    }
+
+    private static final String[] STATS_COLUMNS = {
+            WeatherStatsEntry.COLUMN_START_DATE,
+            WeatherStatsEntry.COLUMN_END_DATE,
+            WeatherStatsEntry.COLUMN_DAYS,
+            WeatherStatsEntry.COLUMN_MIN_TEMP,
+            WeatherStatsEntry.COLUMN_MAX_TEMP,
+            WeatherStatsEntry.COLUMN_AVG_MIN_TEMP,
+            WeatherStatsEntry.COLUMN_AVG_MAX_TEMP,
+            WeatherStatsEntry.COLUMN_HUMIDITY,
+            WeatherStatsEntry.COLUMN_PRESSURE,
+            WeatherStatsEntry.COLUMN_WIND_SPEED,
+            WeatherStatsEntry.COLUMN_WARMEST_DATE,
+            WeatherStatsEntry.COLUMN_COLDEST_DATE
+    };
+
+    private double[] readPeriodOf(String period, long date) {
+        Cursor cursor = queryPeriodOf(period, date);
+        try {
+            assertTrue(cursor.moveToFirst());
+            double[] values = new double[STATS_COLUMNS.length];
+            for (int i = 0; i < STATS_COLUMNS.length; i++) {
+                values[i] = getDouble(cursor, STATS_COLUMNS[i]);
+            }
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The averages may differ in the last bits, the days being added up in another order
+    private void assertPeriodUnchanged(double[] expected, String period, long date) {
+        double[] actual = readPeriodOf(period, date);
+        for (int i = 0; i < STATS_COLUMNS.length; i++) {
+            assertEquals("Error: the " + period + "'s " + STATS_COLUMNS[i] + " changed",
+                    expected[i], actual[i], 1e-9);
+        }
+    }
+
+    private long getWarmestDateOfWeek(long date) {
+        Cursor week = queryPeriodOf(WeatherStatsEntry.PERIOD_WEEK, date);
+        try {
+            assertTrue(week.moveToFirst());
+            return getLong(week, WeatherStatsEntry.COLUMN_WARMEST_DATE);
+        } finally {
+            week.close();
+        }
+    }
+
+    private Cursor queryPeriodOf(String period, long date) {
+        return mContext.getContentResolver().query(
+                WeatherStatsEntry.buildWeatherStatsLocationWithDate(TestUtilities.TEST_LOCATION,
+                        period, date), null, null, null, null);
+    }
+
+    private int countPeriods(String period) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherStatsEntry.buildWeatherStatsLocation(TestUtilities.TEST_LOCATION, period),
+                null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private ContentValues[] createDays(int first, int count, long seed) {
+        Random random = new Random(seed);
+        ContentValues[] days = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+            values.put(WeatherEntry.COLUMN_DATE, getDate(first + i));
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, -10 + random.nextInt(2000) / 100.0);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 10 + random.nextInt(2000) / 100.0);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, random.nextInt(100));
+            values.put(WeatherEntry.COLUMN_PRESSURE, 990 + random.nextInt(40));
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, random.nextInt(200) / 10.0);
+            days[i] = values;
+        }
+        return days;
+    }
+
+    private static long getDate(int day) {
+        return WeatherContract.normalizeDate(FIRST_DAY + day * DAY_IN_MILLIS);
+    }
+
+    private void bulkInsert(ContentValues[] days) {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+
+    private void delete(String selection, String arg) {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, selection,
+                arg == null ? null : new String[]{arg});
+    }
+
+    private static String getString(Cursor cursor, String column) {
+        return cursor.getString(cursor.getColumnIndexOrThrow(column));
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        return cursor.getLong(cursor.getColumnIndexOrThrow(column));
+    }
+
+    private static double getDouble(Cursor cursor, String column) {
+        return cursor.getDouble(cursor.getColumnIndexOrThrow(column));
+    }
+
+    private void clearTables() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherArchiveEntry.CONTENT_URI, null, null);
+    }
+}
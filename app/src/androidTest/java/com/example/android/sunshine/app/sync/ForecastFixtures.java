@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Locale;
+
+/*
+    Builds OpenWeatherMap daily and 3 hour forecast responses shaped like the real thing, so that tests
+    can exercise the parser and the sync without a network connection.
+ */
+public class ForecastFixtures {
+    static final String CITY_NAME = "Mountain View";
+    static final double CITY_LAT = 37.4056;
+    static final double CITY_LON = -122.0775;
+
+    private static final int[] WEATHER_IDS = {800, 801, 802, 500, 501, 600, 741, 211};
+    private static final String[] DESCRIPTIONS =
+            {"Clear", "Clouds", "Clouds", "Rain", "Rain", "Snow", "Fog", "Thunderstorm"};
+
+    /**
+     * @param numDays number of elements in the "list" array
+     * @param seed    varies the values, so two fixtures with different seeds differ on every day
+     */
+    static String createForecastJson(int numDays, int seed) {
+        StringBuilder json = new StringBuilder(256 + numDays * 320);
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"").append(CITY_NAME)
+                .append("\",\"coord\":{\"lon\":").append(CITY_LON)
+                .append(",\"lat\":").append(CITY_LAT)
+                .append("},\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0107,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            int condition = (i + seed) % WEATHER_IDS.length;
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,\"night\":%.2f,"
+                            + "\"eve\":%.2f,\"morn\":%.2f},\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"%s\",\"description\":\"%s\","
+                            + "\"icon\":\"01d\"}],\"speed\":%.2f,\"deg\":%d,\"clouds\":%d}",
+                    1419033600L + i * 86400L,
+                    15.0 + seed + i % 7,
+                    8.0 + seed + i % 5,
+                    21.0 + seed + i % 9,
+                    10.0, 18.0, 9.0,
+                    1010.0 + i % 13,
+                    60 + (i + seed) % 30,
+                    WEATHER_IDS[condition],
+                    DESCRIPTIONS[condition],
+                    DESCRIPTIONS[condition].toLowerCase(Locale.US),
+                    2.5 + i % 4,
+                    (i * 37 + seed) % 360,
+                    (i * 11) % 100));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    static String createForecastJson(int numDays) {
+        return createForecastJson(numDays, 0);
+    }
+
+    /**
+     * Builds a 3 hour forecast response.
+     *
+     * @param numPeriods      number of elements in the "list" array, the real thing has 40
+     * @param firstPeriodTime start of the first period, in milliseconds since the epoch
+     */
+    static String createHourlyForecastJson(int numPeriods, long firstPeriodTime) {
+        StringBuilder json = new StringBuilder(256 + numPeriods * 400);
+        json.append("{\"cod\":\"200\",\"message\":0.0036,\"cnt\":").append(numPeriods)
+                .append(",\"list\":[");
+        for (int i = 0; i < numPeriods; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            int condition = i % WEATHER_IDS.length;
+            double temperature = 12.0 + i % 8;
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"main\":{\"temp\":%.2f,\"temp_min\":%.2f,\"temp_max\":%.2f,"
+                            + "\"pressure\":%.2f,\"sea_level\":1026.38,\"grnd_level\":1017.1,"
+                            + "\"humidity\":%d,\"temp_kf\":0},\"weather\":[{\"id\":%d,"
+                            + "\"main\":\"%s\",\"description\":\"%s\",\"icon\":\"01d\"}],"
+                            + "\"clouds\":{\"all\":%d},\"wind\":{\"speed\":%.2f,\"deg\":%d},"
+                            + "\"sys\":{\"pod\":\"d\"},\"dt_txt\":\"2014-12-20 00:00:00\"}",
+                    firstPeriodTime / 1000 + i * 3 * 3600L,
+                    temperature, temperature - 1, temperature + 1,
+                    1015.0 + i % 11,
+                    55 + i % 40,
+                    WEATHER_IDS[condition],
+                    DESCRIPTIONS[condition],
+                    DESCRIPTIONS[condition].toLowerCase(Locale.US),
+                    (i * 13) % 100,
+                    1.5 + i % 5,
+                    (i * 41) % 360));
+        }
+        json.append("],\"city\":{\"id\":5375480,\"name\":\"").append(CITY_NAME)
+                .append("\",\"coord\":{\"lon\":").append(CITY_LON)
+                .append(",\"lat\":").append(CITY_LAT)
+                .append("},\"country\":\"US\"}}");
+        return json.toString();
+    }
+
+    static String createErrorJson(int code) {
+        return "{\"cod\":\"" + code + "\",\"message\":\"Error: Not found city\"}";
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    A ForecastSource which makes its forecasts up, so that the sync can be run offline and as
+    often as a load test wants.
+
+    Everything it does is decided by the seed, the location and how many times that location
+    has been asked for, so a run with the same settings gives the same responses whatever order
+    the sync's threads ask in.
+ */
+public class SyntheticForecastSource implements ForecastSource {
+
+    private static final int HOURLY_PERIODS = 40;
+
+    private final long mSeed;
+    private long mLatencyMillis;
+    private int mNumDays = -1;
+    private float mErrorRate;
+    private float mMalformedRate;
+    private float mChangeRate = 1f;
+    private String mStableLocation;
+
+    private final ConcurrentHashMap<String, AtomicInteger> mRequests =
+            new ConcurrentHashMap<String, AtomicInteger>();
+    private final Map<String, Integer> mVersions = new ConcurrentHashMap<String, Integer>();
+    private final AtomicInteger mErrors = new AtomicInteger();
+    private final AtomicInteger mMalformed = new AtomicInteger();
+    private final AtomicInteger mNotModified = new AtomicInteger();
+
+    public SyntheticForecastSource(long seed) {
+        mSeed = seed;
+    }
+
+    /** How long each response takes to start arriving. */
+    public SyntheticForecastSource setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+        return this;
+    }
+
+    /** How many days each daily forecast has, instead of the number asked for. */
+    public SyntheticForecastSource setNumDays(int numDays) {
+        mNumDays = numDays;
+        return this;
+    }
+
+    /** The share of daily requests answered with HTTP_UNAVAILABLE. */
+    public SyntheticForecastSource setErrorRate(float errorRate) {
+        mErrorRate = errorRate;
+        return this;
+    }
+
+    /** The share of daily requests answered with a forecast cut off halfway. */
+    public SyntheticForecastSource setMalformedRate(float malformedRate) {
+        mMalformedRate = malformedRate;
+        return this;
+    }
+
+    /** The share of daily requests for which the location's forecast has changed. */
+    public SyntheticForecastSource setChangeRate(float changeRate) {
+        mChangeRate = changeRate;
+        return this;
+    }
+
+    /** A location whose forecast never changes, like the preferred one in a load test. */
+    public SyntheticForecastSource setStableLocation(String location) {
+        mStableLocation = location;
+        return this;
+    }
+
+    public int getErrorCount() {
+        return mErrors.get();
+    }
+
+    public int getMalformedCount() {
+        return mMalformed.get();
+    }
+
+    public int getNotModifiedCount() {
+        return mNotModified.get();
+    }
+
+    @Override
+    public String getName() {
+        return "synthetic-" + mSeed;
+    }
+
+    @Override
+    public boolean hasHourly() {
+        return true;
+    }
+
+    @Override
+    public Response fetchDaily(String locationSetting, int numDays, ForecastValidators validators,
+                               SyncMetrics metrics) {
+        Random random = nextRandom(locationSetting);
+        waitForLatency(metrics);
+
+        float roll = random.nextFloat();
+        if (roll < mErrorRate) {
+            mErrors.incrementAndGet();
+            return new Response(HttpURLConnection.HTTP_UNAVAILABLE, null, "");
+        }
+
+        int version = getVersion(locationSetting, random);
+        String eTag = "\"" + locationSetting.hashCode() + "-" + version + "\"";
+        if (validators != null && eTag.equals(validators.getETag(locationSetting))) {
+            mNotModified.incrementAndGet();
+            return new Response(HttpURLConnection.HTTP_NOT_MODIFIED, null, "");
+        }
+        String body = ForecastFixtures.createForecastJson(mNumDays > 0 ? mNumDays : numDays,
+                version);
+        if (roll < mErrorRate + mMalformedRate) {
+            mMalformed.incrementAndGet();
+            body = body.substring(0, body.length() / 2);
+        }
+        return new Response(HttpURLConnection.HTTP_OK, eTag, body);
+    }
+
+    @Override
+    public Response fetchHourly(String locationSetting, SyncMetrics metrics) {
+        waitForLatency(metrics);
+        long firstPeriod = System.currentTimeMillis() / HourlyWeatherEntry.PERIOD_MILLIS
+                * HourlyWeatherEntry.PERIOD_MILLIS;
+        return new Response(HttpURLConnection.HTTP_OK, null,
+                ForecastFixtures.createHourlyForecastJson(HOURLY_PERIODS, firstPeriod));
+    }
+
+    private Random nextRandom(String locationSetting) {
+        mRequests.putIfAbsent(locationSetting, new AtomicInteger());
+        AtomicInteger requests = mRequests.get(locationSetting);
+        return new Random(mSeed * 1000003L + locationSetting.hashCode() * 31L
+                + requests.getAndIncrement());
+    }
+
+    // Each location is only asked for by one thread at a time
+    private int getVersion(String locationSetting, Random random) {
+        Integer version = mVersions.get(locationSetting);
+        if (version == null) {
+            version = 0;
+        } else if (!locationSetting.equals(mStableLocation) && random.nextFloat() < mChangeRate) {
+            version++;
+        }
+        mVersions.put(locationSetting, version);
+        return version;
+    }
+
+    private void waitForLatency(SyncMetrics metrics) {
+        if (mLatencyMillis <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Thread.sleep(mLatencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        metrics.addConnect(System.nanoTime() - start);
+    }
+
+    private static class Response implements ForecastSource.Response {
+        private final int mCode;
+        private final Map<String, String> mHeaders = new HashMap<String, String>();
+        private final String mBody;
+        private boolean mRead;
+
+        Response(int code, String eTag, String body) {
+            mCode = code;
+            if (eTag != null) {
+                mHeaders.put(ForecastValidators.HEADER_ETAG, eTag);
+            }
+            mBody = body;
+        }
+
+        @Override
+        public int getCode() {
+            return mCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mHeaders.get(name);
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            mRead = true;
+            return new BufferedReader(new StringReader(mBody));
+        }
+
+        @Override
+        public long getBytesRead() {
+            // The bodies are all ASCII
+            return mRead ? mBody.length() : 0;
+        }
+
+        @Override
+        public long getReadNanos() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
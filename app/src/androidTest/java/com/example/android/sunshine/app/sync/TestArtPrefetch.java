@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.ArtCacheStats;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TestArtPrefetch extends AndroidTestCase {
+
+    // The same condition twice, and two conditions which share their art
+    private static final int[] FORECAST_WEATHER_IDS = {800, 800, 801, 500, 501};
+    private static final int PREFETCHED_ART = 3;
+
+    private LocalHttpServer mServer;
+    private String mArtPackKey;
+    private String mArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        Bitmap bitmap = Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888);
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, png);
+        bitmap.recycle();
+        final byte[] body = png.toByteArray();
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                return new LocalHttpServer.Response()
+                        .setHeader("Content-Type", "image/png")
+                        .setBody(body);
+            }
+        });
+        mServer.start();
+
+        // A path of its own, so that nothing a previous run left in Glide's caches matches
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mArtPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mArtPack = prefs.getString(mArtPackKey, null);
+        prefs.edit().putString(mArtPackKey,
+                mServer.getUrl() + "/" + System.nanoTime() + "/art_%s.png").commit();
+        ArtCacheStats.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mArtPackKey, mArtPack).commit();
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testPrefetchDownloadsEachArtOnce() {
+        assertEquals(PREFETCHED_ART, new ArtPrefetcher(mContext).prefetch(createForecast()));
+        assertEquals("Error: art shared by several days should only be downloaded once",
+                PREFETCHED_ART, mServer.getRequestCount());
+    }
+
+    public void testBindsAfterPrefetchHitTheCache() throws Exception {
+        new ArtPrefetcher(mContext).prefetch(createForecast());
+        int requests = mServer.getRequestCount();
+
+        // Bound the way the list and the detail view load them, at list and detail sizes
+        for (int weatherId : FORECAST_WEATHER_IDS) {
+            bind(Utility.getArtUrlForWeatherCondition(mContext, weatherId), 48);
+            bind(Utility.getArtUrlForWeatherCondition(mContext, weatherId), 144);
+        }
+        assertEquals("Error: binding prefetched art went to the network",
+                requests, mServer.getRequestCount());
+        assertEquals(FORECAST_WEATHER_IDS.length * 2, ArtCacheStats.getHits());
+        assertEquals(0, ArtCacheStats.getMisses());
+
+        // Storms weren't in the forecast
+        bind(Utility.getArtUrlForWeatherCondition(mContext, 200), 48);
+        assertEquals(1, ArtCacheStats.getMisses());
+        assertEquals(requests + 1, mServer.getRequestCount());
+    }
+
+    public void testClearedBindIsNotCounted() throws Exception {
+        String url = Utility.getArtUrlForWeatherCondition(mContext, FORECAST_WEATHER_IDS[0]);
+        // A list item recycled before its art came in: Glide clears the load, and the
+        // listener never hears back
+        ArtCacheStats.startBind(url);
+        new ArtPrefetcher(mContext).prefetch(createForecast());
+
+        bind(url, 48);
+        assertEquals("Error: the cleared bind made a later one count as a miss",
+                1, ArtCacheStats.getHits());
+        assertEquals(0, ArtCacheStats.getMisses());
+    }
+
+    public void testInterruptedPrefetchStops() {
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals(0, new ArtPrefetcher(mContext).prefetch(createForecast()));
+            assertTrue("Error: the prefetch swallowed the interrupt",
+                    Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    public void testNothingToPrefetchWithLocalGraphics() {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mArtPackKey, mContext.getString(R.string.pref_art_pack_sunshine))
+                .commit();
+        assertEquals(0, new ArtPrefetcher(mContext).prefetch(createForecast()));
+        assertEquals(0, mServer.getRequestCount());
+    }
+
+    private void bind(String url, int size) throws Exception {
+        FutureTarget<GlideDrawable> target = Glide.with(mContext)
+                .load(url)
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .listener(ArtCacheStats.<GlideDrawable>startBind(url))
+                .into(size, size);
+        try {
+            target.get(10, TimeUnit.SECONDS);
+        } finally {
+            Glide.clear(target);
+        }
+    }
+
+    private static List<ContentValues> createForecast() {
+        List<ContentValues> forecast = new ArrayList<ContentValues>();
+        for (int weatherId : FORECAST_WEATHER_IDS) {
+            ContentValues day = new ContentValues();
+            day.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+            forecast.add(day);
+        }
+        return forecast;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Runs the sync adapter against a local server that supports conditional requests, and checks
+    that a 304 answer doesn't touch the database.
+ */
+public class TestConditionalSync extends AndroidTestCase {
+
+    // Long enough for any notification posted by the sync to reach the observer
+    private static final long NOTIFICATION_SETTLE_MILLIS = 1000;
+
+    private LocalHttpServer mServer;
+    private volatile String mCurrentETag = "\"v1\"";
+    private SunshineSyncAdapter mSyncAdapter;
+
+    /*
+        Counts every change notification under the content authority.
+     */
+    static class CountingObserver extends ContentObserver {
+        final HandlerThread mHT;
+        final AtomicInteger mChanges = new AtomicInteger();
+
+        static CountingObserver create() {
+            HandlerThread ht = new HandlerThread("CountingObserverThread");
+            ht.start();
+            return new CountingObserver(ht);
+        }
+
+        private CountingObserver(HandlerThread ht) {
+            super(new Handler(ht.getLooper()));
+            mHT = ht;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChanges.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                String eTag = mCurrentETag;
+                if (eTag.equals(request.getHeader("If-None-Match"))) {
+                    return new LocalHttpServer.Response()
+                            .setStatus(HttpURLConnection.HTTP_NOT_MODIFIED, "Not Modified")
+                            .setHeader("ETag", eTag);
+                }
+                return new LocalHttpServer.Response()
+                        .setHeader("Content-Type", "application/json; charset=utf-8")
+                        .setHeader("ETag", eTag)
+                        .setHeader("Last-Modified", "Sat, 20 Dec 2014 00:00:00 GMT")
+                        .setBody(ForecastFixtures.createForecastJson(14));
+            }
+        });
+        mServer.start();
+
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setForecastBaseUrl(mServer.getUrl() + "/data/2.5/forecast/daily?");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+        super.tearDown();
+    }
+
+    public void testNotModifiedSkipsProviderWrites() throws Exception {
+        runSync();
+        long[] firstIds = getWeatherIds();
+        assertEquals("Error: first sync did not store the forecast", 14, firstIds.length);
+        assertNull("Error: first request should not be conditional",
+                mServer.getRequests().get(0).getHeader("If-None-Match"));
+
+        CountingObserver observer = CountingObserver.create();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.BASE_CONTENT_URI, true, observer);
+        try {
+            runSync();
+            Thread.sleep(NOTIFICATION_SETTLE_MILLIS);
+
+            List<LocalHttpServer.Request> requests = mServer.getRequests();
+            LocalHttpServer.Request second = requests.get(requests.size() - 1);
+            assertEquals("Error: second request did not send the stored ETag",
+                    "\"v1\"", second.getHeader("If-None-Match"));
+            assertEquals("Error: second request did not send the stored Last-Modified",
+                    "Sat, 20 Dec 2014 00:00:00 GMT", second.getHeader("If-Modified-Since"));
+            assertEquals("Error: a 304 caused provider writes", 0, observer.mChanges.get());
+            assertTrue("Error: a 304 replaced the stored rows",
+                    Arrays.equals(firstIds, getWeatherIds()));
+
+            // A new version on the server is downloaded and stored again
+            mCurrentETag = "\"v2\"";
+            runSync();
+            Thread.sleep(NOTIFICATION_SETTLE_MILLIS);
+            assertTrue("Error: a changed forecast was not written", observer.mChanges.get() > 0);
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            observer.mHT.quit();
+        }
+    }
+
+    public void testValidatorsIgnoredWhenForecastMissing() throws Exception {
+        runSync();
+        // Without the cache too, since the sync would restore the forecast from it
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        ForecastCache.clearAll(mContext);
+
+        runSync();
+        List<LocalHttpServer.Request> requests = mServer.getRequests();
+        assertNull("Error: conditional request sent without a stored forecast",
+                requests.get(requests.size() - 1).getHeader("If-None-Match"));
+        assertEquals("Error: forecast was not stored again", 14, getWeatherIds().length);
+    }
+
+    private void runSync() {
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                new SyncResult());
+    }
+
+    private long[] getWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(
+                        Utility.getPreferredLocation(mContext)),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "."
+                        + WeatherContract.WeatherEntry._ID},
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
+import com.example.android.sunshine.app.data.WeatherDbHelper;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.List;
+
+/*
+    Checks that the sync caches what it stored, and that a database dropped by a schema upgrade
+    is filled again from that cache without the network.
+ */
+public class TestForecastCache extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastCache.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int PERIODS = 40;
+
+    private LocalHttpServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private String mDailyJson;
+    private String mHourlyJson;
+    private volatile boolean mBroken;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearDatabase();
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+
+        mDailyJson = ForecastFixtures.createForecastJson(DAYS);
+        mHourlyJson = ForecastFixtures.createHourlyForecastJson(PERIODS,
+                System.currentTimeMillis() / HourlyWeatherEntry.PERIOD_MILLIS
+                        * HourlyWeatherEntry.PERIOD_MILLIS);
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                boolean daily = request.path.startsWith("/data/2.5/forecast/daily");
+                if ("\"v1\"".equals(request.getHeader("If-None-Match"))) {
+                    return new LocalHttpServer.Response()
+                            .setStatus(HttpURLConnection.HTTP_NOT_MODIFIED, "Not Modified");
+                }
+                String body = daily ? mDailyJson : mHourlyJson;
+                if (mBroken) {
+                    body = body.substring(0, body.length() / 2);
+                }
+                return new LocalHttpServer.Response()
+                        .setHeader("Content-Type", "application/json; charset=utf-8")
+                        .setHeader("ETag", daily ? "\"v1\"" : "\"h1\"")
+                        .setBody(body);
+            }
+        });
+        mServer.start();
+
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setForecastBaseUrl(mServer.getUrl() + "/data/2.5/forecast/daily?");
+        mSyncAdapter.setHourlyForecastBaseUrl(mServer.getUrl() + "/data/2.5/forecast?");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+        clearDatabase();
+        super.tearDown();
+    }
+
+    public void testSyncFillsCache() throws Exception {
+        runSync();
+
+        ForecastCache cache = new ForecastCache(mContext);
+        List<String> locations = Utility.getSyncLocations(mContext);
+        assertTrue(cache.getLocationSettings().containsAll(locations));
+        for (String location : locations) {
+            assertEquals("Error: the cached daily forecast isn't what the server sent",
+                    mDailyJson, read(cache, location, ForecastCache.KIND_DAILY));
+            assertEquals("Error: the cached 3 hour forecast isn't what the server sent",
+                    mHourlyJson, read(cache, location, ForecastCache.KIND_HOURLY));
+        }
+    }
+
+    public void testBrokenResponseKeepsCache() throws Exception {
+        runSync();
+        mBroken = true;
+        // Nothing to compare against, so the full responses are asked for again
+        ForecastValidators.clearAll(mContext);
+        runSync();
+
+        ForecastCache cache = new ForecastCache(mContext);
+        for (String location : Utility.getSyncLocations(mContext)) {
+            assertEquals("Error: a response that wasn't stored replaced the cached one",
+                    mDailyJson, read(cache, location, ForecastCache.KIND_DAILY));
+        }
+    }
+
+    public void testRestoreAfterVersionBump() throws Exception {
+        runSync();
+        int requests = mServer.getRequestCount();
+
+        // What upgrading a database too old to migrate does, with no network
+        mServer.shutdown();
+        simulateUpgrade();
+        assertEquals("Error: the upgrade should have dropped the weather", 0, countWeather(null));
+
+        long start = System.nanoTime();
+        assertTrue("Error: nothing was restored", mSyncAdapter.restoreFromCache());
+        long restoreMillis = (System.nanoTime() - start) / 1000000;
+        Log.i(LOG_TAG, "Restored " + Utility.getSyncLocations(mContext).size()
+                + " locations from the cache in " + restoreMillis + " ms");
+
+        for (String location : Utility.getSyncLocations(mContext)) {
+            assertEquals("Error: daily forecast not restored for " + location,
+                    DAYS, countWeather(location));
+            assertEquals("Error: 3 hour forecast not restored for " + location,
+                    PERIODS, countPeriods(location));
+        }
+        assertEquals("Error: restoring went to the network", requests, mServer.getRequestCount());
+        assertFalse("Error: a database with weather should be left alone",
+                mSyncAdapter.restoreFromCache());
+    }
+
+    public void testRestoreLeavesLocationStatus() throws Exception {
+        runSync();
+        mServer.shutdown();
+        simulateUpgrade();
+
+        // The last try to reach the server failed, and the cache can't tell otherwise
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putInt(mContext.getString(R.string.pref_location_status_key),
+                        SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN)
+                .commit();
+        assertTrue("Error: nothing was restored", mSyncAdapter.restoreFromCache());
+        assertEquals("Error: a restore should not say the server is up",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+    }
+
+    public void testOfflineSyncRestores() throws Exception {
+        runSync();
+        mServer.shutdown();
+        simulateUpgrade();
+
+        SyncResult result = runSync();
+        assertTrue("Error: the server was down", result.hasSoftError());
+        assertEquals("Error: an offline sync should still restore the forecast",
+                DAYS, countWeather(Utility.getPreferredLocation(mContext)));
+    }
+
+    public void testRestoredForecastIsStillValidated() throws Exception {
+        runSync();
+        simulateUpgrade();
+
+        // The sync restores first, so it can ask whether the restored forecast changed
+        runSync();
+        List<LocalHttpServer.Request> requests = mServer.getRequests();
+        boolean conditional = false;
+        for (LocalHttpServer.Request request : requests.subList(requests.size() / 2, requests.size())) {
+            if ("\"v1\"".equals(request.getHeader("If-None-Match"))) {
+                conditional = true;
+            }
+        }
+        assertTrue("Error: the sync after a restore downloaded the daily forecast again",
+                conditional);
+        assertEquals(DAYS, countWeather(Utility.getPreferredLocation(mContext)));
+    }
+
+    // There is never a migration to the version after the current one, so the helper starts over
+    private void simulateUpgrade() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        helper.onUpgrade(db, db.getVersion(), db.getVersion() + 1);
+        helper.close();
+    }
+
+    private static String read(ForecastCache cache, String location, String kind)
+            throws IOException {
+        Reader reader = cache.open(location, kind);
+        assertNotNull("Error: nothing cached for " + location, reader);
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, read);
+        }
+        reader.close();
+        return builder.toString();
+    }
+
+    // Rows from today on for the location, or every row if location is null
+    private int countWeather(String location) {
+        Cursor cursor = mContext.getContentResolver().query(location == null
+                        ? WeatherContract.WeatherEntry.CONTENT_URI
+                        : WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        location, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private int countPeriods(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyWeatherEntry.buildHourlyWeatherLocation(location),
+                new String[]{HourlyWeatherEntry.COLUMN_TIME}, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void clearDatabase() {
+        mContext.getContentResolver().delete(HourlyWeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private SyncResult runSync() {
+        SyncResult result = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                result);
+        return result;
+    }
+}
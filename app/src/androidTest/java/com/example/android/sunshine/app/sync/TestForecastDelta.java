@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+    Applies synthetic GCM bundles carrying forecast deltas to the provider.
+ */
+public class TestForecastDelta extends AndroidTestCase {
+
+    // Not the preferred location, so applying deltas doesn't reach the widgets or the watch
+    private static final String LOCATION = "delta_test";
+    private static final int DAYS = 7;
+    private static final long FIRST_DAY_SECONDS = 1419033600L;  // December 20th, 2014
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        ForecastDelta.clearAll(mContext);
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "Delta");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+        // The forecast the last sync stored
+        for (int day = 0; day < DAYS; day++) {
+            ContentValues weather = new ContentValues();
+            weather.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+            weather.put(WeatherEntry.COLUMN_DATE, getDate(day));
+            weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            weather.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+            weather.put(WeatherEntry.COLUMN_MIN_TEMP, 10.0);
+            weather.put(WeatherEntry.COLUMN_MAX_TEMP, 20.0);
+            weather.put(WeatherEntry.COLUMN_HUMIDITY, 50.0);
+            weather.put(WeatherEntry.COLUMN_PRESSURE, 1012.0);
+            weather.put(WeatherEntry.COLUMN_WIND_SPEED, 3.0);
+            weather.put(WeatherEntry.COLUMN_DEGREES, 90.0);
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weather);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastDelta.clearAll(mContext);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testDeltaUpdatesDays() throws Exception {
+        ForecastDelta delta = ForecastDelta.fromMessage(createDeltaBundle(LOCATION, 1, 2, 2, 35.0));
+        assertEquals(LOCATION, delta.getLocationSetting());
+        assertEquals(1, delta.getSequence());
+        assertEquals(2, delta.apply(mContext));
+
+        assertEquals(35.0, getHigh(2), 0.001);
+        assertEquals(35.0, getHigh(3), 0.001);
+        assertEquals("Error: a day the delta didn't carry changed", 20.0, getHigh(1), 0.001);
+        assertEquals("Error: the delta added rows instead of replacing them", DAYS, countDays());
+    }
+
+    public void testDuplicateDropped() throws Exception {
+        Bundle message = createDeltaBundle(LOCATION, 5, 0, 1, 30.0);
+        assertEquals(1, ForecastDelta.fromMessage(message).apply(mContext));
+        assertEquals(ForecastDelta.DROPPED, ForecastDelta.fromMessage(message).apply(mContext));
+    }
+
+    public void testStaleDropped() throws Exception {
+        assertEquals(1, ForecastDelta.fromMessage(
+                createDeltaBundle(LOCATION, 7, 0, 1, 30.0)).apply(mContext));
+        // Sent before the one above, delivered after it
+        assertEquals(ForecastDelta.DROPPED, ForecastDelta.fromMessage(
+                createDeltaBundle(LOCATION, 6, 0, 1, 25.0)).apply(mContext));
+        assertEquals("Error: a stale delta overwrote a newer one", 30.0, getHigh(0), 0.001);
+
+        assertEquals(1, ForecastDelta.fromMessage(
+                createDeltaBundle(LOCATION, 8, 0, 1, 28.0)).apply(mContext));
+        assertEquals(28.0, getHigh(0), 0.001);
+    }
+
+    public void testUnchangedDaysCountAsApplied() throws Exception {
+        assertEquals(0, ForecastDelta.fromMessage(
+                createDeltaBundle(LOCATION, 1, 0, DAYS, 20.0)).apply(mContext));
+        assertEquals(ForecastDelta.DROPPED, ForecastDelta.fromMessage(
+                createDeltaBundle(LOCATION, 1, 0, 1, 31.0)).apply(mContext));
+    }
+
+    public void testUnknownLocationDropped() throws Exception {
+        assertEquals(ForecastDelta.DROPPED, ForecastDelta.fromMessage(
+                createDeltaBundle("not_synced", 1, 0, 1, 30.0)).apply(mContext));
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: the delta created a location", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testOtherMessagesAreNotDeltas() throws Exception {
+        Bundle alert = new Bundle();
+        alert.putString("data", "{\"weather\":\"Hurricane\",\"location\":\"Florida\"}");
+        assertNull(ForecastDelta.fromMessage(alert));
+        assertNull(ForecastDelta.fromMessage(new Bundle()));
+    }
+
+    public void testMalformedDeltaRejected() throws Exception {
+        Bundle message = new Bundle();
+        message.putString("data", "{\"type\":\"forecast_delta\",\"location\":\"" + LOCATION
+                + "\",\"seq\":1,\"list\":[{\"dt\":" + FIRST_DAY_SECONDS + "}]}");
+        try {
+            ForecastDelta.fromMessage(message);
+            fail("Error: a day without any weather was accepted");
+        } catch (JSONException expected) {
+        }
+    }
+
+    private static Bundle createDeltaBundle(String location, long sequence, int firstDay,
+                                            int numDays, double high) throws JSONException {
+        JSONArray days = new JSONArray();
+        for (int day = firstDay; day < firstDay + numDays; day++) {
+            days.put(new JSONObject()
+                    // Noon, so the day is the same in every time zone the tests run in
+                    .put("dt", FIRST_DAY_SECONDS + day * 86400L + 43200L)
+                    .put("temp", new JSONObject().put("min", 10.0).put("max", high))
+                    .put("pressure", 1012.0)
+                    .put("humidity", 50)
+                    .put("weather", new JSONArray().put(new JSONObject()
+                            .put("id", 800).put("main", "Clear")))
+                    .put("speed", 3.0)
+                    .put("deg", 90));
+        }
+        Bundle data = new Bundle();
+        data.putString("data", new JSONObject()
+                .put("type", "forecast_delta")
+                .put("location", location)
+                .put("seq", sequence)
+                .put("list", days)
+                .toString());
+        return data;
+    }
+
+    private static long getDate(int day) {
+        return WeatherContract.normalizeDate((FIRST_DAY_SECONDS + day * 86400L + 43200L) * 1000);
+    }
+
+    private double getHigh(int day) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION, getDate(day)),
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        double high = cursor.getDouble(0);
+        cursor.close();
+        return high;
+    }
+
+    private int countDays() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(LOCATION), null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Downloads forecasts from a local server with and without compression, and checks that the
+    connection survives from one request to the next.
+ */
+public class TestForecastHttpClient extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastHttpClient.class.getSimpleName();
+
+    private static final int REQUESTS = 10;
+    private static final int DAYS = 16;
+
+    private LocalHttpServer mServer;
+    private byte[] mForecast;
+    private byte[] mCompressedForecast;
+    private volatile long mServerDelayMillis;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mForecast = ForecastFixtures.createForecastJson(DAYS).getBytes("UTF-8");
+        mCompressedForecast = gzip(mForecast);
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                LocalHttpServer.Response response = new LocalHttpServer.Response()
+                        .setHeader("Content-Type", "application/json; charset=utf-8")
+                        .setDelay(mServerDelayMillis);
+                String acceptEncoding = request.getHeader("Accept-Encoding");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    return response.setHeader("Content-Encoding", "gzip")
+                            .setBody(mCompressedForecast);
+                }
+                return response.setBody(mForecast);
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testCompressionAndConnectionReuse() throws Exception {
+        int[] plain = download(new ForecastHttpClient(ForecastHttpClient.CONNECT_TIMEOUT_MILLIS,
+                ForecastHttpClient.READ_TIMEOUT_MILLIS, false));
+        int[] compressed = download(new ForecastHttpClient());
+
+        Log.i(LOG_TAG, String.format("%d requests for %d days: plain %d bytes, %d connections,"
+                        + " %d us to first row; gzip %d bytes, %d connections, %d us to first row",
+                REQUESTS, DAYS, plain[0], plain[1], plain[2],
+                compressed[0], compressed[1], compressed[2]));
+
+        assertTrue("Error: compressed forecast was not smaller on the wire",
+                compressed[0] < plain[0]);
+        // Both clients draw from the platform's pool, so the second one needs no connection
+        // of its own
+        assertEquals("Error: requests did not share a connection", 1,
+                mServer.getConnectionCount());
+        assertEquals(2 * REQUESTS, mServer.getRequestCount());
+    }
+
+    public void testDisconnectDefeatsKeepAlive() throws Exception {
+        // The way the sync used to do it, for comparison
+        for (int i = 0; i < REQUESTS; i++) {
+            HttpURLConnection connection =
+                    (HttpURLConnection) new URL(mServer.getUrl() + "/forecast").openConnection();
+            connection.getInputStream().close();
+            connection.disconnect();
+        }
+        assertEquals(REQUESTS, mServer.getConnectionCount());
+    }
+
+    public void testReadTimeout() throws Exception {
+        mServerDelayMillis = 2000;
+        ForecastHttpClient client = new ForecastHttpClient(1000, 500, true);
+        try {
+            client.execute(client.open(new URL(mServer.getUrl() + "/forecast")));
+            fail("Error: a server slower than the read timeout did not time out");
+        } catch (SocketTimeoutException e) {
+            // Expected
+        }
+    }
+
+    public void testBodyIsDecompressed() throws Exception {
+        ForecastHttpClient client = new ForecastHttpClient();
+        ForecastHttpClient.Response response =
+                client.execute(client.open(new URL(mServer.getUrl() + "/forecast")));
+        StringBuilder body = new StringBuilder();
+        try {
+            char[] buffer = new char[1024];
+            int read;
+            Reader reader = response.getReader();
+            while ((read = reader.read(buffer)) != -1) {
+                body.append(buffer, 0, read);
+            }
+        } finally {
+            response.close();
+        }
+        assertTrue(Arrays.equals(mForecast, body.toString().getBytes("UTF-8")));
+    }
+
+    /*
+        Returns {bytes written by the server, connections opened, median microseconds from
+        opening the request to parsing the first day}.
+     */
+    private int[] download(ForecastHttpClient client) throws Exception {
+        int bytesBefore = mServer.getBytesWritten();
+        int connectionsBefore = mServer.getConnectionCount();
+        long[] firstRowNanos = new long[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            final long start = System.nanoTime();
+            final long[] firstRow = new long[1];
+            ForecastHttpClient.Response response =
+                    client.execute(client.open(new URL(mServer.getUrl() + "/forecast")));
+            try {
+                assertEquals(HttpURLConnection.HTTP_OK, response.getCode());
+                ForecastParser.parse(response.getReader(), new ForecastParser.ForecastHandler() {
+                    @Override
+                    public void onError(int errorCode) {
+                        fail("Error: unexpected error code " + errorCode);
+                    }
+
+                    @Override
+                    public void onCity(String cityName, double lat, double lon) {
+                    }
+
+                    @Override
+                    public void onDay(int dayIndex, int weatherId, String description,
+                                      double high, double low, double pressure, int humidity,
+                                      double windSpeed, double windDirection) {
+                        if (dayIndex == 0) {
+                            firstRow[0] = System.nanoTime();
+                        }
+                    }
+                });
+            } finally {
+                response.close();
+            }
+            firstRowNanos[i] = firstRow[0] - start;
+        }
+        // Let the last connection go back to the pool before the next client starts
+        Thread.sleep(100);
+        Arrays.sort(firstRowNanos);
+        return new int[]{
+                mServer.getBytesWritten() - bytesBefore,
+                mServer.getConnectionCount() - connectionsBefore,
+                (int) (firstRowNanos[REQUESTS / 2] / 1000)};
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+
+/*
+    Checks that the streaming parser produces exactly what the org.json parser did, and compares
+    the two on the sizes of response we actually see (14 and 16 days) and on a synthetic 1000
+    day one.
+ */
+public class TestForecastParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastParser.class.getSimpleName();
+
+    private static final int BENCHMARK_ROUNDS = 20;
+
+    /*
+        Remembers everything the parser reported, in order, so the two paths can be compared.
+     */
+    static class RecordingHandler implements ForecastParser.ForecastHandler {
+        final StringBuilder mEvents = new StringBuilder();
+        int mDays;
+        int mErrorCode;
+
+        @Override
+        public void onError(int errorCode) {
+            mErrorCode = errorCode;
+            mEvents.append("error:").append(errorCode).append('\n');
+        }
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            mEvents.append("city:").append(cityName).append(',').append(lat).append(',')
+                    .append(lon).append('\n');
+        }
+
+        @Override
+        public void onDay(int dayIndex, int weatherId, String description, double high,
+                          double low, double pressure, int humidity, double windSpeed,
+                          double windDirection) {
+            mDays++;
+            mEvents.append(dayIndex).append(':').append(weatherId).append(',')
+                    .append(description).append(',').append(high).append(',').append(low)
+                    .append(',').append(pressure).append(',').append(humidity).append(',')
+                    .append(windSpeed).append(',').append(windDirection).append('\n');
+        }
+    }
+
+    static class RecordingHourlyHandler implements ForecastParser.HourlyForecastHandler {
+        final StringBuilder mEvents = new StringBuilder();
+        int mPeriods;
+
+        @Override
+        public void onError(int errorCode) {
+            mEvents.append("error:").append(errorCode).append('\n');
+        }
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            mEvents.append("city:").append(cityName).append(',').append(lat).append(',')
+                    .append(lon).append('\n');
+        }
+
+        @Override
+        public void onPeriod(int periodIndex, long time, int weatherId, double temperature,
+                             double pressure, int humidity, double windSpeed,
+                             double windDirection) {
+            mPeriods++;
+            mEvents.append(periodIndex).append(':').append(time).append(',').append(weatherId)
+                    .append(',').append(temperature).append(',').append(pressure).append(',')
+                    .append(humidity).append(',').append(windSpeed).append(',')
+                    .append(windDirection).append('\n');
+        }
+    }
+
+    /*
+        Only counts, so the benchmark measures the parser and not the bookkeeping.
+     */
+    static class CountingHandler implements ForecastParser.ForecastHandler {
+        int mDays;
+
+        @Override
+        public void onError(int errorCode) {
+        }
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+        }
+
+        @Override
+        public void onDay(int dayIndex, int weatherId, String description, double high,
+                          double low, double pressure, int humidity, double windSpeed,
+                          double windDirection) {
+            mDays++;
+        }
+    }
+
+    public void testStreamingMatchesLegacy() throws Exception {
+        for (int numDays : new int[]{1, 14, 16}) {
+            String json = ForecastFixtures.createForecastJson(numDays);
+
+            RecordingHandler legacy = new RecordingHandler();
+            ForecastParser.parse(json, legacy);
+            RecordingHandler streaming = new RecordingHandler();
+            ForecastParser.parse(new StringReader(json), streaming);
+
+            assertEquals("Error: wrong number of days for " + numDays + " day forecast",
+                    numDays, streaming.mDays);
+            assertEquals("Error: streaming and legacy parsers disagree for " + numDays
+                    + " day forecast", legacy.mEvents.toString(), streaming.mEvents.toString());
+        }
+    }
+
+    public void testHourlyStreamingMatchesLegacy() throws Exception {
+        String json = ForecastFixtures.createHourlyForecastJson(40, 1419033600000L);
+
+        RecordingHourlyHandler legacy = new RecordingHourlyHandler();
+        ForecastParser.parseHourly(json, legacy);
+        RecordingHourlyHandler streaming = new RecordingHourlyHandler();
+        ForecastParser.parseHourly(new StringReader(json), streaming);
+
+        assertEquals("Error: wrong number of periods", 40, streaming.mPeriods);
+        assertEquals("Error: streaming and legacy parsers disagree on the 3 hour forecast",
+                legacy.mEvents.toString(), streaming.mEvents.toString());
+        assertTrue("Error: the first period should start at the fixture's first time",
+                streaming.mEvents.indexOf("0:1419033600000,") >= 0);
+    }
+
+    public void testErrorCode() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        ForecastParser.parse(new StringReader(ForecastFixtures.createErrorJson(404)), handler);
+        assertEquals("Error: 404 was not reported", 404, handler.mErrorCode);
+        assertEquals("Error: no days expected after an error", 0, handler.mDays);
+    }
+
+    public void testMalformedJson() throws Exception {
+        String json = ForecastFixtures.createForecastJson(3);
+        try {
+            ForecastParser.parse(new StringReader(json.substring(0, json.length() / 2) + "}"),
+                    new CountingHandler());
+            fail("Error: truncated forecast should not parse");
+        } catch (JSONException e) {
+            // expected
+        } catch (IOException e) {
+            // also acceptable, the stream ended in the middle of a value
+        }
+    }
+
+    public void testBenchmark() throws Exception {
+        for (int numDays : new int[]{14, 16, 1000}) {
+            byte[] payload = ForecastFixtures.createForecastJson(numDays).getBytes("UTF-8");
+
+            // Warm up both paths so class loading and JIT don't land on the first one measured
+            runLegacy(payload);
+            runStreaming(payload);
+
+            long[] legacy = measure(payload, false);
+            long[] streaming = measure(payload, true);
+
+            Log.i(LOG_TAG, String.format("%d days (%d bytes): legacy %d us, %d allocs;"
+                            + " streaming %d us, %d allocs",
+                    numDays, payload.length, legacy[0], legacy[1], streaming[0], streaming[1]));
+
+            if (numDays == 1000) {
+                assertTrue("Error: streaming parser allocated more than the legacy parser",
+                        streaming[1] < legacy[1]);
+            }
+        }
+    }
+
+    // Returns {average wall time in microseconds, average allocation count} per parse.
+    @SuppressWarnings("deprecation")
+    private long[] measure(byte[] payload, boolean streaming) throws Exception {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            if (streaming) {
+                runStreaming(payload);
+            } else {
+                runLegacy(payload);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        return new long[]{elapsed / 1000 / BENCHMARK_ROUNDS,
+                Debug.getThreadAllocCount() / BENCHMARK_ROUNDS};
+    }
+
+    // This is what onPerformSync used to do: read the whole body into a String, then parse it.
+    private int runLegacy(byte[] payload) throws IOException, JSONException {
+        InputStream inputStream = new ByteArrayInputStream(payload);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        reader.close();
+        CountingHandler handler = new CountingHandler();
+        ForecastParser.parse(buffer.toString(), handler);
+        return handler.mDays;
+    }
+
+    private int runStreaming(byte[] payload) throws IOException, JSONException {
+        InputStream inputStream = new ByteArrayInputStream(payload);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        CountingHandler handler = new CountingHandler();
+        ForecastParser.parse(reader, handler);
+        return handler.mDays;
+    }
+}
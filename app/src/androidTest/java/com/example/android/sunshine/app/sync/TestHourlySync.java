@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+
+/*
+    Runs the sync adapter with the 3 hour forecast turned on, against a local server that
+    serves both forecasts.
+ */
+public class TestHourlySync extends AndroidTestCase {
+
+    private static final int PERIODS = 40;
+    private static final long NOTIFICATION_SETTLE_MILLIS = 1000;
+
+    private LocalHttpServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private long mFirstPeriod;
+    private volatile boolean mHourlyDown;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(HourlyWeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+
+        // The current period, so none of them is over yet
+        mFirstPeriod = System.currentTimeMillis() / HourlyWeatherEntry.PERIOD_MILLIS
+                * HourlyWeatherEntry.PERIOD_MILLIS;
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                LocalHttpServer.Response response = new LocalHttpServer.Response()
+                        .setHeader("Content-Type", "application/json; charset=utf-8");
+                if (request.path.startsWith("/data/2.5/forecast/daily")) {
+                    return response.setBody(ForecastFixtures.createForecastJson(14));
+                }
+                if (mHourlyDown) {
+                    return response.setStatus(HttpURLConnection.HTTP_INTERNAL_ERROR,
+                            "Internal Server Error");
+                }
+                return response.setBody(
+                        ForecastFixtures.createHourlyForecastJson(PERIODS, mFirstPeriod));
+            }
+        });
+        mServer.start();
+
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setForecastBaseUrl(mServer.getUrl() + "/data/2.5/forecast/daily?");
+        mSyncAdapter.setHourlyForecastBaseUrl(mServer.getUrl() + "/data/2.5/forecast?");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+        mContext.getContentResolver().delete(HourlyWeatherEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testHourlyStoredWithDaily() throws Exception {
+        TestConditionalSync.CountingObserver observer = TestConditionalSync.CountingObserver.create();
+        mContext.getContentResolver().registerContentObserver(
+                HourlyWeatherEntry.CONTENT_URI, true, observer);
+        int locations = Utility.getSyncLocations(mContext).size();
+        try {
+            runSync();
+            Thread.sleep(NOTIFICATION_SETTLE_MILLIS);
+            assertEquals("Error: expected one hourly notification per location for the sync",
+                    locations, observer.mChanges.get());
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            observer.mHT.quit();
+        }
+
+        for (String location : Utility.getSyncLocations(mContext)) {
+            assertEquals("Error: no 3 hour forecast stored for " + location,
+                    PERIODS, countPeriods(location, 0, Long.MAX_VALUE));
+            assertEquals("Error: a day should hold 8 periods",
+                    8, countPeriods(location, mFirstPeriod, mFirstPeriod + 8 * HourlyWeatherEntry.PERIOD_MILLIS));
+        }
+    }
+
+    public void testHourlyFailureKeepsDaily() {
+        mHourlyDown = true;
+        SyncResult result = runSync();
+
+        assertFalse("Error: the daily forecast alone is a successful sync", result.hasError());
+        for (String location : Utility.getSyncLocations(mContext)) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(location),
+                    new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+            assertEquals("Error: no forecast stored for " + location, 14, cursor.getCount());
+            cursor.close();
+            assertEquals(0, countPeriods(location, 0, Long.MAX_VALUE));
+        }
+    }
+
+    private int countPeriods(String location, long start, long end) {
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyWeatherEntry.buildHourlyWeatherLocationWithRange(location, start, end),
+                new String[]{HourlyWeatherEntry.COLUMN_TIME}, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private SyncResult runSync() {
+        SyncResult result = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                result);
+        return result;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+/*
+    Syncs 1, 5 and 25 locations against a local server with a fixed latency per request, and
+    checks that the total time grows much slower than the number of locations.
+ */
+public class TestMultiLocationSync extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMultiLocationSync.class.getSimpleName();
+
+    private static final long SERVER_LATENCY_MILLIS = 200;
+    private static final long NOTIFICATION_SETTLE_MILLIS = 1000;
+
+    private LocalHttpServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private String mSavedLocationsBackup;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        String key = mContext.getString(R.string.pref_saved_locations_key);
+        mSavedLocationsBackup = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(key, null);
+
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                return new LocalHttpServer.Response()
+                        .setHeader("Content-Type", "application/json; charset=utf-8")
+                        .setBody(ForecastFixtures.createForecastJson(14))
+                        .setDelay(SERVER_LATENCY_MILLIS);
+            }
+        });
+        mServer.start();
+
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setForecastBaseUrl(mServer.getUrl() + "/data/2.5/forecast/daily?");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        String key = mContext.getString(R.string.pref_saved_locations_key);
+        if (mSavedLocationsBackup == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, mSavedLocationsBackup);
+        }
+        editor.commit();
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+        super.tearDown();
+    }
+
+    public void testSyncScalesSubLinearly() throws Exception {
+        long single = timeSync(1);
+        long five = timeSync(5);
+        long twentyFive = timeSync(25);
+
+        Log.i(LOG_TAG, String.format("Sync wall time: 1 location %d ms, 5 locations %d ms,"
+                + " 25 locations %d ms", single, five, twentyFive));
+
+        // Sequential fetches would take at least 25 * SERVER_LATENCY_MILLIS
+        assertTrue("Error: 25 locations took " + twentyFive + " ms, no better than one at a time",
+                twentyFive < 25 * SERVER_LATENCY_MILLIS / 2);
+        assertTrue("Error: 25 locations took more than 25 times as long as one",
+                twentyFive < 25 * single);
+    }
+
+    public void testAllLocationsCommittedWithOneNotificationEach() throws Exception {
+        prepare(5);
+
+        TestConditionalSync.CountingObserver observer = TestConditionalSync.CountingObserver.create();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, observer);
+        try {
+            runSync();
+            Thread.sleep(NOTIFICATION_SETTLE_MILLIS);
+            // Each location's forecast, not every observer of every location
+            assertEquals("Error: expected one weather notification per location for the sync",
+                    5, observer.mChanges.get());
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            observer.mHT.quit();
+        }
+
+        for (String location : Utility.getSyncLocations(mContext)) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(location),
+                    new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+            assertEquals("Error: no forecast stored for " + location, 14, cursor.getCount());
+            cursor.close();
+        }
+    }
+
+    private long timeSync(int numLocations) {
+        prepare(numLocations);
+        int requestsBefore = mServer.getRequestCount();
+        long start = System.nanoTime();
+        runSync();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertEquals("Error: wrong number of requests for " + numLocations + " locations",
+                numLocations, mServer.getRequestCount() - requestsBefore);
+        return elapsedMillis;
+    }
+
+    // Leaves an empty database and exactly numLocations locations to sync
+    private void prepare(int numLocations) {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_saved_locations_key))
+                .commit();
+        for (int i = 1; i < numLocations; i++) {
+            Utility.addSavedLocation(mContext, "test-location-" + i);
+        }
+        assertEquals(numLocations, Utility.getSyncLocations(mContext).size());
+    }
+
+    private void runSync() {
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                new SyncResult());
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Fires bursts of requests for a sync and checks that they are merged into as few syncs as
+    serve them all, and that a location the running sync doesn't have still gets one.
+ */
+public class TestSyncCoalescing extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+    private static final int REQUESTS = 50;
+    // Long enough for every request to be made while the first sync is still fetching
+    private static final long RESPONSE_DELAY_MILLIS = 2000;
+
+    private LocalHttpServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private String mSavedLocations;
+    private int mLocations;
+
+    // Runs the syncs one after another, the way the framework does with this adapter
+    private ExecutorService mSyncs;
+    private final AtomicInteger mSyncsRequested = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+        CircuitBreaker.clearAll(mContext);
+        mSavedLocations = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(mContext.getString(R.string.pref_saved_locations_key), "");
+        mLocations = Utility.getSyncLocations(mContext).size();
+
+        final String json = ForecastFixtures.createForecastJson(DAYS);
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                return new LocalHttpServer.Response()
+                        .setHeader("Content-Type", "application/json; charset=utf-8")
+                        .setBody(json)
+                        .setDelay(RESPONSE_DELAY_MILLIS);
+            }
+        });
+        mServer.start();
+
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setForecastBaseUrl(mServer.getUrl() + "/data/2.5/forecast/daily?");
+        mSyncs = Executors.newSingleThreadExecutor();
+        SunshineSyncAdapter.setSyncRequester(new SyncRequests.Requester() {
+            @Override
+            public void requestSync(Context context) {
+                mSyncsRequested.incrementAndGet();
+                mSyncs.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        mSyncAdapter.onPerformSync(null, new Bundle(),
+                                WeatherContract.CONTENT_AUTHORITY, null, new SyncResult());
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setSyncRequester(null);
+        mSyncs.shutdownNow();
+        mServer.shutdown();
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_saved_locations_key), mSavedLocations)
+                .commit();
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+        CircuitBreaker.clearAll(mContext);
+        super.tearDown();
+    }
+
+    public void testConcurrentRequestsShareOneSync() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger requested = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < REQUESTS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (SunshineSyncAdapter.syncImmediately(mContext)) {
+                        requested.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        awaitSyncs();
+
+        assertEquals("Error: the requests weren't merged into one sync", 1, requested.get());
+        assertEquals(1, mSyncsRequested.get());
+        assertEquals("Error: each location should have been fetched once",
+                mLocations, mServer.getRequestCount());
+        assertEquals("Error: the merged requests weren't recorded",
+                REQUESTS - 1, getMergedRequests());
+    }
+
+    public void testNewLocationQueuesOneMoreSync() {
+        SyncRequests requests = new SyncRequests(new SyncRequests.Requester() {
+            @Override
+            public void requestSync(Context context) {
+                mSyncsRequested.incrementAndGet();
+            }
+        });
+        assertTrue(requests.request(mContext));
+        assertFalse("Error: a sync was already waiting to start", requests.request(mContext));
+
+        requests.onSyncStarted(mContext);
+        assertFalse("Error: the running sync fetches every location", requests.request(mContext));
+
+        // The location was changed in the settings after the sync read them
+        Utility.addSavedLocation(mContext, "99999");
+        assertTrue("Error: the running sync won't fetch the new location",
+                requests.request(mContext));
+        for (int i = 0; i < 3; i++) {
+            assertFalse("Error: a sync after the running one was already queued",
+                    requests.request(mContext));
+        }
+        assertEquals(2, mSyncsRequested.get());
+        assertEquals(5, requests.takeMerged());
+
+        requests.onSyncFinished();
+        assertTrue(requests.onSyncStarted(mContext).contains("99999"));
+        requests.onSyncFinished();
+        assertTrue("Error: nothing is running, so a request should get a sync",
+                requests.request(mContext));
+    }
+
+    private void awaitSyncs() throws InterruptedException {
+        mSyncs.shutdown();
+        assertTrue(mSyncs.awaitTermination(30, TimeUnit.SECONDS));
+    }
+
+    private int getMergedRequests() {
+        Cursor cursor = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[]{SyncMetricsEntry.COLUMN_MERGED_REQUESTS}, null, null,
+                SyncMetricsEntry._ID + " DESC");
+        assertNotNull(cursor);
+        try {
+            assertTrue("Error: the sync recorded no metrics", cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
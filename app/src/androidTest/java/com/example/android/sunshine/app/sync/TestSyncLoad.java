@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Locale;
+
+/*
+    A load harness: drives thousands of syncs against a SyntheticForecastSource, through the
+    real parser, cache and provider, and logs the throughput.
+ */
+public class TestSyncLoad extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncLoad.class.getSimpleName();
+
+    private static final int NUM_LOCATIONS = 6;
+    private static final int NUM_DAYS = 14;
+
+    private SunshineSyncAdapter mSyncAdapter;
+    private String mSavedLocationsBackup;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        String key = mContext.getString(R.string.pref_saved_locations_key);
+        mSavedLocationsBackup = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(key, null);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit().remove(key).commit();
+        for (int i = 1; i < NUM_LOCATIONS; i++) {
+            Utility.addSavedLocation(mContext, "load-location-" + i);
+        }
+        clearState();
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        String key = mContext.getString(R.string.pref_saved_locations_key);
+        if (mSavedLocationsBackup == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, mSavedLocationsBackup);
+        }
+        editor.commit();
+        clearState();
+        super.tearDown();
+    }
+
+    public void testThroughput() {
+        // Changing often, and failing now and then, like a bad day for the real server
+        SyntheticForecastSource source = new SyntheticForecastSource(42)
+                .setErrorRate(0.02f)
+                .setMalformedRate(0.01f)
+                .setChangeRate(0.3f)
+                // Keeps the widgets, the notification and the watch out of it after the first sync
+                .setStableLocation(Utility.getPreferredLocation(mContext));
+        mSyncAdapter.setForecastSource(source);
+
+        int syncs = 2000;
+        int failedSyncs = 0;
+        long updates = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < syncs; i++) {
+            SyncResult result = runSync();
+            if (result.hasError()) {
+                failedSyncs++;
+            }
+            updates += result.stats.numUpdates;
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        double seconds = elapsedNanos / 1e9;
+        Log.i(LOG_TAG, String.format(Locale.US, "%d syncs of %d locations in %.1f s: "
+                        + "%.1f syncs/s, %.1f locations/s, %.0f changed rows/s. "
+                        + "%d syncs with errors, %d unavailable, %d malformed, %d not modified",
+                syncs, NUM_LOCATIONS, seconds, syncs / seconds, syncs * NUM_LOCATIONS / seconds,
+                updates / seconds, failedSyncs, source.getErrorCount(),
+                source.getMalformedCount(), source.getNotModifiedCount()));
+
+        assertTrue("Error: nothing changed in " + syncs + " syncs", updates > 0);
+        assertTrue("Error: no forecast was unchanged", source.getNotModifiedCount() > 0);
+        // Failures leave the forecast of the last sync which got through
+        assertEquals(NUM_LOCATIONS * NUM_DAYS, countCurrentWeather());
+    }
+
+    public void testLatencyOverlaps() {
+        long latencyMillis = 50;
+        mSyncAdapter.setForecastSource(new SyntheticForecastSource(7)
+                .setLatencyMillis(latencyMillis)
+                .setStableLocation(Utility.getPreferredLocation(mContext)));
+
+        int syncs = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < syncs; i++) {
+            runSync();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        // Each location waits twice, for the daily and the 3 hour forecast
+        long serialMillis = syncs * NUM_LOCATIONS * 2 * latencyMillis;
+        Log.i(LOG_TAG, syncs + " syncs with " + latencyMillis + " ms latency in "
+                + elapsedMillis + " ms, " + serialMillis + " ms one location at a time");
+        assertTrue("Error: the locations were fetched one after another",
+                elapsedMillis < serialMillis / 2);
+    }
+
+    private SyncResult runSync() {
+        SyncResult result = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                result);
+        return result;
+    }
+
+    private int countCurrentWeather() {
+        int count = 0;
+        for (String location : Utility.getSyncLocations(mContext)) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(location,
+                            System.currentTimeMillis()),
+                    null, null, null, null);
+            count += cursor.getCount();
+            cursor.close();
+        }
+        return count;
+    }
+
+    private void clearState() {
+        mContext.getContentResolver().delete(
+                WeatherContract.HourlyWeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+        CircuitBreaker.clearAll(mContext);
+    }
+}
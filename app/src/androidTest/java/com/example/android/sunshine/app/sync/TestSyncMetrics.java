@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+
+/*
+    Runs the sync adapter against a local server and checks what it records in the
+    sync_metrics table.
+ */
+public class TestSyncMetrics extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+
+    private LocalHttpServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                if ("\"v1\"".equals(request.getHeader("If-None-Match"))) {
+                    return new LocalHttpServer.Response()
+                            .setStatus(HttpURLConnection.HTTP_NOT_MODIFIED, "Not Modified");
+                }
+                return new LocalHttpServer.Response()
+                        .setHeader("Content-Type", "application/json; charset=utf-8")
+                        .setHeader("ETag", "\"v1\"")
+                        .setBody(ForecastFixtures.createForecastJson(DAYS));
+            }
+        });
+        mServer.start();
+
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setForecastBaseUrl(mServer.getUrl() + "/data/2.5/forecast/daily?");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+        super.tearDown();
+    }
+
+    public void testSyncRecordsMetrics() {
+        long before = System.currentTimeMillis();
+        runSync();
+        runSync();
+
+        Cursor cursor = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                null, null, null, SyncMetricsEntry._ID + " ASC");
+        assertEquals("Error: expected one metrics row per sync", 2, cursor.getCount());
+
+        // The first sync downloads and stores the whole forecast
+        cursor.moveToFirst();
+        assertTrue(getLong(cursor, SyncMetricsEntry.COLUMN_START_TIME) >= before);
+        long locations = getLong(cursor, SyncMetricsEntry.COLUMN_LOCATIONS);
+        assertTrue("Error: no locations were synced", locations > 0);
+        assertEquals(0, getLong(cursor, SyncMetricsEntry.COLUMN_NOT_MODIFIED));
+        assertEquals(0, getLong(cursor, SyncMetricsEntry.COLUMN_FAILED));
+        assertEquals(DAYS * locations, getLong(cursor, SyncMetricsEntry.COLUMN_ROWS_RECEIVED));
+        assertEquals(DAYS * locations, getLong(cursor, SyncMetricsEntry.COLUMN_ROWS_CHANGED));
+        assertTrue("Error: no bytes were counted",
+                getLong(cursor, SyncMetricsEntry.COLUMN_BYTES) > 0);
+        assertTrue(getLong(cursor, SyncMetricsEntry.COLUMN_TOTAL_MILLIS)
+                >= getLong(cursor, SyncMetricsEntry.COLUMN_DB_WRITE_MILLIS));
+
+        // The second one only learns that nothing changed
+        cursor.moveToNext();
+        assertEquals(locations, getLong(cursor, SyncMetricsEntry.COLUMN_NOT_MODIFIED));
+        assertEquals(0, getLong(cursor, SyncMetricsEntry.COLUMN_ROWS_RECEIVED));
+        assertEquals(0, getLong(cursor, SyncMetricsEntry.COLUMN_BYTES));
+        assertEquals(0, getLong(cursor, SyncMetricsEntry.COLUMN_FAN_OUT_MILLIS));
+        cursor.close();
+    }
+
+    public void testRetentionIsBounded() {
+        for (int i = 0; i < SyncMetricsEntry.MAX_ROWS + 10; i++) {
+            ContentValues values = new SyncMetrics().toContentValues();
+            values.put(SyncMetricsEntry.COLUMN_LOCATIONS, i);
+            mContext.getContentResolver().insert(SyncMetricsEntry.CONTENT_URI, values);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[]{SyncMetricsEntry.COLUMN_LOCATIONS}, null, null,
+                SyncMetricsEntry._ID + " ASC");
+        assertEquals("Error: metrics table grew past its limit",
+                SyncMetricsEntry.MAX_ROWS, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: the oldest rows should have been dropped first", 10, cursor.getLong(0));
+        cursor.close();
+    }
+
+    private void runSync() {
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                new SyncResult());
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        return cursor.getLong(cursor.getColumnIndexOrThrow(column));
+    }
+}
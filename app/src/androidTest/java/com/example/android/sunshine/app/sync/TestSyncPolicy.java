@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+/*
+    Runs the sync policies against four weeks of synthetic forecast revisions on a simulated
+    clock: two calm weeks, a stormy one and a calm one again.  Nothing here touches Android, so
+    the whole simulation takes milliseconds.
+ */
+public class TestSyncPolicy extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncPolicy.class.getSimpleName();
+
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    private static final long DAY_IN_MILLIS = HOUR_IN_MILLIS * 24;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    // Midnight, December 20th, 2014 UTC
+    private static final long SIMULATION_START = 1419033600000L;
+    private static final int SIMULATION_DAYS = 28;
+    private static final int STORM_FIRST_DAY = 14;
+    private static final int STORM_LAST_DAY = 20;
+
+    // Mean time between forecast revisions
+    private static final long CALM_REVISION_GAP = 12 * HOUR_IN_MILLIS;
+    private static final long STORM_REVISION_GAP = 90 * 60 * 1000;
+
+    private static final double FAILURE_RATE = 0.05;
+    private static final int ROWS_PER_FORECAST = 14;
+
+    private static class SimulatedClock implements SyncClock {
+        long mNow;
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+
+    /*
+        Syncs per day and minutes between a revision being published and a sync picking it up,
+        for the calm and the stormy days separately.
+     */
+    private static class Report {
+        int mCalmSyncs;
+        int mStormSyncs;
+        long mCalmStaleMillis;
+        long mStormStaleMillis;
+        int mCalmRevisions;
+        int mStormRevisions;
+
+        double getCalmSyncsPerDay() {
+            return (double) mCalmSyncs / (SIMULATION_DAYS - (STORM_LAST_DAY - STORM_FIRST_DAY + 1));
+        }
+
+        double getStormSyncsPerDay() {
+            return (double) mStormSyncs / (STORM_LAST_DAY - STORM_FIRST_DAY + 1);
+        }
+
+        double getCalmStaleMinutes() {
+            return mCalmStaleMillis / 60000.0 / mCalmRevisions;
+        }
+
+        double getStormStaleMinutes() {
+            return mStormStaleMillis / 60000.0 / mStormRevisions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("calm %.2f syncs/day, %.0f min stale; "
+                            + "storm %.2f syncs/day, %.0f min stale",
+                    getCalmSyncsPerDay(), getCalmStaleMinutes(),
+                    getStormSyncsPerDay(), getStormStaleMinutes());
+        }
+    }
+
+    public void testAdaptivePolicyAgainstFixedSchedule() {
+        List<Long> revisions = createRevisions(new Random(42));
+        Report fixed = simulate(new FixedSyncPolicy(SunshineSyncAdapter.SYNC_INTERVAL), revisions);
+        Report adaptive = simulate(new AdaptiveSyncPolicy(UTC), revisions);
+
+        Log.i(LOG_TAG, "Fixed:    " + fixed);
+        Log.i(LOG_TAG, "Adaptive: " + adaptive);
+
+        assertTrue("Error: adaptive policy should sync less while the forecast is calm",
+                adaptive.getCalmSyncsPerDay() < fixed.getCalmSyncsPerDay());
+        assertTrue("Error: adaptive policy should sync more while the forecast is stormy",
+                adaptive.getStormSyncsPerDay() > adaptive.getCalmSyncsPerDay());
+        assertTrue("Error: adaptive policy should be less stale while the forecast is stormy",
+                adaptive.getStormStaleMinutes() < fixed.getStormStaleMinutes());
+    }
+
+    public void testFailuresBackOffUpToUsualInterval() {
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(UTC);
+        // Noon, so the night doesn't come into it
+        long noon = SIMULATION_START + 12 * HOUR_IN_MILLIS;
+        SyncHistory history = new SyncHistory();
+
+        history.recordFailure(noon);
+        assertEquals(AdaptiveSyncPolicy.MIN_INTERVAL, policy.getSyncInterval(history, noon));
+        history.recordFailure(noon);
+        assertEquals(2 * AdaptiveSyncPolicy.MIN_INTERVAL, policy.getSyncInterval(history, noon));
+        for (int i = 0; i < 20; i++) {
+            history.recordFailure(noon);
+        }
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, policy.getSyncInterval(history, noon));
+
+        history.recordSuccess(ROWS_PER_FORECAST, 0, noon);
+        assertEquals(0, history.getConsecutiveFailures());
+    }
+
+    public void testIntervalFollowsVolatility() {
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(UTC);
+        long noon = SIMULATION_START + 12 * HOUR_IN_MILLIS;
+
+        assertEquals(AdaptiveSyncPolicy.MAX_INTERVAL,
+                policy.getSyncInterval(new SyncHistory(0f, 0, noon), noon));
+        assertEquals(AdaptiveSyncPolicy.MIN_INTERVAL,
+                policy.getSyncInterval(new SyncHistory(1f, 0, noon), noon));
+
+        int previous = Integer.MAX_VALUE;
+        for (float volatility = 0f; volatility <= 1f; volatility += 0.1f) {
+            int interval = policy.getSyncInterval(new SyncHistory(volatility, 0, noon), noon);
+            assertTrue("Error: more volatility should never mean a longer interval",
+                    interval <= previous);
+            assertEquals(0, interval % AdaptiveSyncPolicy.INTERVAL_STEP);
+            previous = interval;
+        }
+    }
+
+    public void testNightWaitsForMorning() {
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(UTC);
+        SyncHistory stormy = new SyncHistory(1f, 0, 0);
+
+        // 2am: wait until 6am, even though the weather is volatile
+        long twoAm = SIMULATION_START + 2 * HOUR_IN_MILLIS;
+        assertEquals(4 * 60 * 60, policy.getSyncInterval(stormy, twoAm));
+
+        // 11pm: 7 hours to morning, but never more than the longest interval
+        long elevenPm = SIMULATION_START + 23 * HOUR_IN_MILLIS;
+        assertEquals(AdaptiveSyncPolicy.MAX_INTERVAL, policy.getSyncInterval(stormy, elevenPm));
+    }
+
+    // Forecast revisions as a Poisson process, with a higher rate during the storm
+    private static List<Long> createRevisions(Random random) {
+        List<Long> revisions = new ArrayList<Long>();
+        long end = SIMULATION_START + SIMULATION_DAYS * DAY_IN_MILLIS;
+        long time = SIMULATION_START;
+        while (time < end) {
+            long meanGap = isStorm(time) ? STORM_REVISION_GAP : CALM_REVISION_GAP;
+            time += (long) (-Math.log(1 - random.nextDouble()) * meanGap);
+            revisions.add(time);
+        }
+        return revisions;
+    }
+
+    private static boolean isStorm(long time) {
+        long day = (time - SIMULATION_START) / DAY_IN_MILLIS;
+        return day >= STORM_FIRST_DAY && day <= STORM_LAST_DAY;
+    }
+
+    private static Report simulate(SyncPolicy policy, List<Long> revisions) {
+        // Failures are drawn from their own generator, so both policies see the same revisions
+        Random failures = new Random(7);
+        SimulatedClock clock = new SimulatedClock();
+        SyncHistory history = new SyncHistory();
+        Report report = new Report();
+        long end = SIMULATION_START + SIMULATION_DAYS * DAY_IN_MILLIS;
+        int nextRevision = 0;
+
+        clock.mNow = SIMULATION_START;
+        while (clock.mNow < end) {
+            long now = clock.currentTimeMillis();
+            if (isStorm(now)) {
+                report.mStormSyncs++;
+            } else {
+                report.mCalmSyncs++;
+            }
+
+            if (failures.nextDouble() < FAILURE_RATE) {
+                history.recordFailure(now);
+            } else {
+                int picked = 0;
+                while (nextRevision < revisions.size() && revisions.get(nextRevision) <= now) {
+                    long revision = revisions.get(nextRevision++);
+                    if (isStorm(revision)) {
+                        report.mStormStaleMillis += now - revision;
+                        report.mStormRevisions++;
+                    } else {
+                        report.mCalmStaleMillis += now - revision;
+                        report.mCalmRevisions++;
+                    }
+                    picked++;
+                }
+                // Every revision moves a few days of the forecast
+                int rowsChanged = picked == 0 ? 0 : Math.min(ROWS_PER_FORECAST, 3 + 3 * picked);
+                history.recordSuccess(ROWS_PER_FORECAST, rowsChanged, now);
+            }
+
+            // The periodic sync fires at the end of its flex window at the latest
+            clock.mNow += policy.getSyncInterval(history, now) * 1000L;
+        }
+        return report;
+    }
+}
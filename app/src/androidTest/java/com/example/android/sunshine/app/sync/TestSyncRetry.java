@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/*
+    Runs the sync adapter against a local server which fails on demand, and checks that it
+    backs off and stops asking a server that is down.
+ */
+public class TestSyncRetry extends AndroidTestCase {
+
+    private static final int FAULT_NONE = 0;
+    private static final int FAULT_DISCONNECT = 1;
+    private static final int FAULT_UNAVAILABLE = 2;
+    private static final int FAULT_NOT_FOUND = 3;
+
+    private LocalHttpServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private String mEndpoint;
+    private int mLocations;
+
+    private volatile int mFault = FAULT_NONE;
+    private volatile String mRetryAfter;
+    private long mNow = 1420070400000L;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+        CircuitBreaker.clearAll(mContext);
+
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                switch (mFault) {
+                    case FAULT_DISCONNECT:
+                        return new LocalHttpServer.Response().setDisconnect();
+                    case FAULT_UNAVAILABLE:
+                        LocalHttpServer.Response response = new LocalHttpServer.Response()
+                                .setStatus(HttpURLConnection.HTTP_UNAVAILABLE,
+                                        "Service Unavailable");
+                        if (mRetryAfter != null) {
+                            response.setHeader("Retry-After", mRetryAfter);
+                        }
+                        return response;
+                    case FAULT_NOT_FOUND:
+                        return new LocalHttpServer.Response()
+                                .setStatus(HttpURLConnection.HTTP_NOT_FOUND, "Not Found")
+                                .setHeader("Content-Type", "application/json; charset=utf-8")
+                                .setBody("{\"cod\":\"404\",\"message\":\"city not found\"}");
+                    default:
+                        return new LocalHttpServer.Response()
+                                .setHeader("Content-Type", "application/json; charset=utf-8")
+                                .setBody(ForecastFixtures.createForecastJson(14));
+                }
+            }
+        });
+        mServer.start();
+        mEndpoint = mServer.getUrl().substring("http://".length());
+        mLocations = Utility.getSyncLocations(mContext).size();
+
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setForecastBaseUrl(mServer.getUrl() + "/data/2.5/forecast/daily?");
+        mSyncAdapter.setSyncClock(new SyncClock() {
+            @Override
+            public long currentTimeMillis() {
+                return mNow;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        ForecastValidators.clearAll(mContext);
+        ForecastCache.clearAll(mContext);
+        CircuitBreaker.clearAll(mContext);
+        super.tearDown();
+    }
+
+    public void testFailureIsReportedToTheFramework() {
+        mFault = FAULT_DISCONNECT;
+        SyncResult result = runSync();
+
+        assertEquals("Error: every location should count as an I/O error",
+                mLocations, result.stats.numIoExceptions);
+        assertTrue("Error: a server that is down is worth retrying", result.hasSoftError());
+        assertFalse(result.hasHardError());
+        long delay = result.delayUntil - mNow / 1000;
+        assertTrue("Error: retry delay " + delay + " out of range",
+                delay >= RetryPolicy.BASE_DELAY / 2 && delay <= RetryPolicy.BASE_DELAY);
+    }
+
+    public void testRetryAfterIsHonoured() {
+        mFault = FAULT_UNAVAILABLE;
+        mRetryAfter = "600";
+        SyncResult result = runSync();
+
+        assertEquals(mLocations, result.stats.numIoExceptions);
+        assertTrue("Error: the server asked for 10 minutes",
+                result.delayUntil - mNow / 1000 >= 600);
+    }
+
+    public void testBreakerOpensAndShortCircuits() {
+        mFault = FAULT_UNAVAILABLE;
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            runSync();
+        }
+        int requests = mServer.getRequestCount();
+        assertEquals(CircuitBreaker.FAILURE_THRESHOLD * mLocations, requests);
+
+        // The user keeps pressing refresh
+        for (int i = 0; i < 5; i++) {
+            mNow += 1000;
+            SyncResult result = runSync();
+            assertEquals("Error: an open breaker should not ask the server",
+                    requests, mServer.getRequestCount());
+            assertEquals(getBreaker().getOpenUntilMillis() / 1000, result.delayUntil);
+            assertFalse(result.hasError());
+        }
+    }
+
+    public void testBreakerClosesWhenTheServerIsBack() {
+        mFault = FAULT_DISCONNECT;
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            runSync();
+        }
+        assertTrue(getBreaker().isOpen());
+
+        // Past the delay, the next sync is let through as a trial
+        mFault = FAULT_NONE;
+        mNow = getBreaker().getOpenUntilMillis();
+        int requests = mServer.getRequestCount();
+        SyncResult result = runSync();
+
+        assertEquals(requests + mLocations, mServer.getRequestCount());
+        assertFalse(result.hasError());
+        assertEquals(14 * mLocations, result.stats.numEntries);
+        assertEquals(0, getBreaker().getConsecutiveFailures());
+        assertFalse(getBreaker().isOpen());
+    }
+
+    public void testFailedTrialReopensForLonger() {
+        mFault = FAULT_UNAVAILABLE;
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            runSync();
+        }
+        long firstDelay = getBreaker().getOpenUntilMillis() - mNow;
+
+        mNow = getBreaker().getOpenUntilMillis();
+        int requests = mServer.getRequestCount();
+        runSync();
+
+        assertEquals("Error: the trial should have asked the server",
+                requests + mLocations, mServer.getRequestCount());
+        assertTrue(getBreaker().isOpen());
+        assertTrue("Error: a failed trial should open the breaker for at least as long",
+                getBreaker().getOpenUntilMillis() - mNow >= firstDelay);
+    }
+
+    public void testClientErrorLeavesTheBreakerClosed() {
+        mFault = FAULT_NOT_FOUND;
+        for (int i = 0; i <= CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            SyncResult result = runSync();
+            assertEquals("Error: a server that answers is not down",
+                    0, result.stats.numIoExceptions);
+            assertFalse("Error: a location that isn't there is not worth retrying",
+                    result.hasSoftError());
+            assertEquals(0, result.delayUntil);
+        }
+
+        assertEquals("Error: every sync should have asked the server",
+                (CircuitBreaker.FAILURE_THRESHOLD + 1) * mLocations, mServer.getRequestCount());
+        assertEquals(0, getBreaker().getConsecutiveFailures());
+        assertFalse(getBreaker().isOpen());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                Utility.getLocationStatus(mContext));
+    }
+
+    public void testRetryPolicyBackoff() {
+        RetryPolicy policy = new RetryPolicy(new Random(42));
+        int previousCeiling = 0;
+        for (int failures = 1; failures <= 20; failures++) {
+            int ceiling = Math.min(RetryPolicy.MAX_DELAY,
+                    RetryPolicy.BASE_DELAY << Math.min(failures - 1, 16));
+            int minDelay = Integer.MAX_VALUE;
+            int maxDelay = 0;
+            for (int i = 0; i < 100; i++) {
+                int delay = policy.getDelaySeconds(failures, 0);
+                assertTrue("Error: delay " + delay + " after " + failures + " failures",
+                        delay >= ceiling / 2 && delay <= ceiling);
+                minDelay = Math.min(minDelay, delay);
+                maxDelay = Math.max(maxDelay, delay);
+            }
+            assertTrue("Error: no jitter after " + failures + " failures", minDelay < maxDelay);
+            // Below the cap, the shortest wait is as long as the longest one a failure earlier
+            assertTrue("Error: a longer run of failures should not wait less",
+                    previousCeiling == RetryPolicy.MAX_DELAY || ceiling / 2 >= previousCeiling);
+            previousCeiling = ceiling;
+        }
+        assertEquals(RetryPolicy.MAX_DELAY, policy.getDelaySeconds(1, 24 * 60 * 60));
+    }
+
+    private CircuitBreaker getBreaker() {
+        return new CircuitBreaker(mContext, mEndpoint, new RetryPolicy(), new SyncClock() {
+            @Override
+            public long currentTimeMillis() {
+                return mNow;
+            }
+        });
+    }
+
+    private SyncResult runSync() {
+        SyncResult result = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                result);
+        return result;
+    }
+}
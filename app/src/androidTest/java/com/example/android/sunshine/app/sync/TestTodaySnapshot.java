@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/*
+    Checks that the snapshot the sync hands to the widgets, Muzei, the notification and the
+    watch carries the same data they used to query for themselves.
+ */
+public class TestTodaySnapshot extends AndroidTestCase {
+
+    private String mLocation;
+    private ContentValues mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+
+        mLocation = Utility.getPreferredLocation(mContext);
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, mLocation);
+        location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        Uri locationUri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, location);
+
+        mToday = new ContentValues();
+        mToday.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, ContentUris.parseId(locationUri));
+        mToday.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+        mToday.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
+        mToday.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        mToday.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+        mToday.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75.0);
+        mToday.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65.0);
+        mToday.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        mToday.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        mToday.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 321);
+        mContext.getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI, mToday);
+    }
+
+    public void testSnapshotMatchesQuery() {
+        TodaySnapshot fromSync = TodaySnapshot.fromValues(mContext, mLocation, mToday);
+        TodaySnapshot fromProvider = TodaySnapshot.query(mContext, mLocation);
+        assertNotNull("Error: no weather found for today", fromProvider);
+        assertSameSnapshot(fromProvider, fromSync);
+    }
+
+    public void testSnapshotSurvivesIntent() {
+        TodaySnapshot snapshot = TodaySnapshot.fromValues(mContext, mLocation, mToday);
+        Intent intent = snapshot.addTo(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED));
+        assertSameSnapshot(snapshot, TodaySnapshot.fromIntent(intent));
+        assertNull(TodaySnapshot.fromIntent(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)));
+    }
+
+    public void testGetPrefersAttachedSnapshot() {
+        // Deliberately different from what's stored, so we can tell where it came from
+        ContentValues attached = new ContentValues(mToday);
+        attached.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        Intent intent = TodaySnapshot.fromValues(mContext, mLocation, attached)
+                .addTo(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED));
+        assertEquals("Meteors", TodaySnapshot.get(mContext, intent).getDescription());
+    }
+
+    public void testGetQueriesWhenLocationChanged() {
+        ContentValues attached = new ContentValues(mToday);
+        attached.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        Intent intent = TodaySnapshot.fromValues(mContext, mLocation + "-old", attached)
+                .addTo(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED));
+        TodaySnapshot snapshot = TodaySnapshot.get(mContext, intent);
+        assertEquals(mLocation, snapshot.getLocationSetting());
+        assertEquals("Asteroids", snapshot.getDescription());
+        assertEquals("Asteroids", TodaySnapshot.get(mContext, null).getDescription());
+    }
+
+    private static void assertSameSnapshot(TodaySnapshot expected, TodaySnapshot actual) {
+        assertEquals(expected.getLocationSetting(), actual.getLocationSetting());
+        assertEquals(expected.getDate(), actual.getDate());
+        assertEquals(expected.getWeatherId(), actual.getWeatherId());
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.getHigh(), actual.getHigh());
+        assertEquals(expected.getLow(), actual.getLow());
+        assertEquals(expected.getFormattedHigh(), actual.getFormattedHigh());
+        assertEquals(expected.getFormattedLow(), actual.getFormattedLow());
+        assertEquals(expected.getArtResourceId(), actual.getArtResourceId());
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny HTTP/1.1 server bound to the loopback interface, so that the sync code can be run
+ * against a server the test controls.  Every request is handed to a {@link Dispatcher}, and
+ * connections are kept alive unless the client or the response says otherwise.
+ */
+public class LocalHttpServer {
+
+    public interface Dispatcher {
+        Response dispatch(Request request) throws InterruptedException;
+    }
+
+    public static class Request {
+        public final String method;
+        public final String path;
+        /** Header names are lower cased. */
+        public final Map<String, String> headers;
+        /** How many requests this connection served before this one. */
+        public final int sequenceOnConnection;
+
+        Request(String method, String path, Map<String, String> headers, int sequence) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.sequenceOnConnection = sequence;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    public static class Response {
+        int mCode = 200;
+        String mReason = "OK";
+        final Map<String, String> mHeaders = new LinkedHashMap<String, String>();
+        byte[] mBody = new byte[0];
+        long mDelayMillis;
+        boolean mDisconnect;
+
+        public Response setStatus(int code, String reason) {
+            mCode = code;
+            mReason = reason;
+            return this;
+        }
+
+        public Response setHeader(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        public Response setBody(byte[] body) {
+            mBody = body;
+            return this;
+        }
+
+        public Response setBody(String body) {
+            try {
+                return setBody(body.getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /** Wait this long before writing anything, to simulate a slow server. */
+        public Response setDelay(long delayMillis) {
+            mDelayMillis = delayMillis;
+            return this;
+        }
+
+        /** Drop the connection instead of answering, to simulate a broken server. */
+        public Response setDisconnect() {
+            mDisconnect = true;
+            return this;
+        }
+    }
+
+    private final Dispatcher mDispatcher;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final List<Request> mRequests =
+            Collections.synchronizedList(new ArrayList<Request>());
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mBytesWritten = new AtomicInteger();
+    private ServerSocket mServerSocket;
+
+    public LocalHttpServer(Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    public void shutdown() throws IOException, InterruptedException {
+        mServerSocket.close();
+        mExecutor.shutdownNow();
+        mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /** @return the base url of the server, without a trailing slash. */
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    public List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<Request>(mRequests);
+        }
+    }
+
+    public int getRequestCount() {
+        return mRequests.size();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    /** Bytes of response headers and bodies written so far. */
+    public int getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // The server socket was closed
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serveConnection(socket);
+                }
+            });
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            int sequence = 0;
+            while (true) {
+                Request request = readRequest(in, sequence++);
+                if (request == null) {
+                    break;
+                }
+                mRequests.add(request);
+                Response response = mDispatcher.dispatch(request);
+                if (response.mDelayMillis > 0) {
+                    Thread.sleep(response.mDelayMillis);
+                }
+                if (response.mDisconnect) {
+                    break;
+                }
+                boolean close = "close".equalsIgnoreCase(request.getHeader("Connection"))
+                        || "close".equalsIgnoreCase(response.mHeaders.get("Connection"));
+                writeResponse(out, response);
+                if (close) {
+                    break;
+                }
+            }
+        } catch (SocketException e) {
+            // The client went away
+        } catch (IOException e) {
+            // The client went away
+        } catch (InterruptedException e) {
+            // The server is shutting down
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing more we can do
+            }
+        }
+    }
+
+    private static Request readRequest(InputStream in, int sequence) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.length() == 0) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        // Only GET is served, so there's never a request body to skip.
+        return new Request(parts[0], parts.length > 1 ? parts[1] : "/", headers, sequence);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    private void writeResponse(OutputStream out, Response response) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.mCode).append(' ').append(response.mReason)
+                .append("\r\n");
+        for (Map.Entry<String, String> header : response.mHeaders.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(response.mBody.length).append("\r\n\r\n");
+        byte[] headBytes = head.toString().getBytes("ISO-8859-1");
+        out.write(headBytes);
+        out.write(response.mBody);
+        out.flush();
+        mBytesWritten.addAndGet(headBytes.length + response.mBody.length);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.GenericLoaderFactory;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.stream.HttpUrlGlideUrlLoader;
+import com.bumptech.glide.load.model.stream.StreamModelLoader;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts how many of the weather art loads started while binding a view were served from
+ * Glide's caches, and how many had to go to the network.
+ * <p/>
+ * A bind loads with the listener {@link #startBind(String)} returns.  Glide downloads through
+ * {@link CountingUrlLoader}, which counts the downloads of each url.  If the url was downloaded
+ * while the bind waited, the bind was a miss, and otherwise a hit.  Each bind keeps its own
+ * state in its listener, so a load Glide clears before it finishes, as when a list item is
+ * recycled, just isn't counted and leaves nothing behind.  Downloads nobody is binding, like
+ * the prefetch after a sync, only move the count of their url.
+ */
+public class ArtCacheStats {
+
+    // Downloads of each url so far.  There is a url per kind of weather, not per bind.
+    private static final Map<String, Integer> sDownloads = new HashMap<String, Integer>();
+    private static int sHits;
+    private static int sMisses;
+
+    /**
+     * @return the listener the load for the bind has to be made with.
+     */
+    public static <R> RequestListener<String, R> startBind(String url) {
+        return new BindListener<R>(getDownloads(url));
+    }
+
+    public static synchronized int getHits() {
+        return sHits;
+    }
+
+    public static synchronized int getMisses() {
+        return sMisses;
+    }
+
+    public static synchronized void reset() {
+        sDownloads.clear();
+        sHits = 0;
+        sMisses = 0;
+    }
+
+    private static synchronized int getDownloads(String url) {
+        Integer count = sDownloads.get(url);
+        return count == null ? 0 : count;
+    }
+
+    private static synchronized void onDownload(String url) {
+        sDownloads.put(url, getDownloads(url) + 1);
+    }
+
+    private static synchronized void onBindFinished(String url, int downloadsAtStart,
+                                                    boolean loaded) {
+        if (getDownloads(url) != downloadsAtStart || !loaded) {
+            sMisses++;
+        } else {
+            sHits++;
+        }
+    }
+
+    private static class BindListener<R> implements RequestListener<String, R> {
+        private final int mDownloadsAtStart;
+        // Glide may run the same request again, after the bind was counted
+        private boolean mFinished;
+
+        BindListener(int downloadsAtStart) {
+            mDownloadsAtStart = downloadsAtStart;
+        }
+
+        @Override
+        public boolean onException(Exception e, String model, Target<R> target,
+                                   boolean isFirstResource) {
+            finish(model, false);
+            return false;
+        }
+
+        @Override
+        public boolean onResourceReady(R resource, String model, Target<R> target,
+                                       boolean isFromMemoryCache, boolean isFirstResource) {
+            finish(model, true);
+            return false;
+        }
+
+        private void finish(String url, boolean loaded) {
+            if (!mFinished) {
+                mFinished = true;
+                onBindFinished(url, mDownloadsAtStart, loaded);
+            }
+        }
+    }
+
+    /**
+     * Glide's own url loader, telling {@link ArtCacheStats} about every download.
+     */
+    static class CountingUrlLoader implements StreamModelLoader<GlideUrl> {
+        private final ModelLoader<GlideUrl, InputStream> mLoader;
+
+        CountingUrlLoader(ModelLoader<GlideUrl, InputStream> loader) {
+            mLoader = loader;
+        }
+
+        @Override
+        public DataFetcher<InputStream> getResourceFetcher(final GlideUrl model, int width,
+                                                           int height) {
+            final DataFetcher<InputStream> fetcher = mLoader.getResourceFetcher(model, width, height);
+            return new DataFetcher<InputStream>() {
+                @Override
+                public InputStream loadData(Priority priority) throws Exception {
+                    // Only called when neither cache had the image
+                    onDownload(model.toString());
+                    return fetcher.loadData(priority);
+                }
+
+                @Override
+                public void cleanup() {
+                    fetcher.cleanup();
+                }
+
+                @Override
+                public String getId() {
+                    return fetcher.getId();
+                }
+
+                @Override
+                public void cancel() {
+                    fetcher.cancel();
+                }
+            };
+        }
+
+        static class Factory implements ModelLoaderFactory<GlideUrl, InputStream> {
+            @Override
+            public ModelLoader<GlideUrl, InputStream> build(Context context,
+                                                            GenericLoaderFactory factories) {
+                return new CountingUrlLoader(new HttpUrlGlideUrlLoader());
+            }
+
+            @Override
+            public void teardown() {
+            }
+        }
+    }
+}
@@ -30,6 +30,8 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
 import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
@@ -142,8 +144,13 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         if ( Utility.usingLocalGraphics(mContext) ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
+            String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+            // The sync prefetches the art to the disk cache, which only the ALL strategy
+            // reads from when loading at the size of the view
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(artUrl)
+                    .diskCacheStrategy(DiskCacheStrategy.ALL)
+                    .listener(ArtCacheStats.<GlideDrawable>startBind(artUrl))
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
@@ -63,6 +63,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private static final String SELECTED_KEY = "selected_position";
 
     private static final int FORECAST_LOADER = 0;
+    // A sync notifies each day it changed on its own, and the forecast hears every one of
+    // them, so the loader waits this long after a load before reloading for the rest
+    private static final long FORECAST_UPDATE_THROTTLE_MILLIS = 500;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
     private static final String[] FORECAST_COLUMNS = {
@@ -316,12 +319,14 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
 
-        return new CursorLoader(getActivity(),
+        CursorLoader loader = new CursorLoader(getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
                 null,
                 null,
                 sortOrder);
+        loader.setUpdateThrottle(FORECAST_UPDATE_THROTTLE_MILLIS);
+        return loader;
     }
 
     @Override
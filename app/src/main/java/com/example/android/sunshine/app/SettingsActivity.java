@@ -123,6 +123,13 @@ public class SettingsActivity extends PreferenceActivity
     // This gets called before the preference is changed
     @Override
     public boolean onPreferenceChange(Preference preference, Object value) {
+        if (preference.getKey().equals(getString(R.string.pref_location_key))) {
+            // keep syncing the location we're moving away from, so switching back is instant
+            String oldLocation = Utility.getPreferredLocation(this);
+            if (!oldLocation.equals(value.toString())) {
+                Utility.addSavedLocation(this, oldLocation);
+            }
+        }
         setPreferenceSummary(preference, value);
         return true;
     }
@@ -26,7 +26,9 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class Utility {
@@ -36,6 +38,68 @@ public class Utility {
                 context.getString(R.string.pref_location_default));
     }
 
+    // Saved locations are kept in a single preference, one per line.  Location settings are
+    // typed into a single line EditText, so they never contain a newline themselves.
+    private static final String SAVED_LOCATIONS_SEPARATOR = "\n";
+
+    // Upper bound on the number of saved locations, so a sync stays bounded too
+    public static final int MAX_SAVED_LOCATIONS = 25;
+
+    /**
+     * Returns the locations the sync adapter keeps a forecast for: the preferred location first,
+     * followed by the saved ones, most recently used first.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return the location settings, without duplicates
+     */
+    public static List<String> getSyncLocations(Context context) {
+        List<String> locations = new ArrayList<String>();
+        locations.add(getPreferredLocation(context));
+        for (String location : getSavedLocations(context)) {
+            if (!locations.contains(location)) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    public static List<String> getSavedLocations(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String saved = prefs.getString(context.getString(R.string.pref_saved_locations_key), "");
+        List<String> locations = new ArrayList<String>();
+        for (String location : saved.split(SAVED_LOCATIONS_SEPARATOR)) {
+            if (location.length() > 0) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Adds a location to the front of the saved locations, so switching back to it doesn't
+     * have to wait for the network.  The oldest locations are dropped past
+     * MAX_SAVED_LOCATIONS.
+     *
+     * @param context  Context used to get the SharedPreferences
+     * @param location The location setting to keep syncing
+     */
+    public static void addSavedLocation(Context context, String location) {
+        List<String> locations = getSavedLocations(context);
+        locations.remove(location);
+        locations.add(0, location);
+        StringBuilder saved = new StringBuilder();
+        for (int i = 0; i < locations.size() && i < MAX_SAVED_LOCATIONS; i++) {
+            if (i > 0) {
+                saved.append(SAVED_LOCATIONS_SEPARATOR);
+            }
+            saved.append(locations.get(i));
+        }
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(context).edit();
+        editor.putString(context.getString(R.string.pref_saved_locations_key), saved.toString());
+        editor.apply();
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
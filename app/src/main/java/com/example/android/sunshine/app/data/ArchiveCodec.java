@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs the archived days of a location and month into a blob, and unpacks them again.
+ * <p/>
+ * Consecutive days differ by little, so every value is written as the difference from the
+ * day before, as a zigzag varint: a small difference of either sign takes a byte or two.
+ * Dates are Julian days, and the measurements are kept to hundredths, which is finer than the
+ * API reports them in.  Descriptions repeat, so each is written once and referred to by index.
+ * <pre>
+ * version
+ * description count, then each as its UTF-8 byte count and bytes
+ * day count, then for each day:
+ *   julian day, days it stands for, description index, weather id,
+ *   min, max, humidity, pressure, wind, degrees
+ * </pre>
+ * A month of days packs into fewer than 20 bytes a day, where the weather table takes over 100.
+ */
+class ArchiveCodec {
+    static final int VERSION = 1;
+
+    private static final double SCALE = 100;
+
+    // One archived row, which may stand for several days once downsampled
+    static final class Day {
+        int mJulianDay;
+        int mDays = 1;
+        int mWeatherId;
+        String mDescription;
+        double mMin;
+        double mMax;
+        double mHumidity;
+        double mPressure;
+        double mWind;
+        double mDegrees;
+    }
+
+    static byte[] encode(List<Day> days) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + days.size() * 16);
+        out.write(VERSION);
+
+        Map<String, Integer> indexes = new HashMap<String, Integer>();
+        List<String> descriptions = new ArrayList<String>();
+        for (Day day : days) {
+            if (!indexes.containsKey(day.mDescription)) {
+                indexes.put(day.mDescription, descriptions.size());
+                descriptions.add(day.mDescription);
+            }
+        }
+        writeVarint(out, descriptions.size());
+        for (String description : descriptions) {
+            byte[] bytes = toUtf8(description);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        writeVarint(out, days.size());
+        Day previous = new Day();
+        for (Day day : days) {
+            writeSigned(out, day.mJulianDay - previous.mJulianDay);
+            writeVarint(out, day.mDays);
+            writeVarint(out, indexes.get(day.mDescription));
+            writeSigned(out, day.mWeatherId - previous.mWeatherId);
+            writeScaled(out, day.mMin, previous.mMin);
+            writeScaled(out, day.mMax, previous.mMax);
+            writeScaled(out, day.mHumidity, previous.mHumidity);
+            writeScaled(out, day.mPressure, previous.mPressure);
+            writeScaled(out, day.mWind, previous.mWind);
+            writeScaled(out, day.mDegrees, previous.mDegrees);
+            previous = day;
+        }
+        return out.toByteArray();
+    }
+
+    static List<Day> decode(byte[] data) {
+        int[] position = {0};
+        int version = data[position[0]++];
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown archive version " + version);
+        }
+
+        String[] descriptions = new String[(int) readVarint(data, position)];
+        for (int i = 0; i < descriptions.length; i++) {
+            int length = (int) readVarint(data, position);
+            descriptions[i] = fromUtf8(data, position[0], length);
+            position[0] += length;
+        }
+
+        int count = (int) readVarint(data, position);
+        List<Day> days = new ArrayList<Day>(count);
+        Day previous = new Day();
+        for (int i = 0; i < count; i++) {
+            Day day = new Day();
+            day.mJulianDay = previous.mJulianDay + (int) readSigned(data, position);
+            day.mDays = (int) readVarint(data, position);
+            day.mDescription = descriptions[(int) readVarint(data, position)];
+            day.mWeatherId = previous.mWeatherId + (int) readSigned(data, position);
+            day.mMin = readScaled(data, position, previous.mMin);
+            day.mMax = readScaled(data, position, previous.mMax);
+            day.mHumidity = readScaled(data, position, previous.mHumidity);
+            day.mPressure = readScaled(data, position, previous.mPressure);
+            day.mWind = readScaled(data, position, previous.mWind);
+            day.mDegrees = readScaled(data, position, previous.mDegrees);
+            days.add(day);
+            previous = day;
+        }
+        return days;
+    }
+
+    // The difference is taken between the scaled values, so rounding errors don't add up
+    private static void writeScaled(ByteArrayOutputStream out, double value, double previous) {
+        writeSigned(out, Math.round(value * SCALE) - Math.round(previous * SCALE));
+    }
+
+    private static double readScaled(byte[] data, int[] position, double previous) {
+        return (Math.round(previous * SCALE) + readSigned(data, position)) / SCALE;
+    }
+
+    private static void writeSigned(ByteArrayOutputStream out, long value) {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static long readSigned(byte[] data, int[] position) {
+        long value = readVarint(data, position);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] position) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static byte[] toUtf8(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String fromUtf8(byte[] data, int offset, int length) {
+        try {
+            return new String(data, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
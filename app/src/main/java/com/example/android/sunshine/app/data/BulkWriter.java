@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the rows of one transaction through statements compiled on the first row, instead of
+ * having SQLiteDatabase build and compile the same SQL again for every one.  The values are
+ * bound straight from the ContentValues, and a weather row is matched against the stored one
+ * in SQL rather than by reading it back into a cursor.
+ * <p/>
+ * Rows are expected to come with the same columns, the way a sync writes them.  A row with
+ * other columns compiles the statements again, so it still works, only slower.
+ * <p/>
+ * Not thread safe, and only good for as long as the transaction it was made in.
+ */
+class BulkWriter {
+    private static final String LOG_TAG = BulkWriter.class.getSimpleName();
+
+    // Forecast dates repeat for every location, and normalizing one allocates a Time
+    private static final int DATE_CACHE_SIZE = 32;
+    private static final long DAY_MILLIS = 1000 * 60 * 60 * 24;
+
+    private final SQLiteDatabase mDb;
+    private final Map<String, Insert> mInserts = new HashMap<String, Insert>();
+    private final long[] mDates = new long[DATE_CACHE_SIZE];
+    private final long[] mNormalizedDates = new long[DATE_CACHE_SIZE];
+
+    private SQLiteStatement mFindWeather;
+    private String[] mUpdateColumns;
+    private SQLiteStatement mUpdateWeather;
+    private SQLiteStatement mChanges;
+
+    // An INSERT for one table and set of columns
+    private static class Insert {
+        final String[] mColumns;
+        final SQLiteStatement mStatement;
+
+        Insert(String[] columns, SQLiteStatement statement) {
+            mColumns = columns;
+            mStatement = statement;
+        }
+    }
+
+    BulkWriter(SQLiteDatabase db) {
+        mDb = db;
+        for (int i = 0; i < DATE_CACHE_SIZE; i++) {
+            mDates[i] = -1;
+        }
+    }
+
+    /**
+     * @return whether {@link #upsertWeather(ContentValues)} can write the row.  It needs the
+     * location and date to find the stored row by, and something else to compare.
+     */
+    static boolean canUpsertWeather(ContentValues values) {
+        return values.get(WeatherEntry.COLUMN_LOC_KEY) instanceof Number
+                && values.get(WeatherEntry.COLUMN_DATE) instanceof Number
+                && !values.containsKey(WeatherEntry._ID)
+                && values.size() > 2;
+    }
+
+    /**
+     * Normalizes the date of a weather row, like {@link WeatherContract#normalizeDate(long)}.
+     */
+    void normalizeDate(ContentValues values) {
+        Object date = values.get(WeatherEntry.COLUMN_DATE);
+        if (!(date instanceof Number)) {
+            return;
+        }
+        long dateValue = ((Number) date).longValue();
+        int slot = (int) ((dateValue / DAY_MILLIS) % DATE_CACHE_SIZE);
+        if (slot < 0) {
+            slot += DATE_CACHE_SIZE;
+        }
+        if (mDates[slot] != dateValue) {
+            mDates[slot] = dateValue;
+            mNormalizedDates[slot] = WeatherContract.normalizeDate(dateValue);
+        }
+        if (mNormalizedDates[slot] != dateValue) {
+            values.put(WeatherEntry.COLUMN_DATE, mNormalizedDates[slot]);
+        }
+    }
+
+    /**
+     * Same as WeatherProvider's upsert: writes the row unless the row stored for the same day
+     * and location already holds these values, and updates a changed row in place.  The date
+     * must already be normalized.
+     *
+     * @return the _ID of the written row, the negated _ID of the stored row if it was left
+     * untouched, or 0 if the row could not be written.
+     */
+    long upsertWeather(ContentValues values) {
+        if (mFindWeather == null) {
+            // Always one row, so a missing row doesn't cost an exception.  _IDs start at 1.
+            mFindWeather = mDb.compileStatement("SELECT coalesce((SELECT " + WeatherEntry._ID
+                    + " FROM " + WeatherEntry.TABLE_NAME + " WHERE "
+                    + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE
+                    + " = ?), 0)");
+        }
+        mFindWeather.bindLong(1, ((Number) values.get(WeatherEntry.COLUMN_LOC_KEY)).longValue());
+        mFindWeather.bindLong(2, ((Number) values.get(WeatherEntry.COLUMN_DATE)).longValue());
+        long storedId = mFindWeather.simpleQueryForLong();
+        if (storedId == 0) {
+            return Math.max(0, insert(WeatherEntry.TABLE_NAME, values));
+        }
+
+        // Only changes anything if some value differs, so the count tells whether one did
+        SQLiteStatement update = getUpdateWeather(values);
+        for (int i = 0; i < mUpdateColumns.length; i++) {
+            DatabaseUtils.bindObjectToProgram(update, i + 1, values.get(mUpdateColumns[i]));
+        }
+        update.bindLong(mUpdateColumns.length + 1, storedId);
+        return executeUpdateDelete(update) > 0 ? storedId : -storedId;
+    }
+
+    /**
+     * @return the _ID of the new row, or -1 if it could not be inserted, like
+     * {@link SQLiteDatabase#insert}.
+     */
+    long insert(String table, ContentValues values) {
+        if (values.size() == 0) {
+            return mDb.insert(table, null, values);
+        }
+        Insert insert = mInserts.get(table);
+        if (insert == null || values.size() != insert.mColumns.length
+                || !hasColumns(values, insert.mColumns)) {
+            if (insert != null) {
+                insert.mStatement.close();
+            }
+            String[] columns = getColumns(values);
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+            StringBuilder parameters = new StringBuilder();
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i == 0 ? "" : ", ").append(columns[i]);
+                parameters.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(") VALUES (").append(parameters).append(')');
+            insert = new Insert(columns, mDb.compileStatement(sql.toString()));
+            mInserts.put(table, insert);
+        }
+        for (int i = 0; i < insert.mColumns.length; i++) {
+            DatabaseUtils.bindObjectToProgram(insert.mStatement, i + 1,
+                    values.get(insert.mColumns[i]));
+        }
+        try {
+            return insert.mStatement.executeInsert();
+        } catch (SQLException e) {
+            // SQLiteDatabase.insert doesn't throw either
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    void close() {
+        for (Insert insert : mInserts.values()) {
+            insert.mStatement.close();
+        }
+        mInserts.clear();
+        closeQuietly(mFindWeather);
+        closeQuietly(mUpdateWeather);
+        closeQuietly(mChanges);
+        mFindWeather = mUpdateWeather = mChanges = null;
+    }
+
+    // UPDATE weather SET a = ?1, b = ?2 WHERE _id = ?3 AND (a IS NOT ?1 OR b IS NOT ?2)
+    private SQLiteStatement getUpdateWeather(ContentValues values) {
+        if (mUpdateWeather != null && values.size() == mUpdateColumns.length + 2
+                && hasColumns(values, mUpdateColumns)) {
+            return mUpdateWeather;
+        }
+        closeQuietly(mUpdateWeather);
+        String[] columns = getColumns(values);
+        mUpdateColumns = new String[columns.length - 2];
+        int n = 0;
+        for (String column : columns) {
+            if (!column.equals(WeatherEntry.COLUMN_LOC_KEY)
+                    && !column.equals(WeatherEntry.COLUMN_DATE)) {
+                mUpdateColumns[n++] = column;
+            }
+        }
+        StringBuilder set = new StringBuilder();
+        StringBuilder differs = new StringBuilder();
+        for (int i = 0; i < mUpdateColumns.length; i++) {
+            set.append(i == 0 ? "" : ", ").append(mUpdateColumns[i]).append(" = ?").append(i + 1);
+            differs.append(i == 0 ? "" : " OR ").append(mUpdateColumns[i])
+                    .append(" IS NOT ?").append(i + 1);
+        }
+        mUpdateWeather = mDb.compileStatement("UPDATE " + WeatherEntry.TABLE_NAME + " SET " + set
+                + " WHERE " + WeatherEntry._ID + " = ?" + (mUpdateColumns.length + 1)
+                + " AND (" + differs + ")");
+        return mUpdateWeather;
+    }
+
+    private int executeUpdateDelete(SQLiteStatement statement) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return executeUpdateDeleteHoneycomb(statement);
+        }
+        statement.execute();
+        if (mChanges == null) {
+            mChanges = mDb.compileStatement("SELECT changes()");
+        }
+        return (int) mChanges.simpleQueryForLong();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int executeUpdateDeleteHoneycomb(SQLiteStatement statement) {
+        return statement.executeUpdateDelete();
+    }
+
+    private static String[] getColumns(ContentValues values) {
+        String[] columns = new String[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            columns[i++] = entry.getKey();
+        }
+        return columns;
+    }
+
+    private static boolean hasColumns(ContentValues values, String[] columns) {
+        for (String column : columns) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void closeQuietly(SQLiteStatement statement) {
+        if (statement != null) {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the results of the forecast queries of a location, which the app, the widgets, Muzei,
+ * the notification and the wearable all make within seconds of each other after a sync.
+ * <p/>
+ * Entries are dropped when a write touches their location.  Writes can't be seen before they
+ * are committed, so the provider hands over what it changed once they are.  A query which ran
+ * while that happened may have read the rows from before, so every drop starts a new
+ * generation, and only results read in the current one are kept.
+ */
+class QueryCache {
+    // Rows over all entries.  A location's forecast is at most 16.
+    private static final int MAX_ROWS = 512;
+    // Larger results are rare, and would push out everything else
+    private static final int MAX_ENTRY_ROWS = 64;
+
+    private final LruCache<String, Entry> mEntries = new LruCache<String, Entry>(MAX_ROWS) {
+        @Override
+        protected int sizeOf(String key, Entry entry) {
+            return entry.mRows.length + 1;
+        }
+    };
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private long mGeneration;
+
+    private static class Entry {
+        final String[] mColumns;
+        final Object[][] mRows;
+        final String mLocationSetting;
+        final long mLocationId;
+
+        Entry(String[] columns, Object[][] rows, String locationSetting, long locationId) {
+            mColumns = columns;
+            mRows = rows;
+            mLocationSetting = locationSetting;
+            mLocationId = locationId;
+        }
+    }
+
+    /**
+     * What a write changed, to drop from the cache once it is committed.
+     */
+    static class Changes {
+        final Set<Long> mLocationIds = new HashSet<Long>();
+        final Set<String> mLocationSettings = new HashSet<String>();
+        boolean mAll;
+
+        boolean isEmpty() {
+            return !mAll && mLocationIds.isEmpty() && mLocationSettings.isEmpty();
+        }
+    }
+
+    /**
+     * Copying a result needs the types of its values, which cursors only tell from Honeycomb on.
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    static String getKey(Uri uri, String[] projection, String sortOrder) {
+        return uri + "|" + Arrays.toString(projection) + "|" + sortOrder;
+    }
+
+    /**
+     * @return a copy of the cached result, or null if there is none.
+     */
+    Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mHits.incrementAndGet();
+        return toCursor(entry);
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Keeps the result, unless something was dropped since the generation it was read in.
+     *
+     * @return the cursor to hand out instead, which is a copy if the result was kept.
+     */
+    Cursor put(String key, long generation, Cursor cursor, String locationSetting,
+               long locationId) {
+        if (!isSupported() || cursor.getCount() > MAX_ENTRY_ROWS) {
+            return cursor;
+        }
+        Entry entry = copy(cursor, locationSetting, locationId);
+        cursor.close();
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mEntries.put(key, entry);
+            }
+        }
+        return toCursor(entry);
+    }
+
+    synchronized void invalidate(Changes changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        mGeneration++;
+        if (changes.mAll) {
+            mEntries.evictAll();
+            return;
+        }
+        for (Map.Entry<String, Entry> cached : mEntries.snapshot().entrySet()) {
+            Entry entry = cached.getValue();
+            if (changes.mLocationIds.contains(entry.mLocationId)
+                    || changes.mLocationSettings.contains(entry.mLocationSetting)) {
+                mEntries.remove(cached.getKey());
+            }
+        }
+    }
+
+    int getHitCount() {
+        return mHits.get();
+    }
+
+    int getMissCount() {
+        return mMisses.get();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Entry copy(Cursor cursor, String locationSetting, long locationId) {
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[cursor.getCount()][];
+        cursor.moveToPosition(-1);
+        for (int row = 0; cursor.moveToNext(); row++) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        values[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        values[i] = cursor.getString(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        values[i] = cursor.getBlob(i);
+                        break;
+                    default:
+                        values[i] = null;
+                }
+            }
+            rows[row] = values;
+        }
+        return new Entry(columns, rows, locationSetting, locationId);
+    }
+
+    private static Cursor toCursor(Entry entry) {
+        MatrixCursor cursor = new MatrixCursor(entry.mColumns, entry.mRows.length);
+        for (Object[] row : entry.mRows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+}
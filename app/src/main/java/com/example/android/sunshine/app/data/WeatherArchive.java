@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherStatsEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the days gone by of each location, packed a month to a row by {@link ArchiveCodec},
+ * so that the weather table only holds the forecast and stays as fast as it was.
+ * <p/>
+ * Only the last {@link WeatherArchiveEntry#RETENTION_MONTHS} months up to the newest archived
+ * day are kept a row a day, older ones are downsampled to one row a week.  A year of a
+ * location is then twelve rows, and reading it back is twelve blobs to unpack.
+ * <p/>
+ * The stats of a week or a month go on counting the days archived out of it, which they read
+ * unpacked from {@link WeatherStatsEntry#ARCHIVED_TABLE_NAME}, so archiving fills that too.
+ */
+class WeatherArchive {
+
+    // The columns a query of the archive hands back, in this order when there's no projection
+    static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherArchiveEntry.COLUMN_DAYS,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    // these indices must match the projection
+    private static final int INDEX_LOC_KEY = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+    private static final int INDEX_MAX_TEMP = 5;
+    private static final int INDEX_HUMIDITY = 6;
+    private static final int INDEX_PRESSURE = 7;
+    private static final int INDEX_WIND_SPEED = 8;
+    private static final int INDEX_DEGREES = 9;
+
+    // The columns the stats read of an archived day
+    private static final String STATS_COLUMNS = WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " + WeatherEntry.COLUMN_WIND_SPEED;
+
+    // A month starts at most 30 days before its last, a week 6, and dates are local midnights,
+    // which move by an hour across daylight saving time
+    private static final long STATS_DAYS_MILLIS = 31L * 24 * 60 * 60 * 1000;
+
+    private static final String sLocationAndMonthSelection =
+            WeatherArchiveEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherArchiveEntry.COLUMN_MONTH + " = ?";
+
+    // Only needs a Time for its conversions, which are all in the default time zone, the way
+    // WeatherContract.normalizeDate works
+    private final Time mTime = new Time();
+
+    /**
+     * Copies the weather rows the selection picks into the archive, merged with the days
+     * already archived for their location and month.  Doesn't delete them; that's up to the
+     * caller, in the same transaction.
+     *
+     * @return how many rows were archived.
+     */
+    int archive(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        // Location and month, to the days of that month
+        Map<Long, Map<Integer, List<ArchiveCodec.Day>>> months =
+                new LinkedHashMap<Long, Map<Integer, List<ArchiveCodec.Day>>>();
+        Map<Long, Integer> newestDays = new HashMap<Long, Integer>();
+        int count = 0;
+        keepForStats(db, selection, selectionArgs);
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, WEATHER_COLUMNS, selection,
+                selectionArgs, null, null, WeatherEntry.COLUMN_LOC_KEY + ", "
+                        + WeatherEntry.COLUMN_DATE);
+        try {
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(INDEX_LOC_KEY);
+                ArchiveCodec.Day day = new ArchiveCodec.Day();
+                day.mJulianDay = getJulianDay(cursor.getLong(INDEX_DATE));
+                day.mWeatherId = cursor.getInt(INDEX_WEATHER_ID);
+                day.mDescription = cursor.getString(INDEX_SHORT_DESC);
+                day.mMin = cursor.getDouble(INDEX_MIN_TEMP);
+                day.mMax = cursor.getDouble(INDEX_MAX_TEMP);
+                day.mHumidity = cursor.getDouble(INDEX_HUMIDITY);
+                day.mPressure = cursor.getDouble(INDEX_PRESSURE);
+                day.mWind = cursor.getDouble(INDEX_WIND_SPEED);
+                day.mDegrees = cursor.getDouble(INDEX_DEGREES);
+
+                Map<Integer, List<ArchiveCodec.Day>> locationMonths = months.get(locationId);
+                if (locationMonths == null) {
+                    locationMonths = new TreeMap<Integer, List<ArchiveCodec.Day>>();
+                    months.put(locationId, locationMonths);
+                }
+                int month = getMonth(day.mJulianDay);
+                List<ArchiveCodec.Day> days = locationMonths.get(month);
+                if (days == null) {
+                    days = new ArrayList<ArchiveCodec.Day>();
+                    locationMonths.put(month, days);
+                }
+                days.add(day);
+                // Ordered by date, so the last one is the newest
+                newestDays.put(locationId, day.mJulianDay);
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (Map.Entry<Long, Map<Integer, List<ArchiveCodec.Day>>> location : months.entrySet()) {
+            long locationId = location.getKey();
+            for (Map.Entry<Integer, List<ArchiveCodec.Day>> month
+                    : location.getValue().entrySet()) {
+                merge(db, locationId, month.getKey(), month.getValue());
+            }
+            downsampleExpired(db, locationId, getMonth(newestDays.get(locationId)));
+        }
+        return count;
+    }
+
+    // Copies the rows the selection picks to the days the stats count, before they are deleted
+    // from the weather table.  Those older than any week or month that still has a day in the
+    // weather table can't be counted again, so they go.
+    private void keepForStats(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        db.execSQL("INSERT INTO " + WeatherStatsEntry.ARCHIVED_TABLE_NAME + " (" + STATS_COLUMNS
+                + ") SELECT " + STATS_COLUMNS + " FROM " + WeatherEntry.TABLE_NAME + " WHERE "
+                + selection, selectionArgs != null ? selectionArgs : new String[0]);
+        db.execSQL("DELETE FROM " + WeatherStatsEntry.ARCHIVED_TABLE_NAME + " WHERE "
+                + WeatherEntry.COLUMN_DATE + " < (SELECT min(" + WeatherEntry.COLUMN_DATE
+                + ") FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.TABLE_NAME + "."
+                + WeatherEntry.COLUMN_LOC_KEY + " = " + WeatherStatsEntry.ARCHIVED_TABLE_NAME + "."
+                + WeatherEntry.COLUMN_LOC_KEY + ") - " + STATS_DAYS_MILLIS);
+    }
+
+    /**
+     * Reads back the archived days of a location from startDate up to, but not including,
+     * endDate, in date order.
+     */
+    Cursor query(SQLiteDatabase db, String locationSetting, long startDate, long endDate,
+                 String[] projection) {
+        String[] columns = projection != null ? projection : COLUMNS;
+        int[] indexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indexes[i] = indexOf(COLUMNS, columns[i]);
+            if (indexes[i] == -1) {
+                throw new IllegalArgumentException("Unknown archive column " + columns[i]);
+            }
+        }
+        MatrixCursor result = new MatrixCursor(columns);
+
+        int startMonth = startDate <= 0 ? 0 : getMonth(getJulianDay(startDate));
+        int endMonth = endDate == Long.MAX_VALUE
+                ? Integer.MAX_VALUE : getMonth(getJulianDay(endDate));
+        // Found through the unique key, which starts with the location
+        Cursor months = db.query(WeatherArchiveEntry.TABLE_NAME,
+                new String[]{WeatherArchiveEntry.COLUMN_DATA},
+                WeatherArchiveEntry.COLUMN_LOC_KEY + " = (SELECT " + LocationEntry._ID
+                        + " FROM " + LocationEntry.TABLE_NAME + " WHERE "
+                        + LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND "
+                        + WeatherArchiveEntry.COLUMN_MONTH + " BETWEEN ? AND ?",
+                new String[]{locationSetting, Integer.toString(startMonth),
+                        Integer.toString(endMonth)},
+                null, null, WeatherArchiveEntry.COLUMN_MONTH + " ASC");
+        try {
+            Object[] row = new Object[columns.length];
+            Object[] values = new Object[COLUMNS.length];
+            while (months.moveToNext()) {
+                for (ArchiveCodec.Day day : ArchiveCodec.decode(months.getBlob(0))) {
+                    long date = mTime.setJulianDay(day.mJulianDay);
+                    if (date < startDate || date >= endDate) {
+                        continue;
+                    }
+                    values[0] = date;
+                    values[1] = day.mDays;
+                    values[2] = day.mWeatherId;
+                    values[3] = day.mDescription;
+                    values[4] = day.mMin;
+                    values[5] = day.mMax;
+                    values[6] = day.mHumidity;
+                    values[7] = day.mPressure;
+                    values[8] = day.mWind;
+                    values[9] = day.mDegrees;
+                    for (int i = 0; i < indexes.length; i++) {
+                        row[i] = values[indexes[i]];
+                    }
+                    result.addRow(row);
+                }
+            }
+        } finally {
+            months.close();
+        }
+        return result;
+    }
+
+    // Adds the days to the ones already archived for the month.  A day archived again replaces
+    // the one archived before.
+    private void merge(SQLiteDatabase db, long locationId, int month,
+                       List<ArchiveCodec.Day> days) {
+        TreeMap<Integer, ArchiveCodec.Day> merged = new TreeMap<Integer, ArchiveCodec.Day>();
+        int resolution = 1;
+        Cursor stored = db.query(WeatherArchiveEntry.TABLE_NAME,
+                new String[]{WeatherArchiveEntry.COLUMN_RESOLUTION, WeatherArchiveEntry.COLUMN_DATA},
+                sLocationAndMonthSelection,
+                new String[]{Long.toString(locationId), Integer.toString(month)},
+                null, null, null);
+        try {
+            if (stored.moveToFirst()) {
+                resolution = stored.getInt(0);
+                for (ArchiveCodec.Day day : ArchiveCodec.decode(stored.getBlob(1))) {
+                    merged.put(day.mJulianDay, day);
+                }
+            }
+        } finally {
+            stored.close();
+        }
+        for (ArchiveCodec.Day day : days) {
+            merged.put(day.mJulianDay, day);
+        }
+        List<ArchiveCodec.Day> mergedDays = new ArrayList<ArchiveCodec.Day>(merged.values());
+        if (resolution > 1) {
+            // Days of a month that was already downsampled, archived late
+            mergedDays = downsample(mergedDays, resolution);
+        }
+        write(db, locationId, month, resolution, mergedDays);
+    }
+
+    private void downsampleExpired(SQLiteDatabase db, long locationId, int newestMonth) {
+        // year * 12 + month, so months can be counted back across years
+        int newest = newestMonth / 100 * 12 + newestMonth % 100 - 1;
+        int expired = newest - WeatherArchiveEntry.RETENTION_MONTHS;
+        int expiredMonth = expired / 12 * 100 + expired % 12 + 1;
+
+        Cursor cursor = db.query(WeatherArchiveEntry.TABLE_NAME,
+                new String[]{WeatherArchiveEntry.COLUMN_MONTH, WeatherArchiveEntry.COLUMN_DATA},
+                WeatherArchiveEntry.COLUMN_LOC_KEY + " = ? AND "
+                        + WeatherArchiveEntry.COLUMN_MONTH + " <= ? AND "
+                        + WeatherArchiveEntry.COLUMN_RESOLUTION + " = 1",
+                new String[]{Long.toString(locationId), Integer.toString(expiredMonth)},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                write(db, locationId, cursor.getInt(0), WeatherArchiveEntry.DOWNSAMPLED_DAYS,
+                        downsample(ArchiveCodec.decode(cursor.getBlob(1)),
+                                WeatherArchiveEntry.DOWNSAMPLED_DAYS));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Folds the days of a month into one row per period, counted from the first of the month.
+     * The temperatures are the extremes of the period and the other measurements its average,
+     * except for the weather and wind direction, which are those of the most common weather.
+     */
+    List<ArchiveCodec.Day> downsample(List<ArchiveCodec.Day> days, int periodDays) {
+        List<ArchiveCodec.Day> periods = new ArrayList<ArchiveCodec.Day>();
+        int i = 0;
+        while (i < days.size()) {
+            int period = getPeriod(days.get(i).mJulianDay, periodDays);
+            int end = i + 1;
+            while (end < days.size()
+                    && getPeriod(days.get(end).mJulianDay, periodDays) == period) {
+                end++;
+            }
+            periods.add(fold(days.subList(i, end)));
+            i = end;
+        }
+        return periods;
+    }
+
+    private static ArchiveCodec.Day fold(List<ArchiveCodec.Day> days) {
+        ArchiveCodec.Day first = days.get(0);
+        ArchiveCodec.Day last = days.get(days.size() - 1);
+        ArchiveCodec.Day folded = new ArchiveCodec.Day();
+        folded.mJulianDay = first.mJulianDay;
+        folded.mDays = last.mJulianDay + last.mDays - first.mJulianDay;
+        folded.mMin = first.mMin;
+        folded.mMax = first.mMax;
+
+        Map<Integer, Integer> weatherCounts = new HashMap<Integer, Integer>();
+        ArchiveCodec.Day typical = first;
+        int typicalCount = 0;
+        double humidity = 0, pressure = 0, wind = 0;
+        for (ArchiveCodec.Day day : days) {
+            folded.mMin = Math.min(folded.mMin, day.mMin);
+            folded.mMax = Math.max(folded.mMax, day.mMax);
+            humidity += day.mHumidity;
+            pressure += day.mPressure;
+            wind += day.mWind;
+            Integer count = weatherCounts.get(day.mWeatherId);
+            count = count == null ? 1 : count + 1;
+            weatherCounts.put(day.mWeatherId, count);
+            if (count > typicalCount) {
+                typical = day;
+                typicalCount = count;
+            }
+        }
+        folded.mHumidity = humidity / days.size();
+        folded.mPressure = pressure / days.size();
+        folded.mWind = wind / days.size();
+        folded.mWeatherId = typical.mWeatherId;
+        folded.mDescription = typical.mDescription;
+        // An average of directions means nothing: north-east and north-west aren't south
+        folded.mDegrees = typical.mDegrees;
+        return folded;
+    }
+
+    private static void write(SQLiteDatabase db, long locationId, int month, int resolution,
+                              List<ArchiveCodec.Day> days) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherArchiveEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherArchiveEntry.COLUMN_MONTH, month);
+        values.put(WeatherArchiveEntry.COLUMN_RESOLUTION, resolution);
+        values.put(WeatherArchiveEntry.COLUMN_DATA, ArchiveCodec.encode(days));
+        // Replaces the month's row, through the unique key
+        db.insertOrThrow(WeatherArchiveEntry.TABLE_NAME, null, values);
+    }
+
+    private int getJulianDay(long date) {
+        mTime.set(date);
+        return Time.getJulianDay(date, mTime.gmtoff);
+    }
+
+    // year * 100 + month, the month counted from 1
+    private int getMonth(int julianDay) {
+        mTime.setJulianDay(julianDay);
+        return mTime.year * 100 + mTime.month + 1;
+    }
+
+    // Which period of its month the day falls in
+    private int getPeriod(int julianDay, int periodDays) {
+        mTime.setJulianDay(julianDay);
+        return (mTime.monthDay - 1) / periodDays;
+    }
+
+    private static int indexOf(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
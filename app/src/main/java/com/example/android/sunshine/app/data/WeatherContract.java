@@ -43,6 +43,10 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+    public static final String PATH_HOURLY_WEATHER = "hourly_weather";
+    public static final String PATH_WEATHER_ARCHIVE = "weather_archive";
+    public static final String PATH_WEATHER_STATS = "weather_stats";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -126,10 +130,31 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameters asking for a window of the forecast, in days: at most limit of
+        // them, after skipping the first offset.  Without a sort order, days come by date.
+        public static final String PARAM_LIMIT = "limit";
+        public static final String PARAM_OFFSET = "offset";
+
+        // Query parameter of a delete which moves the rows into the archive instead of
+        // dropping them
+        public static final String PARAM_ARCHIVE = "archive";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        /**
+         * @return the uri to delete days gone by through, which keeps them in
+         * {@link WeatherArchiveEntry the archive}.
+         */
+        public static Uri buildWeatherArchivingUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_ARCHIVE, "true").build();
+        }
+
+        public static boolean isArchivingUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(PARAM_ARCHIVE));
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -144,6 +169,17 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /**
+         * @return the uri of at most limit days of the location's forecast, or all of them for
+         * a limit of 0, from startDate on, after skipping the first offset of them.
+         */
+        public static Uri buildWeatherLocationWithStartDate(
+                String locationSetting, long startDate, int offset, int limit) {
+            return buildWeatherLocationWithStartDate(locationSetting, startDate).buildUpon()
+                    .appendQueryParameter(PARAM_OFFSET, Integer.toString(offset))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -164,5 +200,291 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        // 0 when the uri asks for every day
+        public static int getLimitFromUri(Uri uri) {
+            return getCountFromUri(uri, PARAM_LIMIT);
+        }
+
+        public static int getOffsetFromUri(Uri uri) {
+            return getCountFromUri(uri, PARAM_OFFSET);
+        }
+
+        private static int getCountFromUri(Uri uri, String param) {
+            String countString = uri.getQueryParameter(param);
+            if (null != countString && countString.length() > 0)
+                return Math.max(0, Integer.parseInt(countString));
+            else
+                return 0;
+        }
+    }
+
+    /* Inner class that defines the table contents of the hourly weather table */
+    public static final class HourlyWeatherEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY_WEATHER).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY_WEATHER;
+
+        public static final String TABLE_NAME = "hourly_weather";
+
+        // The forecast comes in steps of 3 hours
+        public static final long PERIOD_MILLIS = 1000 * 60 * 60 * 3;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the 3 hour period, stored as long in milliseconds since the epoch.  Unlike
+        // the weather table's date, it is not normalized.
+        public static final String COLUMN_TIME = "time";
+        // Weather id as returned by API.  The description isn't stored, since it follows from
+        // the id anyway.
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        // Temperature over the period, stored as a float
+        public static final String COLUMN_TEMP = "temp";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // Query parameters bounding the time window, start inclusive and end exclusive
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        public static Uri buildHourlyWeatherUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        public static Uri buildHourlyWeatherLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyWeatherLocationWithRange(
+                String locationSetting, long startTime, long endTime) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(startTime))
+                    .appendQueryParameter(PARAM_END, Long.toString(endTime)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartTimeFromUri(Uri uri) {
+            return getTimeFromUri(uri, PARAM_START, 0);
+        }
+
+        public static long getEndTimeFromUri(Uri uri) {
+            return getTimeFromUri(uri, PARAM_END, Long.MAX_VALUE);
+        }
+
+        private static long getTimeFromUri(Uri uri, String param, long defaultTime) {
+            String timeString = uri.getQueryParameter(param);
+            if (null != timeString && timeString.length() > 0)
+                return Long.parseLong(timeString);
+            else
+                return defaultTime;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the weather archive table, which keeps the
+        days gone by.  Its rows are packed: one row holds a location's days of a whole month.
+        Querying a location unpacks them into one row per day, with the columns of the weather
+        table, plus the number of days each row stands for.
+     */
+    public static final class WeatherArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER_ARCHIVE;
+
+        public static final String TABLE_NAME = "weather_archive";
+
+        // Months are kept day by day for this long, counted back from the newest archived
+        // day.  Older months are downsampled to one row a week.
+        public static final int RETENTION_MONTHS = 3;
+        public static final int DOWNSAMPLED_DAYS = 7;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The month, as year * 100 + month, e.g. 201412 for December 2014
+        public static final String COLUMN_MONTH = "month";
+        // How many days each of the month's packed rows stands for
+        public static final String COLUMN_RESOLUTION = "resolution";
+        // The packed rows, see ArchiveCodec
+        public static final String COLUMN_DATA = "data";
+
+        // Column of the unpacked rows: how many days from the date on the row stands for.
+        // The temperatures are the lowest and highest of those days, the rest their average
+        // or, for the weather and the wind direction, those of the most common weather.
+        public static final String COLUMN_DAYS = "days";
+
+        // Query parameters bounding the dates read back, start inclusive and end exclusive
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        public static Uri buildWeatherArchiveLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildWeatherArchiveLocationWithRange(
+                String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(startDate))
+                    .appendQueryParameter(PARAM_END, Long.toString(endDate)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            return getDateFromUri(uri, PARAM_START, 0);
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            return getDateFromUri(uri, PARAM_END, Long.MAX_VALUE);
+        }
+
+        private static long getDateFromUri(Uri uri, String param, long defaultDate) {
+            String dateString = uri.getQueryParameter(param);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return defaultDate;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the weather stats table: the lowest and
+        highest temperatures, the averages and the warmest and coldest day of each location's
+        weeks and months, over the days the weather table holds and the days archived out of it.
+        Triggers on the weather table keep it up to date with every write, so reading the stats
+        of a period is one row.
+     */
+    public static final class WeatherStatsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER_STATS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER_STATS;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER_STATS;
+
+        public static final String TABLE_NAME = "weather_stats";
+        // The days archived out of the weather table that the stats go on counting, unpacked.
+        // Only the database reads it, so it has no URI.  Its columns are the weather table's.
+        public static final String ARCHIVED_TABLE_NAME = "weather_stats_archived";
+
+        // Weeks start on Monday.  Both start at midnight, local time, like the dates.
+        public static final String PERIOD_WEEK = "week";
+        public static final String PERIOD_MONTH = "month";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // PERIOD_WEEK or PERIOD_MONTH
+        public static final String COLUMN_PERIOD = "period";
+        // The dates the period runs from and up to, but not including, as long in milliseconds
+        public static final String COLUMN_START_DATE = "start_date";
+        public static final String COLUMN_END_DATE = "end_date";
+        // How many of the period's days are in the weather table, or were archived out of it
+        public static final String COLUMN_DAYS = "days";
+
+        // The lowest minimum and the highest maximum temperature of those days
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Averages over those days
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        // The days with the highest maximum and the lowest minimum, the earliest on a tie
+        public static final String COLUMN_WARMEST_DATE = "warmest_date";
+        public static final String COLUMN_COLDEST_DATE = "coldest_date";
+
+        // Query parameter picking the period a date falls in
+        public static final String PARAM_DATE = "date";
+
+        // Every week or month of the location, in date order
+        public static Uri buildWeatherStatsLocation(String locationSetting, String period) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(period).build();
+        }
+
+        // The week or month of the location the date falls in
+        public static Uri buildWeatherStatsLocationWithDate(
+                String locationSetting, String period, long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(period)
+                    .appendQueryParameter(PARAM_DATE, Long.toString(normalizeDate(date)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static String getPeriodFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
+        public static long getDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+    }
+
+    /* Inner class that defines the table contents of the sync metrics table */
+    public static final class SyncMetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+
+        public static final String TABLE_NAME = "sync_metrics";
+
+        // Only the most recent syncs are kept, older rows are deleted as new ones come in
+        public static final int MAX_ROWS = 100;
+
+        // When the sync started, stored as long in milliseconds since the epoch
+        public static final String COLUMN_START_TIME = "start_time";
+        // Wall clock time of the whole sync, in milliseconds
+        public static final String COLUMN_TOTAL_MILLIS = "total_millis";
+
+        // How many locations were asked for, and how many of those came back as 304
+        public static final String COLUMN_LOCATIONS = "locations";
+        public static final String COLUMN_NOT_MODIFIED = "not_modified";
+        public static final String COLUMN_FAILED = "failed";
+        // How many requests for a sync were merged into this one or the one before it, rather
+        // than each getting a sync of their own
+        public static final String COLUMN_MERGED_REQUESTS = "merged_requests";
+
+        // Time spent in each phase, in milliseconds.  Locations are fetched concurrently, so
+        // the fetch phases are summed over all of them and may add up to more than the total.
+        public static final String COLUMN_URL_BUILD_MILLIS = "url_build_millis";
+        public static final String COLUMN_CONNECT_MILLIS = "connect_millis";
+        public static final String COLUMN_DOWNLOAD_MILLIS = "download_millis";
+        public static final String COLUMN_PARSE_MILLIS = "parse_millis";
+        // The old-row delete is applied in the same transaction as the writes, so its time is
+        // part of the database write
+        public static final String COLUMN_DB_WRITE_MILLIS = "db_write_millis";
+        public static final String COLUMN_FAN_OUT_MILLIS = "fan_out_millis";
+
+        // Response bytes as they came off the network, before decompression
+        public static final String COLUMN_BYTES = "bytes";
+        public static final String COLUMN_ROWS_RECEIVED = "rows_received";
+        public static final String COLUMN_ROWS_CHANGED = "rows_changed";
+        public static final String COLUMN_ROWS_DELETED = "rows_deleted";
     }
 }
@@ -16,11 +16,17 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherArchiveEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherStatsEntry;
 
 /**
  * Manages a local database for weather data.
@@ -28,12 +34,52 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 9;
 
     static final String DATABASE_NAME = "weather.db";
 
+    static final String WEATHER_DATE_INDEX =
+            WeatherEntry.TABLE_NAME + "_" + WeatherEntry.COLUMN_DATE;
+
+    // How many pages the write-ahead log may grow to before a commit copies it back into the
+    // database.  This is SQLite's own default; Android lowers it to 100, which has the small
+    // writes in between syncs, the metrics and the pushed deltas, take turns paying for
+    // checkpoints.  At this size it is the sync's own commit that checkpoints, on the sync
+    // thread, and a sync's worth of rows fits in the log before then.
+    static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // For tests, which upgrade databases of their own
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        // The widgets, the notification, Muzei and the wearable all read while the sync
+        // writes.  With the write-ahead log they read the last commit from connections of
+        // their own, instead of queueing behind the sync's transaction.  The framework sizes
+        // the pool of those connections for the device.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()
+                && db.isWriteAheadLoggingEnabled()) {
+            // The setting belongs to a connection, and the one which commits is the one a
+            // transaction runs on
+            db.beginTransaction();
+            try {
+                DatabaseUtils.longForQuery(db,
+                        "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES, null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
     }
 
     @Override
@@ -75,24 +121,251 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
 
                 // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+                // per location, it's created a UNIQUE constraint with REPLACE strategy.
+                // Location comes first, so the index behind it also serves the forecast of
+                // one location from a date on, in date order.
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        // For deleting the days gone by of every location at once
+        final String SQL_CREATE_WEATHER_DATE_INDEX = "CREATE INDEX " + WEATHER_DATE_INDEX +
+                " ON " + WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_DATE + ");";
+
+        // Around 40 rows per location, so it's kept narrow: no description, and no
+        // AUTOINCREMENT, since nothing cares about the order rows were written in
+        final String SQL_CREATE_HOURLY_WEATHER_TABLE = "CREATE TABLE " + HourlyWeatherEntry.TABLE_NAME + " (" +
+                HourlyWeatherEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyWeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyWeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                // One row per period per location.  Location comes first, so the index
+                // behind the constraint also serves "this location, from then until then".
+                " UNIQUE (" + HourlyWeatherEntry.COLUMN_LOC_KEY + ", " +
+                HourlyWeatherEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
+        // One row per sync, written once and never updated
+        final String SQL_CREATE_SYNC_METRICS_TABLE = "CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                SyncMetricsEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_TOTAL_MILLIS + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_LOCATIONS + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_NOT_MODIFIED + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_FAILED + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_URL_BUILD_MILLIS + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_CONNECT_MILLIS + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_DOWNLOAD_MILLIS + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_PARSE_MILLIS + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_DB_WRITE_MILLIS + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_FAN_OUT_MILLIS + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_BYTES + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_ROWS_RECEIVED + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_ROWS_CHANGED + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_ROWS_DELETED + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_MERGED_REQUESTS + " INTEGER NOT NULL DEFAULT 0 " +
+                " );";
+
+        // One row per location and month of days gone by, packed by ArchiveCodec.  Location
+        // comes first in the key, so a location's months are read off it in order.
+        final String SQL_CREATE_WEATHER_ARCHIVE_TABLE = "CREATE TABLE " + WeatherArchiveEntry.TABLE_NAME + " (" +
+                WeatherArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+                WeatherArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherArchiveEntry.COLUMN_MONTH + " INTEGER NOT NULL, " +
+                WeatherArchiveEntry.COLUMN_RESOLUTION + " INTEGER NOT NULL, " +
+                WeatherArchiveEntry.COLUMN_DATA + " BLOB NOT NULL, " +
+
+                " FOREIGN KEY (" + WeatherArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + WeatherArchiveEntry.COLUMN_LOC_KEY + ", " +
+                WeatherArchiveEntry.COLUMN_MONTH + ") ON CONFLICT REPLACE);";
+
+        // One row per location and week, and per location and month, with a day in the weather
+        // table.  The triggers below keep it up to date as the weather table is written.
+        // Location comes first in the key, so a location's periods are read off it in order.
+        final String SQL_CREATE_WEATHER_STATS_TABLE = "CREATE TABLE " + WeatherStatsEntry.TABLE_NAME + " (" +
+                WeatherStatsEntry._ID + " INTEGER PRIMARY KEY," +
+                WeatherStatsEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherStatsEntry.COLUMN_PERIOD + " TEXT NOT NULL, " +
+                WeatherStatsEntry.COLUMN_START_DATE + " INTEGER NOT NULL, " +
+                WeatherStatsEntry.COLUMN_END_DATE + " INTEGER NOT NULL, " +
+                WeatherStatsEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                WeatherStatsEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherStatsEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherStatsEntry.COLUMN_AVG_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherStatsEntry.COLUMN_AVG_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherStatsEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherStatsEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherStatsEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherStatsEntry.COLUMN_WARMEST_DATE + " INTEGER NOT NULL, " +
+                WeatherStatsEntry.COLUMN_COLDEST_DATE + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + WeatherStatsEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + WeatherStatsEntry.COLUMN_LOC_KEY + ", " +
+                WeatherStatsEntry.COLUMN_PERIOD + ", " +
+                WeatherStatsEntry.COLUMN_START_DATE + "));";
+
+        // The days archived out of the weather table, as the stats read them.  The archive's
+        // months are packed, so the days the stats still need are kept here as well, and
+        // dropped once no period the weather table has days in can reach back to them.
+        final String SQL_CREATE_WEATHER_STATS_ARCHIVED_TABLE = "CREATE TABLE " + WeatherStatsEntry.ARCHIVED_TABLE_NAME + " (" +
+                WeatherEntry._ID + " INTEGER PRIMARY KEY," +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        final String SQL_CREATE_WEATHER_STATS_INSERT_TRIGGER = "CREATE TRIGGER " +
+                WeatherStatsEntry.TABLE_NAME + "_insert AFTER INSERT ON " +
+                WeatherEntry.TABLE_NAME +
+                " BEGIN " + getRefreshStatsSql("NEW") + "END;";
+        final String SQL_CREATE_WEATHER_STATS_UPDATE_TRIGGER = "CREATE TRIGGER " +
+                WeatherStatsEntry.TABLE_NAME + "_update AFTER UPDATE ON " +
+                WeatherEntry.TABLE_NAME +
+                " BEGIN " + getRefreshStatsSql("NEW") + "END;";
+        // The sync updates rows in place, so only a row moved to another day or location has
+        // the periods it left recomputed too
+        final String SQL_CREATE_WEATHER_STATS_MOVE_TRIGGER = "CREATE TRIGGER " +
+                WeatherStatsEntry.TABLE_NAME + "_move AFTER UPDATE OF " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE +
+                " ON " + WeatherEntry.TABLE_NAME +
+                " WHEN OLD." + WeatherEntry.COLUMN_LOC_KEY + " != NEW." + WeatherEntry.COLUMN_LOC_KEY +
+                " OR OLD." + WeatherEntry.COLUMN_DATE + " != NEW." + WeatherEntry.COLUMN_DATE +
+                " BEGIN " + getRefreshStatsSql("OLD") + "END;";
+        final String SQL_CREATE_WEATHER_STATS_DELETE_TRIGGER = "CREATE TRIGGER " +
+                WeatherStatsEntry.TABLE_NAME + "_delete AFTER DELETE ON " +
+                WeatherEntry.TABLE_NAME +
+                " BEGIN " + getRefreshStatsSql("OLD") + "END;";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_ARCHIVE_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_STATS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_STATS_ARCHIVED_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_STATS_INSERT_TRIGGER);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_STATS_UPDATE_TRIGGER);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_STATS_MOVE_TRIGGER);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_STATS_DELETE_TRIGGER);
+    }
+
+    // Recomputes the week and the month of a weather row, NEW or OLD, from the days stored for
+    // them.  Recomputing instead of adding the row in or taking it out keeps the lowest and the
+    // highest right when the row that held them goes.  It also covers REPLACE, which deletes
+    // the row in the way without firing the delete trigger: the row taking its place is in the
+    // same period.  Archiving deletes rows too, so the days archived are read back from the
+    // table kept for the stats, and the period stays the same.
+    private static String getRefreshStatsSql(String row) {
+        return getRefreshStatsSql(row, WeatherStatsEntry.PERIOD_WEEK,
+                "'-6 days', 'weekday 1'", "'+7 days'")
+                + getRefreshStatsSql(row, WeatherStatsEntry.PERIOD_MONTH,
+                "'start of month'", "'+1 month'");
+    }
+
+    private static String getRefreshStatsSql(String row, String period, String toStart,
+                                             String toEnd) {
+        String locationId = row + "." + WeatherEntry.COLUMN_LOC_KEY;
+        // Dates are local midnights, so the period is worked out in local time, and its first
+        // day and the day after its last turned back into milliseconds
+        String localDay = "strftime('%s', " + row + "." + WeatherEntry.COLUMN_DATE +
+                " / 1000, 'unixepoch', 'localtime', 'start of day', " + toStart;
+        String startDate = "(" + localDay + ", 'utc') * 1000)";
+        String endDate = "(" + localDay + ", " + toEnd + ", 'utc') * 1000)";
+        String columns = WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED;
+        String inPeriod = " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = " + locationId +
+                " AND " + WeatherEntry.COLUMN_DATE + " >= " + startDate +
+                " AND " + WeatherEntry.COLUMN_DATE + " < " + endDate;
+        // Read through the keys of both tables, at most a month of rows.  A day archived and
+        // then written to the weather table again counts once, as it is there.
+        String days = " FROM (SELECT " + columns + " FROM " + WeatherEntry.TABLE_NAME + inPeriod +
+                " UNION ALL SELECT " + columns + " FROM " + WeatherStatsEntry.ARCHIVED_TABLE_NAME +
+                inPeriod + " AND NOT EXISTS (SELECT 1 FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = " +
+                WeatherStatsEntry.ARCHIVED_TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY +
+                " AND " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " = " +
+                WeatherStatsEntry.ARCHIVED_TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + "))";
+
+        return "DELETE FROM " + WeatherStatsEntry.TABLE_NAME +
+                " WHERE " + WeatherStatsEntry.COLUMN_LOC_KEY + " = " + locationId +
+                " AND " + WeatherStatsEntry.COLUMN_PERIOD + " = '" + period + "'" +
+                " AND " + WeatherStatsEntry.COLUMN_START_DATE + " = " + startDate +
+                "; " +
+                // Nothing, rather than a row of nulls, once the period has no days left
+                "INSERT INTO " + WeatherStatsEntry.TABLE_NAME + " (" +
+                WeatherStatsEntry.COLUMN_LOC_KEY + ", " +
+                WeatherStatsEntry.COLUMN_PERIOD + ", " +
+                WeatherStatsEntry.COLUMN_START_DATE + ", " +
+                WeatherStatsEntry.COLUMN_END_DATE + ", " +
+                WeatherStatsEntry.COLUMN_DAYS + ", " +
+                WeatherStatsEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherStatsEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherStatsEntry.COLUMN_AVG_MIN_TEMP + ", " +
+                WeatherStatsEntry.COLUMN_AVG_MAX_TEMP + ", " +
+                WeatherStatsEntry.COLUMN_HUMIDITY + ", " +
+                WeatherStatsEntry.COLUMN_PRESSURE + ", " +
+                WeatherStatsEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherStatsEntry.COLUMN_WARMEST_DATE + ", " +
+                WeatherStatsEntry.COLUMN_COLDEST_DATE + ") " +
+                "SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", '" + period + "', " +
+                startDate + ", " + endDate + ", count(*), " +
+                "min(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+                "max(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+                "avg(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+                "avg(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+                "avg(" + WeatherEntry.COLUMN_HUMIDITY + "), " +
+                "avg(" + WeatherEntry.COLUMN_PRESSURE + "), " +
+                "avg(" + WeatherEntry.COLUMN_WIND_SPEED + "), " +
+                "(SELECT " + WeatherEntry.COLUMN_DATE + days + " ORDER BY " +
+                WeatherEntry.COLUMN_MAX_TEMP + " DESC, " + WeatherEntry.COLUMN_DATE +
+                " LIMIT 1), " +
+                "(SELECT " + WeatherEntry.COLUMN_DATE + days + " ORDER BY " +
+                WeatherEntry.COLUMN_MIN_TEMP + " ASC, " + WeatherEntry.COLUMN_DATE +
+                " LIMIT 1)" +
+                days + " GROUP BY " + WeatherEntry.COLUMN_LOC_KEY + "; ";
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // Schema changes are made by the migrations in WeatherDbMigrations, so that an upgrade
+        // keeps the forecast instead of waiting for the next sync to download it again.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (WeatherDbMigrations.migrate(sqLiteDatabase, oldVersion, newVersion)) {
+            return;
+        }
+        // Versions too old to migrate from were only ever a cache of online data, so they are
+        // discarded and started over, as they always were
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncMetricsEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyWeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherArchiveEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherStatsEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherStatsEntry.ARCHIVED_TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherStatsEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Upgrades the database one version at a time, keeping its rows.
+ * <p/>
+ * Every schema change comes with a {@link Migration} from the version before it.  A migration
+ * describes the change as it was made and must not be edited afterwards, even when the table it
+ * touches changes again: a later change is a later migration.  That is why the statements here
+ * are spelled out rather than shared with {@link WeatherDbHelper#onCreate}.
+ */
+class WeatherDbMigrations {
+    private static final String LOG_TAG = WeatherDbMigrations.class.getSimpleName();
+
+    /**
+     * The oldest version that can still be upgraded.  Anything older was only ever a cache that
+     * got dropped on upgrade, and is dropped again.
+     */
+    static final int MIN_VERSION = 2;
+
+    /**
+     * Changes the schema from {@link #getFromVersion()} to the version after it.
+     */
+    abstract static class Migration {
+        private final int mFromVersion;
+
+        Migration(int fromVersion) {
+            mFromVersion = fromVersion;
+        }
+
+        int getFromVersion() {
+            return mFromVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // In order, one per version from MIN_VERSION on
+    static final Migration[] MIGRATIONS = {
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                            SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            SyncMetricsEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_TOTAL_MILLIS + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_LOCATIONS + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_NOT_MODIFIED + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_FAILED + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_URL_BUILD_MILLIS + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_CONNECT_MILLIS + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_DOWNLOAD_MILLIS + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_PARSE_MILLIS + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_DB_WRITE_MILLIS + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_FAN_OUT_MILLIS + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_BYTES + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_ROWS_RECEIVED + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_ROWS_CHANGED + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_ROWS_DELETED + " INTEGER NOT NULL " +
+                            " );");
+                }
+            },
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + HourlyWeatherEntry.TABLE_NAME + " (" +
+                            HourlyWeatherEntry._ID + " INTEGER PRIMARY KEY," +
+                            HourlyWeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            HourlyWeatherEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                            HourlyWeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                            HourlyWeatherEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                            HourlyWeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                            HourlyWeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                            HourlyWeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                            HourlyWeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                            " FOREIGN KEY (" + HourlyWeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + HourlyWeatherEntry.COLUMN_LOC_KEY + ", " +
+                            HourlyWeatherEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);");
+                }
+            },
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // The unique key was (date, location_id), so looking up a location's
+                    // forecast went through every date.  A key can't be changed in place.
+                    rebuildTable(db, WeatherEntry.TABLE_NAME,
+                            "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+                            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+                    db.execSQL("CREATE INDEX " + WeatherEntry.TABLE_NAME + "_" +
+                            WeatherEntry.COLUMN_DATE + " ON " + WeatherEntry.TABLE_NAME +
+                            " (" + WeatherEntry.COLUMN_DATE + ");");
+                }
+            },
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Days gone by were deleted until now, so there is nothing to archive
+                    db.execSQL("CREATE TABLE " + WeatherArchiveEntry.TABLE_NAME + " (" +
+                            WeatherArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+                            WeatherArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            WeatherArchiveEntry.COLUMN_MONTH + " INTEGER NOT NULL, " +
+                            WeatherArchiveEntry.COLUMN_RESOLUTION + " INTEGER NOT NULL, " +
+                            WeatherArchiveEntry.COLUMN_DATA + " BLOB NOT NULL, " +
+                            " FOREIGN KEY (" + WeatherArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + WeatherArchiveEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherArchiveEntry.COLUMN_MONTH + ") ON CONFLICT REPLACE);");
+                }
+            },
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + WeatherStatsEntry.TABLE_NAME + " (" +
+                            WeatherStatsEntry._ID + " INTEGER PRIMARY KEY," +
+                            WeatherStatsEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_PERIOD + " TEXT NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_START_DATE + " INTEGER NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_END_DATE + " INTEGER NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_AVG_MIN_TEMP + " REAL NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_AVG_MAX_TEMP + " REAL NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_WARMEST_DATE + " INTEGER NOT NULL, " +
+                            WeatherStatsEntry.COLUMN_COLDEST_DATE + " INTEGER NOT NULL, " +
+                            " FOREIGN KEY (" + WeatherStatsEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + WeatherStatsEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherStatsEntry.COLUMN_PERIOD + ", " +
+                            WeatherStatsEntry.COLUMN_START_DATE + "));");
+                    db.execSQL("CREATE TRIGGER " + WeatherStatsEntry.TABLE_NAME +
+                            "_insert AFTER INSERT ON " + WeatherEntry.TABLE_NAME +
+                            " BEGIN " + getRefreshStatsSql("NEW") + "END;");
+                    db.execSQL("CREATE TRIGGER " + WeatherStatsEntry.TABLE_NAME +
+                            "_update AFTER UPDATE ON " + WeatherEntry.TABLE_NAME +
+                            " BEGIN " + getRefreshStatsSql("NEW") + "END;");
+                    db.execSQL("CREATE TRIGGER " + WeatherStatsEntry.TABLE_NAME +
+                            "_move AFTER UPDATE OF " +
+                            WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE +
+                            " ON " + WeatherEntry.TABLE_NAME +
+                            " WHEN OLD." + WeatherEntry.COLUMN_LOC_KEY + " != NEW." +
+                            WeatherEntry.COLUMN_LOC_KEY +
+                            " OR OLD." + WeatherEntry.COLUMN_DATE + " != NEW." +
+                            WeatherEntry.COLUMN_DATE +
+                            " BEGIN " + getRefreshStatsSql("OLD") + "END;");
+                    db.execSQL("CREATE TRIGGER " + WeatherStatsEntry.TABLE_NAME +
+                            "_delete AFTER DELETE ON " + WeatherEntry.TABLE_NAME +
+                            " BEGIN " + getRefreshStatsSql("OLD") + "END;");
+                    // Fills the table from the forecast already stored, through the trigger
+                    db.execSQL("UPDATE " + WeatherEntry.TABLE_NAME + " SET " +
+                            WeatherEntry.COLUMN_DATE + " = " + WeatherEntry.COLUMN_DATE);
+                }
+
+                // The triggers' statements as WeatherDbHelper built them at version 7, the
+                // version this migration goes to
+                private String getRefreshStatsSql(String row) {
+                    return getRefreshStatsSql(row, WeatherStatsEntry.PERIOD_WEEK,
+                            "'-6 days', 'weekday 1'", "'+7 days'")
+                            + getRefreshStatsSql(row, WeatherStatsEntry.PERIOD_MONTH,
+                            "'start of month'", "'+1 month'");
+                }
+
+                private String getRefreshStatsSql(String row, String period, String toStart,
+                                                  String toEnd) {
+                    String locationId = row + "." + WeatherEntry.COLUMN_LOC_KEY;
+                    // Dates are local midnights, so the period is worked out in local time,
+                    // and its first day and the day after its last turned back into milliseconds
+                    String localDay = "strftime('%s', " + row + "." + WeatherEntry.COLUMN_DATE +
+                            " / 1000, 'unixepoch', 'localtime', 'start of day', " + toStart;
+                    String startDate = "(" + localDay + ", 'utc') * 1000)";
+                    String endDate = "(" + localDay + ", " + toEnd + ", 'utc') * 1000)";
+                    // Read through the weather table's key, at most a month of rows
+                    String days = " FROM " + WeatherEntry.TABLE_NAME +
+                            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = " + locationId +
+                            " AND " + WeatherEntry.COLUMN_DATE + " >= " + startDate +
+                            " AND " + WeatherEntry.COLUMN_DATE + " < " + endDate;
+
+                    return "DELETE FROM " + WeatherStatsEntry.TABLE_NAME +
+                            " WHERE " + WeatherStatsEntry.COLUMN_LOC_KEY + " = " + locationId +
+                            " AND " + WeatherStatsEntry.COLUMN_PERIOD + " = '" + period + "'" +
+                            " AND " + WeatherStatsEntry.COLUMN_START_DATE + " = " + startDate +
+                            "; " +
+                            // Nothing, rather than a row of nulls, once the period has no days left
+                            "INSERT INTO " + WeatherStatsEntry.TABLE_NAME + " (" +
+                            WeatherStatsEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherStatsEntry.COLUMN_PERIOD + ", " +
+                            WeatherStatsEntry.COLUMN_START_DATE + ", " +
+                            WeatherStatsEntry.COLUMN_END_DATE + ", " +
+                            WeatherStatsEntry.COLUMN_DAYS + ", " +
+                            WeatherStatsEntry.COLUMN_MIN_TEMP + ", " +
+                            WeatherStatsEntry.COLUMN_MAX_TEMP + ", " +
+                            WeatherStatsEntry.COLUMN_AVG_MIN_TEMP + ", " +
+                            WeatherStatsEntry.COLUMN_AVG_MAX_TEMP + ", " +
+                            WeatherStatsEntry.COLUMN_HUMIDITY + ", " +
+                            WeatherStatsEntry.COLUMN_PRESSURE + ", " +
+                            WeatherStatsEntry.COLUMN_WIND_SPEED + ", " +
+                            WeatherStatsEntry.COLUMN_WARMEST_DATE + ", " +
+                            WeatherStatsEntry.COLUMN_COLDEST_DATE + ") " +
+                            "SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", '" + period + "', " +
+                            startDate + ", " + endDate + ", count(*), " +
+                            "min(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+                            "max(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+                            "avg(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+                            "avg(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+                            "avg(" + WeatherEntry.COLUMN_HUMIDITY + "), " +
+                            "avg(" + WeatherEntry.COLUMN_PRESSURE + "), " +
+                            "avg(" + WeatherEntry.COLUMN_WIND_SPEED + "), " +
+                            "(SELECT " + WeatherEntry.COLUMN_DATE + days + " ORDER BY " +
+                            WeatherEntry.COLUMN_MAX_TEMP + " DESC, " + WeatherEntry.COLUMN_DATE +
+                            " LIMIT 1), " +
+                            "(SELECT " + WeatherEntry.COLUMN_DATE + days + " ORDER BY " +
+                            WeatherEntry.COLUMN_MIN_TEMP + " ASC, " + WeatherEntry.COLUMN_DATE +
+                            " LIMIT 1)" +
+                            days + " GROUP BY " + WeatherEntry.COLUMN_LOC_KEY + "; ";
+                }
+            },
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Earlier syncs didn't merge requests, or didn't count them
+                    db.execSQL("ALTER TABLE " + SyncMetricsEntry.TABLE_NAME +
+                            " ADD COLUMN " + SyncMetricsEntry.COLUMN_MERGED_REQUESTS +
+                            " INTEGER NOT NULL DEFAULT 0");
+                }
+            },
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + WeatherStatsEntry.ARCHIVED_TABLE_NAME + " (" +
+                            WeatherEntry._ID + " INTEGER PRIMARY KEY," +
+                            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+                    // The stats of days archived before now stay as they are, without them
+                    db.execSQL("DROP TRIGGER " + WeatherStatsEntry.TABLE_NAME + "_insert");
+                    db.execSQL("DROP TRIGGER " + WeatherStatsEntry.TABLE_NAME + "_update");
+                    db.execSQL("DROP TRIGGER " + WeatherStatsEntry.TABLE_NAME + "_move");
+                    db.execSQL("DROP TRIGGER " + WeatherStatsEntry.TABLE_NAME + "_delete");
+                    db.execSQL("CREATE TRIGGER " + WeatherStatsEntry.TABLE_NAME +
+                            "_insert AFTER INSERT ON " + WeatherEntry.TABLE_NAME +
+                            " BEGIN " + getRefreshStatsSql("NEW") + "END;");
+                    db.execSQL("CREATE TRIGGER " + WeatherStatsEntry.TABLE_NAME +
+                            "_update AFTER UPDATE ON " + WeatherEntry.TABLE_NAME +
+                            " BEGIN " + getRefreshStatsSql("NEW") + "END;");
+                    db.execSQL("CREATE TRIGGER " + WeatherStatsEntry.TABLE_NAME +
+                            "_move AFTER UPDATE OF " +
+                            WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE +
+                            " ON " + WeatherEntry.TABLE_NAME +
+                            " WHEN OLD." + WeatherEntry.COLUMN_LOC_KEY + " != NEW." +
+                            WeatherEntry.COLUMN_LOC_KEY +
+                            " OR OLD." + WeatherEntry.COLUMN_DATE + " != NEW." +
+                            WeatherEntry.COLUMN_DATE +
+                            " BEGIN " + getRefreshStatsSql("OLD") + "END;");
+                    db.execSQL("CREATE TRIGGER " + WeatherStatsEntry.TABLE_NAME +
+                            "_delete AFTER DELETE ON " + WeatherEntry.TABLE_NAME +
+                            " BEGIN " + getRefreshStatsSql("OLD") + "END;");
+                }
+
+                // The triggers' statements as WeatherDbHelper built them at version 9, reading
+                // the archived days as well
+                private String getRefreshStatsSql(String row) {
+                    return getRefreshStatsSql(row, WeatherStatsEntry.PERIOD_WEEK,
+                            "'-6 days', 'weekday 1'", "'+7 days'")
+                            + getRefreshStatsSql(row, WeatherStatsEntry.PERIOD_MONTH,
+                            "'start of month'", "'+1 month'");
+                }
+
+                private String getRefreshStatsSql(String row, String period, String toStart,
+                                                  String toEnd) {
+                    String locationId = row + "." + WeatherEntry.COLUMN_LOC_KEY;
+                    String localDay = "strftime('%s', " + row + "." + WeatherEntry.COLUMN_DATE +
+                            " / 1000, 'unixepoch', 'localtime', 'start of day', " + toStart;
+                    String startDate = "(" + localDay + ", 'utc') * 1000)";
+                    String endDate = "(" + localDay + ", " + toEnd + ", 'utc') * 1000)";
+                    String columns = WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ", " +
+                            WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP +
+                            ", " + WeatherEntry.COLUMN_HUMIDITY + ", " +
+                            WeatherEntry.COLUMN_PRESSURE + ", " + WeatherEntry.COLUMN_WIND_SPEED;
+                    String inPeriod = " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = " +
+                            locationId +
+                            " AND " + WeatherEntry.COLUMN_DATE + " >= " + startDate +
+                            " AND " + WeatherEntry.COLUMN_DATE + " < " + endDate;
+                    String days = " FROM (SELECT " + columns + " FROM " +
+                            WeatherEntry.TABLE_NAME + inPeriod +
+                            " UNION ALL SELECT " + columns + " FROM " +
+                            WeatherStatsEntry.ARCHIVED_TABLE_NAME +
+                            inPeriod + " AND NOT EXISTS (SELECT 1 FROM " +
+                            WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.TABLE_NAME + "." +
+                            WeatherEntry.COLUMN_LOC_KEY + " = " +
+                            WeatherStatsEntry.ARCHIVED_TABLE_NAME + "." +
+                            WeatherEntry.COLUMN_LOC_KEY + " AND " + WeatherEntry.TABLE_NAME + "." +
+                            WeatherEntry.COLUMN_DATE + " = " +
+                            WeatherStatsEntry.ARCHIVED_TABLE_NAME + "." +
+                            WeatherEntry.COLUMN_DATE + "))";
+
+                    return "DELETE FROM " + WeatherStatsEntry.TABLE_NAME +
+                            " WHERE " + WeatherStatsEntry.COLUMN_LOC_KEY + " = " + locationId +
+                            " AND " + WeatherStatsEntry.COLUMN_PERIOD + " = '" + period + "'" +
+                            " AND " + WeatherStatsEntry.COLUMN_START_DATE + " = " + startDate +
+                            "; " +
+                            "INSERT INTO " + WeatherStatsEntry.TABLE_NAME + " (" +
+                            WeatherStatsEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherStatsEntry.COLUMN_PERIOD + ", " +
+                            WeatherStatsEntry.COLUMN_START_DATE + ", " +
+                            WeatherStatsEntry.COLUMN_END_DATE + ", " +
+                            WeatherStatsEntry.COLUMN_DAYS + ", " +
+                            WeatherStatsEntry.COLUMN_MIN_TEMP + ", " +
+                            WeatherStatsEntry.COLUMN_MAX_TEMP + ", " +
+                            WeatherStatsEntry.COLUMN_AVG_MIN_TEMP + ", " +
+                            WeatherStatsEntry.COLUMN_AVG_MAX_TEMP + ", " +
+                            WeatherStatsEntry.COLUMN_HUMIDITY + ", " +
+                            WeatherStatsEntry.COLUMN_PRESSURE + ", " +
+                            WeatherStatsEntry.COLUMN_WIND_SPEED + ", " +
+                            WeatherStatsEntry.COLUMN_WARMEST_DATE + ", " +
+                            WeatherStatsEntry.COLUMN_COLDEST_DATE + ") " +
+                            "SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", '" + period + "', " +
+                            startDate + ", " + endDate + ", count(*), " +
+                            "min(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+                            "max(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+                            "avg(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+                            "avg(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+                            "avg(" + WeatherEntry.COLUMN_HUMIDITY + "), " +
+                            "avg(" + WeatherEntry.COLUMN_PRESSURE + "), " +
+                            "avg(" + WeatherEntry.COLUMN_WIND_SPEED + "), " +
+                            "(SELECT " + WeatherEntry.COLUMN_DATE + days + " ORDER BY " +
+                            WeatherEntry.COLUMN_MAX_TEMP + " DESC, " + WeatherEntry.COLUMN_DATE +
+                            " LIMIT 1), " +
+                            "(SELECT " + WeatherEntry.COLUMN_DATE + days + " ORDER BY " +
+                            WeatherEntry.COLUMN_MIN_TEMP + " ASC, " + WeatherEntry.COLUMN_DATE +
+                            " LIMIT 1)" +
+                            days + " GROUP BY " + WeatherEntry.COLUMN_LOC_KEY + "; ";
+                }
+            },
+    };
+
+    /**
+     * Runs the migrations from oldVersion up to newVersion, each in a transaction of its own.
+     *
+     * @return false if some version on the way has no migration, in which case nothing was run.
+     */
+    static boolean migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        List<Migration> path = getPath(oldVersion, newVersion);
+        if (path == null) {
+            return false;
+        }
+        for (Migration migration : path) {
+            long start = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.i(LOG_TAG, "Upgraded the database from version " + migration.getFromVersion()
+                    + " in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+        return true;
+    }
+
+    private static List<Migration> getPath(int oldVersion, int newVersion) {
+        if (oldVersion < MIN_VERSION) {
+            return null;
+        }
+        List<Migration> path = new ArrayList<Migration>();
+        for (Migration migration : MIGRATIONS) {
+            int from = migration.getFromVersion();
+            if (from >= oldVersion && from < newVersion) {
+                if (from != oldVersion + path.size()) {
+                    return null;
+                }
+                path.add(migration);
+            }
+        }
+        return oldVersion + path.size() == newVersion ? path : null;
+    }
+
+    /**
+     * Recreates a table from a new CREATE TABLE statement and copies its rows across, for the
+     * changes ALTER TABLE can't make, like constraints or column types.  Columns which are in both
+     * the old and the new table keep their values.  Indexes and triggers on the table are dropped
+     * with it, so they have to be created again afterwards.
+     */
+    static void rebuildTable(SQLiteDatabase db, String table, String createTableSql) {
+        String oldTable = table + "_old";
+        // Otherwise newer SQLite versions point the foreign keys of other tables at the
+        // renamed table, which is about to be dropped
+        db.execSQL("PRAGMA legacy_alter_table = ON");
+        try {
+            db.execSQL("ALTER TABLE " + table + " RENAME TO " + oldTable);
+        } finally {
+            db.execSQL("PRAGMA legacy_alter_table = OFF");
+        }
+        db.execSQL(createTableSql);
+
+        List<String> columns = getColumns(db, table);
+        columns.retainAll(getColumns(db, oldTable));
+        String columnList = TextUtils.join(", ", columns);
+        db.execSQL("INSERT INTO " + table + " (" + columnList + ") SELECT " + columnList
+                + " FROM " + oldTable);
+        db.execSQL("DROP TABLE " + oldTable);
+    }
+
+    static List<String> getColumns(SQLiteDatabase db, String table) {
+        List<String> columns = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+}
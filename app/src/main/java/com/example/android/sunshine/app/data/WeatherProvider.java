@@ -17,39 +17,105 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // What the applyBatch running on the current thread has deferred, if there is one
+    private static class BatchState {
+        final Set<Uri> mNotifications = new LinkedHashSet<Uri>();
+        boolean mLastInsertUnchanged;
+        // Made on the first row written, since a batch may not write any
+        BulkWriter mWriter;
+        // Only dropped from the cache once the batch has been committed
+        final QueryCache.Changes mCacheChanges = new QueryCache.Changes();
+        // The location settings behind the location IDs the batch has written rows for
+        final Map<Long, String> mLocationSettings = new HashMap<Long, String>();
+
+        BulkWriter getWriter(SQLiteDatabase db) {
+            if (mWriter == null) {
+                mWriter = new BulkWriter(db);
+            }
+            return mWriter;
+        }
+    }
+
+    private final ThreadLocal<BatchState> mBatchState = new ThreadLocal<BatchState>();
+    private final AtomicInteger mWriteTransactionCount = new AtomicInteger();
+    private final QueryCache mQueryCache = new QueryCache();
+
+    // A write touching more URIs than this notifies the whole tables it wrote to, rather than
+    // sending that many notifications one by one
+    private static final int MAX_NOTIFICATIONS = 64;
+
+    // Selects the location setting of a weather or hourly row
+    private static final String sLocationSettingOfRow = "(SELECT "
+            + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " FROM "
+            + WeatherContract.LocationEntry.TABLE_NAME + " WHERE "
+            + WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID
+            + " = " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ")";
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int SYNC_METRICS = 400;
+    static final int HOURLY_WEATHER = 500;
+    static final int HOURLY_WEATHER_WITH_LOCATION = 501;
+    static final int WEATHER_ARCHIVE = 600;
+    static final int WEATHER_ARCHIVE_WITH_LOCATION = 601;
+    static final int WEATHER_STATS = 700;
+    static final int WEATHER_STATS_WITH_LOCATION_AND_PERIOD = 701;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    //This is an inner join which looks like
+    //weather INNER JOIN location ON weather.location_id = location._id
+    private static final String sWeatherByLocationSettingTables =
+            WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
 
-    static{
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        
-        //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
-                        WeatherContract.LocationEntry.TABLE_NAME +
-                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
-                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
-    }
+    //hourly_weather INNER JOIN location ON hourly_weather.location_id = location._id
+    private static final String sHourlyWeatherByLocationSettingTables =
+            WeatherContract.HourlyWeatherEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.HourlyWeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.HourlyWeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
+
+    //weather_stats INNER JOIN location ON weather_stats.location_id = location._id
+    private static final String sWeatherStatsByLocationSettingTables =
+            WeatherContract.WeatherStatsEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.WeatherStatsEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherStatsEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
 
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
@@ -68,7 +134,81 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+    //location.location_setting = ? AND time >= ? AND time < ?
+    private static final String sLocationSettingWithTimeRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyWeatherEntry.COLUMN_TIME + " >= ? AND " +
+                    WeatherContract.HourlyWeatherEntry.COLUMN_TIME + " < ? ";
+
+    //location.location_setting = ? AND period = ?
+    private static final String sLocationSettingAndPeriodSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherStatsEntry.COLUMN_PERIOD + " = ? ";
+
+    //location.location_setting = ? AND period = ? AND start_date <= ? AND end_date > ?
+    private static final String sLocationSettingAndPeriodOfDateSelection =
+            sLocationSettingAndPeriodSelection + "AND " +
+                    WeatherContract.WeatherStatsEntry.COLUMN_START_DATE + " <= ? AND " +
+                    WeatherContract.WeatherStatsEntry.COLUMN_END_DATE + " > ? ";
+
+    //date = ? AND location_id = ?
+    private static final String sDateAndLocationIdSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    /**
+     * What query() asks the database for, once the uri has been taken apart.  Tests ask SQLite
+     * how it plans these, to catch a query that no longer finds its rows through an index.
+     */
+    static final class RouteQuery {
+        final String mTables;
+        final String mSelection;
+        final String[] mSelectionArgs;
+        final String mSortOrder;
+        // "offset,limit", or null for every row
+        final String mLimit;
+
+        RouteQuery(String tables, String selection, String[] selectionArgs, String sortOrder) {
+            this(tables, selection, selectionArgs, sortOrder, null);
+        }
+
+        RouteQuery(String tables, String selection, String[] selectionArgs, String sortOrder,
+                   String limit) {
+            mTables = tables;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+            mLimit = limit;
+        }
+
+        Cursor query(SQLiteDatabase db, String[] projection) {
+            return db.query(mTables, projection, mSelection, mSelectionArgs, null, null,
+                    mSortOrder, mLimit);
+        }
+
+        String toSql(String[] projection) {
+            return SQLiteQueryBuilder.buildQueryString(false, mTables, projection, mSelection,
+                    null, null, mSortOrder, mLimit);
+        }
+    }
+
+    /**
+     * @return the LIMIT clause for the window of days the uri asks for, or null if it asks for
+     * all of them.
+     */
+    private static String getLimit(Uri uri) {
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
+        int offset = WeatherContract.WeatherEntry.getOffsetFromUri(uri);
+        if (limit == 0 && offset == 0) {
+            return null;
+        }
+        // SQLite only skips rows under a limit, so an offset alone comes with the largest one
+        return offset + "," + (limit == 0 ? Long.MAX_VALUE : limit);
+    }
+
+    private static RouteQuery getWeatherByLocationSetting(Uri uri, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
@@ -83,29 +223,112 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        String limit = getLimit(uri);
+        if (limit != null && sortOrder == null) {
+            // A window needs an order to be cut from.  The date is the order of the key, so
+            // the rows are read off the index in this order and the scan stops at the limit.
+            sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        }
+        return new RouteQuery(sWeatherByLocationSettingTables, selection, selectionArgs,
+                sortOrder, limit);
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
-            Uri uri, String[] projection, String sortOrder) {
+    private static RouteQuery getWeatherByLocationSettingAndDate(Uri uri, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
+        return new RouteQuery(sWeatherByLocationSettingTables,
                 sLocationSettingAndDaySelection,
                 new String[]{locationSetting, Long.toString(date)},
-                null,
-                null,
-                sortOrder
-        );
+                sortOrder);
+    }
+
+    private static RouteQuery getHourlyWeatherByLocationSetting(Uri uri, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyWeatherEntry.getLocationSettingFromUri(uri);
+        long startTime = WeatherContract.HourlyWeatherEntry.getStartTimeFromUri(uri);
+        long endTime = WeatherContract.HourlyWeatherEntry.getEndTimeFromUri(uri);
+
+        if (sortOrder == null) {
+            sortOrder = WeatherContract.HourlyWeatherEntry.COLUMN_TIME + " ASC";
+        }
+        return new RouteQuery(sHourlyWeatherByLocationSettingTables,
+                sLocationSettingWithTimeRangeSelection,
+                new String[]{locationSetting, Long.toString(startTime), Long.toString(endTime)},
+                sortOrder);
+    }
+
+    private static RouteQuery getWeatherStatsByLocationSetting(Uri uri, String sortOrder) {
+        String locationSetting = WeatherContract.WeatherStatsEntry.getLocationSettingFromUri(uri);
+        String period = WeatherContract.WeatherStatsEntry.getPeriodFromUri(uri);
+        long date = WeatherContract.WeatherStatsEntry.getDateFromUri(uri);
+        if (!WeatherContract.WeatherStatsEntry.PERIOD_WEEK.equals(period)
+                && !WeatherContract.WeatherStatsEntry.PERIOD_MONTH.equals(period)) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        if (date == 0) {
+            if (sortOrder == null) {
+                sortOrder = WeatherContract.WeatherStatsEntry.COLUMN_START_DATE + " ASC";
+            }
+            return new RouteQuery(sWeatherStatsByLocationSettingTables,
+                    sLocationSettingAndPeriodSelection,
+                    new String[]{locationSetting, period}, sortOrder);
+        }
+        // Periods of a kind don't overlap, so the one the date is in is the last to start by
+        // then, which the key finds without reading the ones before it
+        String dateString = Long.toString(date);
+        return new RouteQuery(sWeatherStatsByLocationSettingTables,
+                sLocationSettingAndPeriodOfDateSelection,
+                new String[]{locationSetting, period, dateString, dateString},
+                WeatherContract.WeatherStatsEntry.COLUMN_START_DATE + " DESC", "1");
+    }
+
+    /**
+     * Works out what a query of the uri reads.  The uris naming a location bring their own
+     * selection, and ignore the one passed in.
+     */
+    static RouteQuery getRouteQuery(Uri uri, String selection, String[] selectionArgs,
+                                    String sortOrder) {
+        switch (sUriMatcher.match(uri)) {
+            // "weather/*/*"
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return getWeatherByLocationSettingAndDate(uri, sortOrder);
+            // "weather/*"
+            case WEATHER_WITH_LOCATION:
+                return getWeatherByLocationSetting(uri, sortOrder);
+            // "weather"
+            case WEATHER:
+                return new RouteQuery(WeatherContract.WeatherEntry.TABLE_NAME,
+                        selection, selectionArgs, sortOrder, getLimit(uri));
+            // "location"
+            case LOCATION:
+                return new RouteQuery(WeatherContract.LocationEntry.TABLE_NAME,
+                        selection, selectionArgs, sortOrder);
+            // "sync_metrics"
+            case SYNC_METRICS:
+                return new RouteQuery(WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        selection, selectionArgs, sortOrder);
+            // "hourly_weather/*"
+            case HOURLY_WEATHER_WITH_LOCATION:
+                return getHourlyWeatherByLocationSetting(uri, sortOrder);
+            // "hourly_weather"
+            case HOURLY_WEATHER:
+                return new RouteQuery(WeatherContract.HourlyWeatherEntry.TABLE_NAME,
+                        selection, selectionArgs, sortOrder);
+            // "weather_archive", the packed months as they are stored
+            case WEATHER_ARCHIVE:
+                return new RouteQuery(WeatherContract.WeatherArchiveEntry.TABLE_NAME,
+                        selection, selectionArgs, sortOrder);
+            // "weather_stats/*/*"
+            case WEATHER_STATS_WITH_LOCATION_AND_PERIOD:
+                return getWeatherStatsByLocationSetting(uri, sortOrder);
+            // "weather_stats"
+            case WEATHER_STATS:
+                return new RouteQuery(WeatherContract.WeatherStatsEntry.TABLE_NAME,
+                        selection, selectionArgs, sortOrder);
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
     }
 
     /*
@@ -130,6 +353,17 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, SYNC_METRICS);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY_WEATHER, HOURLY_WEATHER);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY_WEATHER + "/*", HOURLY_WEATHER_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_ARCHIVE, WEATHER_ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_ARCHIVE + "/*", WEATHER_ARCHIVE_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_STATS, WEATHER_STATS);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_STATS + "/*/*", WEATHER_STATS_WITH_LOCATION_AND_PERIOD);
         return matcher;
     }
 
@@ -164,6 +398,20 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_METRICS:
+                return WeatherContract.SyncMetricsEntry.CONTENT_TYPE;
+            case HOURLY_WEATHER:
+            case HOURLY_WEATHER_WITH_LOCATION:
+                return WeatherContract.HourlyWeatherEntry.CONTENT_TYPE;
+            case WEATHER_ARCHIVE:
+            case WEATHER_ARCHIVE_WITH_LOCATION:
+                return WeatherContract.WeatherArchiveEntry.CONTENT_TYPE;
+            case WEATHER_STATS_WITH_LOCATION_AND_PERIOD:
+                return WeatherContract.WeatherStatsEntry.getDateFromUri(uri) != 0
+                        ? WeatherContract.WeatherStatsEntry.CONTENT_ITEM_TYPE
+                        : WeatherContract.WeatherStatsEntry.CONTENT_TYPE;
+            case WEATHER_STATS:
+                return WeatherContract.WeatherStatsEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,55 +420,70 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Here's the switch statement that, given a URI, will determine what kind of request it is,
-        // and query the database accordingly.
-        Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
-            // "weather/*/*"
-            case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
-            // "weather/*"
-            case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
-                break;
-            }
-            // "weather"
-            case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            }
-            // "location"
-            case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.LocationEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
+        final int match = sUriMatcher.match(uri);
+        if (match == WEATHER_ARCHIVE_WITH_LOCATION) {
+            // Unpacked in Java, so there's no SQL to route to
+            Cursor archived = new WeatherArchive().query(mOpenHelper.getReadableDatabase(),
+                    WeatherContract.WeatherArchiveEntry.getLocationSettingFromUri(uri),
+                    WeatherContract.WeatherArchiveEntry.getStartDateFromUri(uri),
+                    WeatherContract.WeatherArchiveEntry.getEndDateFromUri(uri), projection);
+            archived.setNotificationUri(getContext().getContentResolver(), uri);
+            return archived;
+        }
+        // The forecast of a location is what everything shows, so it is read over and over
+        boolean cacheable = QueryCache.isSupported()
+                && (match == WEATHER_WITH_LOCATION || match == WEATHER_WITH_LOCATION_AND_DATE);
+        String cacheKey = null;
+        long generation = 0;
+        if (cacheable) {
+            cacheKey = QueryCache.getKey(uri, projection, sortOrder);
+            Cursor cached = mQueryCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(getContext().getContentResolver(), uri);
+                return cached;
             }
+            generation = mQueryCache.getGeneration();
+        }
 
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        // getRouteQuery holds the switch statement that, given a URI, determines what kind of
+        // request it is, and what to query the database for accordingly.
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Cursor retCursor = getRouteQuery(uri, selection, selectionArgs, sortOrder)
+                .query(db, projection);
+        // A batch on this thread may still be rolled back
+        if (cacheable && !db.inTransaction()) {
+            String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+            retCursor = mQueryCache.put(cacheKey, generation, retCursor, locationSetting,
+                    getLocationId(db, locationSetting));
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(),
+                getNotificationUri(uri, match));
         return retCursor;
     }
 
+    // The stats are written by the weather table's triggers, so they change with the weather
+    // of their location, and nothing notifies their own uris
+    private static Uri getNotificationUri(Uri uri, int match) {
+        switch (match) {
+            case WEATHER_STATS_WITH_LOCATION_AND_PERIOD:
+                return WeatherContract.WeatherEntry.buildWeatherLocation(
+                        WeatherContract.WeatherStatsEntry.getLocationSettingFromUri(uri));
+            case WEATHER_STATS:
+                return WeatherContract.WeatherEntry.CONTENT_URI;
+            default:
+                return uri;
+        }
+    }
+
+    // -1 for a location that isn't stored yet, which its insert will drop from the cache
+    private static long getLocationId(SQLiteDatabase db, String locationSetting) {
+        return DatabaseUtils.longForQuery(db, "SELECT coalesce((SELECT "
+                        + WeatherContract.LocationEntry._ID + " FROM "
+                        + WeatherContract.LocationEntry.TABLE_NAME + " WHERE "
+                        + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?), -1)",
+                new String[]{locationSetting});
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -232,26 +495,84 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                countWriteTransaction(db);
+                BatchState batch = mBatchState.get();
+                long _id;
+                if (batch != null && BulkWriter.canUpsertWeather(values)) {
+                    // A batch writes many rows, so they share compiled statements
+                    BulkWriter writer = batch.getWriter(db);
+                    writer.normalizeDate(values);
+                    _id = writer.upsertWeather(values);
+                } else {
+                    normalizeDate(values);
+                    _id = upsertWeather(db, values);
+                }
+                if ( _id < 0 ) {
+                    // The same row is already stored, so there's nothing to tell anybody
+                    if (batch != null) {
+                        batch.mLastInsertUnchanged = true;
+                    }
+                    return WeatherContract.WeatherEntry.buildWeatherUri(-_id);
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                QueryCache.Changes changes = getCacheChanges();
+                addLocationId(changes, values);
+                commitCacheChanges(changes);
+                // Only observers of this day, or of the location's whole forecast
+                notifyChange(getChangedDayUri(db, values, getLocationSettings()));
+                return returnUri;
             }
             case LOCATION: {
+                countWriteTransaction(db);
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                // The forecast cached for the location before it was stored was empty
+                QueryCache.Changes changes = getCacheChanges();
+                String locationSetting =
+                        values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                if (locationSetting != null) {
+                    changes.mLocationSettings.add(locationSetting);
+                } else {
+                    changes.mAll = true;
+                }
+                commitCacheChanges(changes);
                 break;
             }
+            case HOURLY_WEATHER: {
+                countWriteTransaction(db);
+                // A period that is already stored is replaced, so there's no need to look
+                // for it first like the daily rows do
+                BatchState batch = mBatchState.get();
+                long _id = batch != null
+                        ? batch.getWriter(db).insert(
+                                WeatherContract.HourlyWeatherEntry.TABLE_NAME, values)
+                        : db.insert(WeatherContract.HourlyWeatherEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.HourlyWeatherEntry.buildHourlyWeatherUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyChange(getChangedLocationUri(db, values, getLocationSettings()));
+                return returnUri;
+            }
+            case SYNC_METRICS: {
+                long _id = insertSyncMetrics(db, values);
+                if ( _id > 0 )
+                    // Nobody watches the metrics, and a notification after every sync would
+                    // wake up every observer of the whole authority for nothing
+                    return ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -262,25 +583,115 @@ public class WeatherProvider extends ContentProvider {
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
+        countWriteTransaction(db);
+        Set<Uri> changed = null;
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+            case HOURLY_WEATHER: {
+                // Finding the rows and deleting them has to see the same rows
+                boolean ownTransaction = !db.inTransaction();
+                if (ownTransaction) {
+                    db.beginTransaction();
+                }
+                try {
+                    changed = getChangedUris(db, match, selection, selectionArgs);
+                    if (match == WEATHER
+                            && WeatherContract.WeatherEntry.isArchivingUri(uri)
+                            && new WeatherArchive().archive(db, selection, selectionArgs) > 0) {
+                        changed.add(WeatherContract.WeatherArchiveEntry.CONTENT_URI);
+                    }
+                    rowsDeleted = db.delete(match == WEATHER
+                                    ? WeatherContract.WeatherEntry.TABLE_NAME
+                                    : WeatherContract.HourlyWeatherEntry.TABLE_NAME,
+                            selection, selectionArgs);
+                    if (ownTransaction) {
+                        db.setTransactionSuccessful();
+                    }
+                } finally {
+                    if (ownTransaction) {
+                        db.endTransaction();
+                    }
+                }
                 break;
+            }
             case LOCATION:
+                rowsDeleted = deleteLocations(db, selection, selectionArgs);
+                break;
+            case SYNC_METRICS:
                 rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case WEATHER_ARCHIVE:
+                rowsDeleted = db.delete(
+                        WeatherContract.WeatherArchiveEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateAll(match);
+            if (changed != null) {
+                notifyChanges(changed);
+            } else {
+                notifyChange(uri);
+            }
         }
         return rowsDeleted;
     }
 
+    /**
+     * Deletes locations, and in the same transaction the stats and the days kept for the stats
+     * of locations that are gone.  Those would otherwise be counted for the next location given
+     * the same _id.
+     */
+    private int deleteLocations(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        boolean ownTransaction = !db.inTransaction();
+        if (ownTransaction) {
+            db.beginTransaction();
+        }
+        try {
+            int rowsDeleted = db.delete(
+                    WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+            if (rowsDeleted > 0) {
+                String gone = WeatherContract.WeatherStatsEntry.COLUMN_LOC_KEY + " NOT IN (SELECT "
+                        + WeatherContract.LocationEntry._ID + " FROM "
+                        + WeatherContract.LocationEntry.TABLE_NAME + ")";
+                db.delete(WeatherContract.WeatherStatsEntry.TABLE_NAME, gone, null);
+                db.delete(WeatherContract.WeatherStatsEntry.ARCHIVED_TABLE_NAME, gone, null);
+            }
+            if (ownTransaction) {
+                db.setTransactionSuccessful();
+            }
+            return rowsDeleted;
+        } finally {
+            if (ownTransaction) {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Inserts the metrics of one sync and deletes the oldest rows beyond
+     * {@link WeatherContract.SyncMetricsEntry#MAX_ROWS}, in one transaction.
+     */
+    private long insertSyncMetrics(SQLiteDatabase db, ContentValues values) {
+        countWriteTransaction(db);
+        db.beginTransaction();
+        try {
+            long _id = db.insert(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, values);
+            if (_id > 0) {
+                db.delete(WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        WeatherContract.SyncMetricsEntry._ID + " <= ?",
+                        new String[]{Long.toString(_id - WeatherContract.SyncMetricsEntry.MAX_ROWS)});
+            }
+            db.setTransactionSuccessful();
+            return _id;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -296,11 +707,34 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
 
+        countWriteTransaction(db);
+        Set<Uri> changed = null;
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                // Rows moved to another location or day change what observers of both see
+                if (!values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                        && !values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                    boolean ownTransaction = !db.inTransaction();
+                    if (ownTransaction) {
+                        db.beginTransaction();
+                    }
+                    try {
+                        changed = getChangedUris(db, match, selection, selectionArgs);
+                        rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                                selection, selectionArgs);
+                        if (ownTransaction) {
+                            db.setTransactionSuccessful();
+                        }
+                    } finally {
+                        if (ownTransaction) {
+                            db.endTransaction();
+                        }
+                    }
+                } else {
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                }
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
@@ -310,7 +744,12 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateAll(match);
+            if (changed != null) {
+                notifyChanges(changed);
+            } else {
+                notifyChange(uri);
+            }
         }
         return rowsUpdated;
     }
@@ -321,27 +760,403 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                countWriteTransaction(db);
                 db.beginTransaction();
                 int returnCount = 0;
+                BulkWriter writer = new BulkWriter(db);
+                QueryCache.Changes changes = new QueryCache.Changes();
+                Set<Uri> changedDays = new LinkedHashSet<Uri>();
+                Map<Long, String> locationSettings = new HashMap<Long, String>();
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                        long _id;
+                        if (BulkWriter.canUpsertWeather(value)) {
+                            writer.normalizeDate(value);
+                            _id = writer.upsertWeather(value);
+                        } else {
+                            normalizeDate(value);
+                            _id = upsertWeather(db, value);
+                        }
+                        if (_id > 0) {
                             returnCount++;
+                            addLocationId(changes, value);
+                            changedDays.add(getChangedDayUri(db, value, locationSettings));
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    writer.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                mQueryCache.invalidate(changes);
+                // An identical forecast changes nothing, so there's nobody to wake up
+                notifyChanges(changedDays);
                 return returnCount;
+            case HOURLY_WEATHER:
+                countWriteTransaction(db);
+                db.beginTransaction();
+                int insertCount = 0;
+                BulkWriter hourlyWriter = new BulkWriter(db);
+                Set<Uri> changedLocations = new LinkedHashSet<Uri>();
+                Map<Long, String> hourlyLocationSettings = new HashMap<Long, String>();
+                try {
+                    for (ContentValues value : values) {
+                        if (hourlyWriter.insert(
+                                WeatherContract.HourlyWeatherEntry.TABLE_NAME, value) > 0) {
+                            insertCount++;
+                            changedLocations.add(
+                                    getChangedLocationUri(db, value, hourlyLocationSettings));
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    hourlyWriter.close();
+                    db.endTransaction();
+                }
+                notifyChanges(changedLocations);
+                return insertCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Writes a weather row, unless the row stored for the same day and location already holds
+     * exactly these values.  A changed row is updated in place rather than replaced, so it
+     * keeps its _ID.
+     *
+     * @return the _ID of the written row, the negated _ID of the stored row if it was left
+     * untouched, or 0 if the row could not be written.
+     */
+    private long upsertWeather(SQLiteDatabase db, ContentValues value) {
+        Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            // Can't be matched against a stored row, let the insert decide whether it's valid
+            return Math.max(0, db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value));
+        }
+
+        Set<Map.Entry<String, Object>> valueSet = value.valueSet();
+        String[] columns = new String[valueSet.size() + 1];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : valueSet) {
+            columns[i++] = entry.getKey();
+        }
+        columns[i] = WeatherContract.WeatherEntry._ID;
+        String[] selectionArgs = new String[]{Long.toString(date), Long.toString(locationId)};
+
+        long storedId;
+        Cursor stored = db.query(WeatherContract.WeatherEntry.TABLE_NAME, columns,
+                sDateAndLocationIdSelection, selectionArgs, null, null, null);
+        try {
+            if (!stored.moveToFirst()) {
+                return Math.max(0, db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value));
+            }
+            storedId = stored.getLong(i);
+            if (hasSameValues(stored, value)) {
+                return -storedId;
+            }
+        } finally {
+            stored.close();
+        }
+        int updated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, value,
+                sDateAndLocationIdSelection, selectionArgs);
+        return updated > 0 ? storedId : 0;
+    }
+
+    /**
+     * Compares the current row of the cursor with the values, column by column.  Numbers are
+     * compared by value, since SQLite hands back REAL columns as doubles whatever was put in.
+     */
+    private static boolean hasSameValues(Cursor cursor, ContentValues values) {
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            int index = cursor.getColumnIndex(entry.getKey());
+            Object expected = entry.getValue();
+            if (expected == null) {
+                if (!cursor.isNull(index)) {
+                    return false;
+                }
+            } else if (cursor.isNull(index)) {
+                return false;
+            } else if (expected instanceof Long || expected instanceof Integer) {
+                if (cursor.getLong(index) != ((Number) expected).longValue()) {
+                    return false;
+                }
+            } else if (expected instanceof Number) {
+                if (cursor.getDouble(index) != ((Number) expected).doubleValue()) {
+                    return false;
+                }
+            } else if (!expected.toString().equals(cursor.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies all the operations in a single transaction.  Change notifications are held back
+     * until the transaction has been committed, and each affected URI is only notified once,
+     * so observers reload once per batch instead of once per operation.
+     * <p/>
+     * Inside a batch, a weather insert that found an identical row already stored reports a
+     * count of 0 instead of a URI, the same way bulkInsert only counts rows that changed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final BatchState batch = new BatchState();
+        final ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+
+        countWriteTransaction(db);
+        mBatchState.set(batch);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                batch.mLastInsertUnchanged = false;
+                results[i] = operations.get(i).apply(this, results, i);
+                if (batch.mLastInsertUnchanged) {
+                    results[i] = new ContentProviderResult(0);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (batch.mWriter != null) {
+                batch.mWriter.close();
+            }
+            db.endTransaction();
+            mBatchState.remove();
+        }
+        mQueryCache.invalidate(batch.mCacheChanges);
+
+        for (Uri uri : getUrisToNotify(batch.mNotifications)) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    // The changes of the current batch, or new ones for a write committed on its own
+    private QueryCache.Changes getCacheChanges() {
+        BatchState batch = mBatchState.get();
+        return batch != null ? batch.mCacheChanges : new QueryCache.Changes();
+    }
+
+    // Drops them now, unless they belong to a batch, which drops them once it is committed
+    private void commitCacheChanges(QueryCache.Changes changes) {
+        BatchState batch = mBatchState.get();
+        if (batch == null || batch.mCacheChanges != changes) {
+            mQueryCache.invalidate(changes);
+        }
+    }
+
+    private static void addLocationId(QueryCache.Changes changes, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        if (locationId != null) {
+            changes.mLocationIds.add(locationId);
+        } else {
+            changes.mAll = true;
+        }
+    }
+
+    // Deletes and updates can select anything, so they drop the whole cache
+    private void invalidateAll(int match) {
+        if (match == WEATHER || match == LOCATION) {
+            QueryCache.Changes changes = getCacheChanges();
+            changes.mAll = true;
+            commitCacheChanges(changes);
+        }
+    }
+
+    /**
+     * @return how many forecast queries were answered from the cache, and how many weren't,
+     * for tuning its size.
+     */
+    int getCacheHitCount() {
+        return mQueryCache.getHitCount();
+    }
+
+    int getCacheMissCount() {
+        return mQueryCache.getMissCount();
+    }
+
+    /**
+     * Notifies observers of the uri right away, or once the current batch has been committed.
+     */
+    private void notifyChange(Uri uri) {
+        BatchState batch = mBatchState.get();
+        if (batch != null) {
+            batch.mNotifications.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Notifies observers of all the uris at once, right away, or once the current batch has
+     * been committed.
+     */
+    private void notifyChanges(Set<Uri> uris) {
+        BatchState batch = mBatchState.get();
+        if (batch != null) {
+            batch.mNotifications.addAll(uris);
+        } else {
+            for (Uri uri : getUrisToNotify(uris)) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        }
+    }
+
+    /**
+     * Works out the notifications that reach every observer of the changed uris, and no other.
+     * Each changed day is notified as itself, so a detail view of a day that didn't change
+     * doesn't reload.  Observers are registered for descendants, so the forecast of a location
+     * still hears about each of its days; its loader is throttled to reload once for them.
+     */
+    static List<Uri> getUrisToNotify(Set<Uri> changed) {
+        Set<Uri> pending = changed;
+        if (pending.size() > MAX_NOTIFICATIONS) {
+            pending = new LinkedHashSet<Uri>();
+            for (Uri uri : changed) {
+                pending.add(WeatherContract.BASE_CONTENT_URI.buildUpon()
+                        .appendPath(uri.getPathSegments().get(0)).build());
+            }
+        }
+        List<Uri> notify = new ArrayList<Uri>();
+        for (Uri uri : pending) {
+            if (!hasPendingAncestor(pending, uri)) {
+                notify.add(uri);
+            }
+        }
+        return notify;
+    }
+
+    // The lookups of the current batch, which writes many rows for the same few locations
+    private Map<Long, String> getLocationSettings() {
+        BatchState batch = mBatchState.get();
+        return batch != null ? batch.mLocationSettings : new HashMap<Long, String>();
+    }
+
+    /**
+     * @return weather/[location]/[date] for a weather row, or the whole table if the row
+     * doesn't tell which location or day it is.
+     */
+    private static Uri getChangedDayUri(SQLiteDatabase db, ContentValues values,
+                                        Map<Long, String> locationSettings) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        String locationSetting = locationId == null
+                ? null : getLocationSetting(db, locationId, locationSettings);
+        if (locationSetting == null || date == null) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        // The date is already normalized
+        return WeatherContract.WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                .appendPath(Long.toString(date)).build();
+    }
+
+    /**
+     * @return hourly_weather/[location] for an hourly row, or the whole table if the row
+     * doesn't tell which location it is.
+     */
+    private static Uri getChangedLocationUri(SQLiteDatabase db, ContentValues values,
+                                             Map<Long, String> locationSettings) {
+        Long locationId = values.getAsLong(WeatherContract.HourlyWeatherEntry.COLUMN_LOC_KEY);
+        String locationSetting = locationId == null
+                ? null : getLocationSetting(db, locationId, locationSettings);
+        if (locationSetting == null) {
+            return WeatherContract.HourlyWeatherEntry.CONTENT_URI;
+        }
+        return WeatherContract.HourlyWeatherEntry.buildHourlyWeatherLocation(locationSetting);
+    }
+
+    private static String getLocationSetting(SQLiteDatabase db, long locationId,
+                                             Map<Long, String> locationSettings) {
+        if (locationSettings.containsKey(locationId)) {
+            return locationSettings.get(locationId);
+        }
+        String locationSetting;
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)}, null, null, null);
+        try {
+            locationSetting = cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+        locationSettings.put(locationId, locationSetting);
+        return locationSetting;
+    }
+
+    /**
+     * Finds the days, or for the hourly table the locations, that a delete or update of the
+     * selected rows is going to change.  Has to run in the same transaction as the write.
+     */
+    private static Set<Uri> getChangedUris(SQLiteDatabase db, int match, String selection,
+                                           String[] selectionArgs) {
+        boolean daily = match == WEATHER;
+        Uri contentUri = daily ? WeatherContract.WeatherEntry.CONTENT_URI
+                : WeatherContract.HourlyWeatherEntry.CONTENT_URI;
+        String[] columns = daily
+                ? new String[]{sLocationSettingOfRow, WeatherContract.WeatherEntry.COLUMN_DATE}
+                : new String[]{sLocationSettingOfRow};
+        Set<Uri> changed = new LinkedHashSet<Uri>();
+        // One more than are worth notifying, to know there are too many
+        Cursor cursor = db.query(true, daily ? WeatherContract.WeatherEntry.TABLE_NAME
+                        : WeatherContract.HourlyWeatherEntry.TABLE_NAME, columns, selection,
+                selectionArgs, null, null, null, Integer.toString(MAX_NOTIFICATIONS + 1));
+        try {
+            if (cursor.getCount() > MAX_NOTIFICATIONS) {
+                changed.add(contentUri);
+                return changed;
+            }
+            while (cursor.moveToNext()) {
+                if (cursor.isNull(0)) {
+                    changed.add(contentUri);
+                    continue;
+                }
+                Uri.Builder builder = contentUri.buildUpon().appendPath(cursor.getString(0));
+                if (daily) {
+                    builder.appendPath(Long.toString(cursor.getLong(1)));
+                }
+                changed.add(builder.build());
+            }
+        } finally {
+            cursor.close();
+        }
+        return changed;
+    }
+
+    // Observers of a URI are also told about changes to its ancestors, so a URI whose
+    // ancestor is going to be notified anyway doesn't need a notification of its own.
+    private static boolean hasPendingAncestor(Set<Uri> pending, Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        for (Uri candidate : pending) {
+            List<String> candidateSegments = candidate.getPathSegments();
+            if (candidateSegments.size() < segments.size()
+                    && candidate.getAuthority().equals(uri.getAuthority())
+                    && segments.subList(0, candidateSegments.size()).equals(candidateSegments)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A write made outside of a transaction runs in one of its own
+    private void countWriteTransaction(SQLiteDatabase db) {
+        if (!db.inTransaction()) {
+            mWriteTransactionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return how many write transactions this provider has run, so tests can check how many
+     * a sync costs.
+     */
+    int getWriteTransactionCount() {
+        return mWriteTransactionCount.get();
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
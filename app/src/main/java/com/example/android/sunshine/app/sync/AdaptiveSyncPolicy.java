@@ -0,0 +1,83 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Syncs often while the forecast keeps changing and rarely while it holds still.
+ * <ul>
+ * <li>The interval slides between {@link #MAX_INTERVAL} and {@link #MIN_INTERVAL} as the
+ * volatility of recent syncs goes from 0 to 1.</li>
+ * <li>After a failed sync it retries after {@link #MIN_INTERVAL}, doubling with every further
+ * failure up to the usual {@link SunshineSyncAdapter#SYNC_INTERVAL}.</li>
+ * <li>At night, when nobody is looking, it waits until morning, but no longer than
+ * {@link #MAX_INTERVAL}.</li>
+ * </ul>
+ * Intervals are rounded to {@link #INTERVAL_STEP}, so small changes in volatility don't cause
+ * the periodic sync to be registered again after every sync.
+ */
+public class AdaptiveSyncPolicy implements SyncPolicy {
+
+    // All in seconds, like the sync intervals themselves
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 6;
+    static final int INTERVAL_STEP = 60 * 15;
+
+    // Local hours, the night runs from NIGHT_START to MORNING
+    static final int NIGHT_START = 23;
+    static final int MORNING = 6;
+
+    private final TimeZone mTimeZone;
+
+    public AdaptiveSyncPolicy() {
+        this(TimeZone.getDefault());
+    }
+
+    public AdaptiveSyncPolicy(TimeZone timeZone) {
+        mTimeZone = timeZone;
+    }
+
+    @Override
+    public int getSyncInterval(SyncHistory history, long nowMillis) {
+        int interval;
+        int failures = history.getConsecutiveFailures();
+        if (failures > 0) {
+            interval = MIN_INTERVAL << Math.min(failures - 1, 8);
+            interval = Math.min(interval, SunshineSyncAdapter.SYNC_INTERVAL);
+        } else {
+            float volatility = Math.max(0f, Math.min(1f, history.getVolatility()));
+            // Geometric rather than linear, so that moderately volatile weather already gets
+            // close to the shortest interval
+            interval = (int) Math.round(MIN_INTERVAL
+                    * Math.pow((double) MAX_INTERVAL / MIN_INTERVAL, 1 - volatility));
+        }
+
+        int untilMorning = getSecondsUntilMorning(nowMillis);
+        if (untilMorning > 0) {
+            interval = Math.max(interval, Math.min(untilMorning, MAX_INTERVAL));
+        }
+
+        interval = Math.round((float) interval / INTERVAL_STEP) * INTERVAL_STEP;
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+
+    /**
+     * @return the seconds left until MORNING if it is night now, otherwise 0.
+     */
+    private int getSecondsUntilMorning(long nowMillis) {
+        Calendar calendar = Calendar.getInstance(mTimeZone);
+        calendar.setTimeInMillis(nowMillis);
+        int hour = calendar.get(Calendar.HOUR_OF_DAY);
+        if (hour >= MORNING && hour < NIGHT_START) {
+            return 0;
+        }
+        if (hour >= NIGHT_START) {
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        calendar.set(Calendar.HOUR_OF_DAY, MORNING);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return (int) ((calendar.getTimeInMillis() - nowMillis) / 1000);
+    }
+}
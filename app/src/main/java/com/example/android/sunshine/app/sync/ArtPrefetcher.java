@@ -0,0 +1,93 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Downloads the art for a new forecast into Glide's disk cache, so that the list, the detail
+ * view, the widgets and the notification find it there instead of going to the network.
+ * <p/>
+ * Only the downloaded image is cached, not a copy at each size it is shown at.  Those copies
+ * are keyed on the decoder and transformation as well as the size, so they would only match as
+ * long as every view asks for them exactly the same way.  The views load with
+ * DiskCacheStrategy.ALL instead, which decodes the cached download at the size they need.
+ */
+class ArtPrefetcher {
+    private final String LOG_TAG = ArtPrefetcher.class.getSimpleName();
+
+    // Per image, a few are downloaded at a time
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final Context mContext;
+
+    ArtPrefetcher(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Downloads the art for each weather condition in the forecast, once each.  Blocks until
+     * they are all in the cache or have failed, or the thread is interrupted, which cancels
+     * the downloads still going and leaves the thread interrupted.
+     *
+     * @return the number of images now in the cache.
+     */
+    int prefetch(Collection<ContentValues> forecast) {
+        if (Utility.usingLocalGraphics(mContext)) {
+            return 0;
+        }
+        Set<String> urls = new LinkedHashSet<String>();
+        for (ContentValues day : forecast) {
+            String url = Utility.getArtUrlForWeatherCondition(mContext,
+                    day.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+
+        // Glide downloads them on its own threads, all at once
+        List<FutureTarget<File>> downloads = new ArrayList<FutureTarget<File>>();
+        for (String url : urls) {
+            downloads.add(Glide.with(mContext)
+                    .load(url)
+                    .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL));
+        }
+        int cached = 0;
+        for (FutureTarget<File> download : downloads) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Clearing the ones left cancels them
+                Glide.clear(download);
+                continue;
+            }
+            try {
+                download.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                cached++;
+            } catch (InterruptedException e) {
+                // The sync was cancelled.  Stop waiting, and let the sync see it was.
+                Log.w(LOG_TAG, "Prefetching weather art interrupted", e);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                Log.w(LOG_TAG, "Error prefetching weather art", e);
+            } finally {
+                Glide.clear(download);
+            }
+        }
+        return cached;
+    }
+}
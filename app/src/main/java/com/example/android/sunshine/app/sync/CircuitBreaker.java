@@ -0,0 +1,93 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Stops syncs from going to a server which is known to be down.
+ * <p/>
+ * After {@link #FAILURE_THRESHOLD} syncs in a row failed to reach an endpoint, the breaker
+ * opens for the delay the {@link RetryPolicy} picks, and syncs don't try the endpoint at all
+ * until then.  This matters for the refresh button: manual syncs ignore the sync framework's
+ * own backoff.  Once the delay has passed the next sync is let through as a trial.  If it
+ * fails too, the breaker opens again, for longer.  Any sync which reaches the server closes it.
+ * <p/>
+ * The state survives the sync process, in its own preferences file for the same reason as
+ * {@link ForecastValidators}.
+ */
+class CircuitBreaker {
+    static final int FAILURE_THRESHOLD = 3;
+
+    private static final String PREFS_NAME = "circuit_breakers";
+    private static final String KEY_FAILURES_PREFIX = "failures_";
+    private static final String KEY_OPEN_UNTIL_PREFIX = "open_until_";
+
+    private final String mEndpoint;
+    private final RetryPolicy mRetryPolicy;
+    private final SyncClock mClock;
+    private final SharedPreferences mPrefs;
+
+    /**
+     * @param endpoint identifies the server, usually the host and port of its URL.
+     */
+    CircuitBreaker(Context context, String endpoint, RetryPolicy retryPolicy, SyncClock clock) {
+        mEndpoint = endpoint;
+        mRetryPolicy = retryPolicy;
+        mClock = clock;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return true if syncs should not try the endpoint yet.
+     */
+    boolean isOpen() {
+        return mClock.currentTimeMillis() < getOpenUntilMillis();
+    }
+
+    /**
+     * @return when the endpoint may be tried again, or 0 if the breaker was never opened.
+     */
+    long getOpenUntilMillis() {
+        return mPrefs.getLong(KEY_OPEN_UNTIL_PREFIX + mEndpoint, 0);
+    }
+
+    int getConsecutiveFailures() {
+        return mPrefs.getInt(KEY_FAILURES_PREFIX + mEndpoint, 0);
+    }
+
+    /**
+     * Records a sync which could not reach the endpoint, and opens the breaker if that makes
+     * too many in a row.
+     *
+     * @param retryAfterSeconds what the server asked for in a Retry-After header, or 0.
+     * @return the seconds to wait before the next attempt.
+     */
+    int onFailure(int retryAfterSeconds) {
+        int failures = getConsecutiveFailures() + 1;
+        int delay = mRetryPolicy.getDelaySeconds(failures, retryAfterSeconds);
+        SharedPreferences.Editor editor = mPrefs.edit();
+        editor.putInt(KEY_FAILURES_PREFIX + mEndpoint, failures);
+        if (failures >= FAILURE_THRESHOLD) {
+            editor.putLong(KEY_OPEN_UNTIL_PREFIX + mEndpoint,
+                    mClock.currentTimeMillis() + delay * 1000L);
+        }
+        editor.apply();
+        return delay;
+    }
+
+    /**
+     * Records a sync which reached the endpoint, which closes the breaker.
+     */
+    void onSuccess() {
+        if (mPrefs.contains(KEY_FAILURES_PREFIX + mEndpoint)) {
+            mPrefs.edit()
+                    .remove(KEY_FAILURES_PREFIX + mEndpoint)
+                    .remove(KEY_OPEN_UNTIL_PREFIX + mEndpoint)
+                    .apply();
+        }
+    }
+
+    static void clearAll(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Syncs at the same interval whatever happens, which is how Sunshine has always behaved.
+ */
+public class FixedSyncPolicy implements SyncPolicy {
+
+    private final int mSyncInterval;
+
+    public FixedSyncPolicy(int syncInterval) {
+        mSyncInterval = syncInterval;
+    }
+
+    @Override
+    public int getSyncInterval(SyncHistory history, long nowMillis) {
+        return mSyncInterval;
+    }
+}
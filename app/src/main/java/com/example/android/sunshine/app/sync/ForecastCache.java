@@ -0,0 +1,266 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the last forecast responses stored for each location, as the server sent them, gzipped
+ * in the app's files dir.  Schema changes migrate the database, but an upgrade from a version
+ * too old to migrate still drops it, and these files outlive that.  An empty database can then
+ * be filled again by parsing them instead of waiting for the network.
+ * <p/>
+ * A response is copied to a temporary file while it is being parsed, and only replaces the
+ * cached one once the forecast made it into the database.  The cache therefore always holds
+ * what the database held, the same as {@link ForecastValidators}.
+ */
+class ForecastCache {
+    private final String LOG_TAG = ForecastCache.class.getSimpleName();
+
+    static final String KIND_DAILY = "daily";
+    static final String KIND_HOURLY = "hourly";
+
+    private static final String DIRECTORY = "forecast_cache";
+    private static final String SUFFIX = ".json.gz";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String CHARSET = "UTF-8";
+
+    private final File mDirectory;
+
+    ForecastCache(Context context) {
+        mDirectory = new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    /**
+     * Starts caching a new response.  Nothing replaces the cached response until the entry is
+     * committed.
+     */
+    Entry newEntry(String locationSetting, String kind) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Can't create " + mDirectory);
+        }
+        File file = getFile(locationSetting, kind);
+        return new Entry(file, new File(file.getPath() + TEMP_SUFFIX));
+    }
+
+    /**
+     * @return the cached response, or null if there is none.  The caller closes it.
+     */
+    Reader open(String locationSetting, String kind) throws IOException {
+        File file = getFile(locationSetting, kind);
+        if (!file.isFile()) {
+            return null;
+        }
+        return new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file)), CHARSET));
+    }
+
+    /**
+     * @return when the cached response was downloaded, in milliseconds since the epoch, or 0
+     * if there is none.
+     */
+    long getTime(String locationSetting, String kind) {
+        return getFile(locationSetting, kind).lastModified();
+    }
+
+    /**
+     * Deletes the responses of every location that isn't one of these.
+     */
+    void retainOnly(Collection<String> locationSettings) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String location = getLocationSetting(file);
+            if (location == null || !locationSettings.contains(location)) {
+                delete(file);
+            }
+        }
+    }
+
+    /**
+     * @return the location settings which have at least one cached response.
+     */
+    List<String> getLocationSettings() {
+        List<String> locations = new ArrayList<String>();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String location = getLocationSetting(file);
+                if (location != null && !locations.contains(location)) {
+                    locations.add(location);
+                }
+            }
+        }
+        return locations;
+    }
+
+    static void clearAll(Context context) {
+        File[] files = new File(context.getFilesDir(), DIRECTORY).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private File getFile(String locationSetting, String kind) {
+        try {
+            // Location settings are whatever the user typed, so they are encoded into
+            // something safe as a file name
+            return new File(mDirectory,
+                    URLEncoder.encode(locationSetting, CHARSET) + "." + kind + SUFFIX);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // Reverses getFile, null for anything that isn't a committed response
+    private static String getLocationSetting(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SUFFIX)) {
+            return null;
+        }
+        int kindStart = name.lastIndexOf('.', name.length() - SUFFIX.length() - 1);
+        if (kindStart <= 0) {
+            return null;
+        }
+        try {
+            return URLDecoder.decode(name.substring(0, kindStart), CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void delete(File file) {
+        if (!file.delete() && file.exists()) {
+            Log.w(LOG_TAG, "Can't delete " + file);
+        }
+    }
+
+    /**
+     * A response on its way into the cache.  Either {@link #commit()} or {@link #abort()} must
+     * be called, from whichever thread; both do nothing once one of them has been called.
+     */
+    class Entry {
+        private final File mFile;
+        private final File mTempFile;
+        private Writer mWriter;
+        // Committed or aborted.  A sync aborts every entry once it is done, committed or not.
+        private boolean mFinished;
+
+        private Entry(File file, File tempFile) throws IOException {
+            mFile = file;
+            mTempFile = tempFile;
+            mWriter = new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(tempFile)), CHARSET);
+        }
+
+        /**
+         * @return a reader which copies everything read from in into the entry.
+         */
+        Reader tee(Reader in) {
+            return new FilterReader(in) {
+                @Override
+                public int read() throws IOException {
+                    int c = super.read();
+                    if (c != -1) {
+                        write(c);
+                    }
+                    return c;
+                }
+
+                @Override
+                public int read(char[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read > 0) {
+                        write(buffer, offset, read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        synchronized void write(String response) throws IOException {
+            if (mWriter != null) {
+                mWriter.write(response);
+            }
+        }
+
+        private synchronized void write(int c) throws IOException {
+            if (mWriter != null) {
+                mWriter.write(c);
+            }
+        }
+
+        private synchronized void write(char[] buffer, int offset, int count) throws IOException {
+            if (mWriter != null) {
+                mWriter.write(buffer, offset, count);
+            }
+        }
+
+        /**
+         * Replaces the cached response with this one.
+         */
+        synchronized void commit() {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            try {
+                mWriter.close();
+                mWriter = null;
+                if (!mTempFile.renameTo(mFile)) {
+                    throw new IOException("Can't rename " + mTempFile + " to " + mFile);
+                }
+            } catch (IOException e) {
+                // The previous response stays cached, which is still better than none
+                Log.w(LOG_TAG, "Error caching the forecast", e);
+                discard();
+            }
+        }
+
+        /**
+         * Throws this response away and keeps the cached one.
+         */
+        synchronized void abort() {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            discard();
+        }
+
+        // Once the entry is finished, the temporary file may already be another entry's
+        private void discard() {
+            if (mWriter != null) {
+                try {
+                    mWriter.close();
+                } catch (IOException e) {
+                    // It's being thrown away anyway
+                }
+                mWriter = null;
+            }
+            delete(mTempFile);
+        }
+    }
+}
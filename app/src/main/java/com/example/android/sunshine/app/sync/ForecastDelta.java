@@ -0,0 +1,201 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Some days of a location's forecast, pushed by the server when they change, so that a severe
+ * weather update is a write to the database rather than a sync.  The message's "data" is
+ * <pre>
+ * {"type": "forecast_delta", "location": "94043", "seq": 42,
+ *  "list": [{"dt": 1419033600, "temp": {...}, "weather": [...], ...}, ...]}
+ * </pre>
+ * where the elements of "list" are the days of a daily forecast response, each with the time
+ * of a moment on that day in seconds.
+ * <p/>
+ * Messages can arrive late, twice or out of order, so each carries a sequence number that grows
+ * with every delta for the location.  A delta whose number isn't above the last one applied
+ * there is dropped.  The numbers live in their own preferences file, for the same reason as
+ * {@link ForecastValidators}.
+ */
+public class ForecastDelta {
+    private static final String LOG_TAG = ForecastDelta.class.getSimpleName();
+
+    /** Returned by {@link #apply(Context)} for a delta which was not applied. */
+    public static final int DROPPED = -1;
+
+    private static final String PREFS_NAME = "forecast_deltas";
+    private static final String KEY_SEQUENCE_PREFIX = "sequence_";
+
+    // The GCM message data, as MyGcmListenerService reads it
+    static final String EXTRA_DATA = "data";
+    static final String TYPE = "forecast_delta";
+    static final String DELTA_TYPE = "type";
+    static final String DELTA_LOCATION = "location";
+    static final String DELTA_SEQUENCE = "seq";
+
+    private final String mLocationSetting;
+    private final long mSequence;
+    private final List<ContentValues> mDays = new ArrayList<ContentValues>();
+
+    private ForecastDelta(String locationSetting, long sequence) {
+        mLocationSetting = locationSetting;
+        mSequence = sequence;
+    }
+
+    /**
+     * @return the delta the message carries, or null if it is some other kind of message.
+     * @throws JSONException if the message claims to be a delta but isn't a well formed one.
+     */
+    public static ForecastDelta fromMessage(Bundle data) throws JSONException {
+        String json = data.getString(EXTRA_DATA);
+        if (json == null) {
+            return null;
+        }
+        JSONObject message = new JSONObject(json);
+        if (!TYPE.equals(message.optString(DELTA_TYPE))) {
+            return null;
+        }
+
+        final ForecastDelta delta = new ForecastDelta(message.getString(DELTA_LOCATION),
+                message.getLong(DELTA_SEQUENCE));
+        JSONArray days = message.getJSONArray(ForecastParser.OWM_LIST);
+        for (int i = 0; i < days.length(); i++) {
+            JSONObject day = days.getJSONObject(i);
+            final long date = WeatherContract.normalizeDate(
+                    day.getLong(ForecastParser.OWM_TIME) * 1000);
+            ForecastParser.readDay(day, i, new ForecastParser.ForecastHandler() {
+                @Override
+                public void onError(int errorCode) {
+                }
+
+                @Override
+                public void onCity(String cityName, double lat, double lon) {
+                }
+
+                @Override
+                public void onDay(int dayIndex, int weatherId, String description, double high,
+                                  double low, double pressure, int humidity, double windSpeed,
+                                  double windDirection) {
+                    ContentValues weatherValues = new ContentValues();
+                    weatherValues.put(WeatherEntry.COLUMN_DATE, date);
+                    weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, humidity);
+                    weatherValues.put(WeatherEntry.COLUMN_PRESSURE, pressure);
+                    weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+                    weatherValues.put(WeatherEntry.COLUMN_DEGREES, windDirection);
+                    weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+                    weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, low);
+                    weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, description);
+                    weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+                    delta.mDays.add(weatherValues);
+                }
+            });
+        }
+        return delta;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * Stores the days, in one transaction, unless the delta is stale or a repeat, or its
+     * location isn't one we have a forecast for.  If the preferred location's weather changed,
+     * the widgets, Muzei, the notification and the watch are told, as after a sync.
+     *
+     * @return the number of days which changed, or {@link #DROPPED}.
+     */
+    public int apply(Context context) {
+        // Two messages for a location must not both pass the sequence check before either
+        // has been stored
+        synchronized (ForecastDelta.class) {
+            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME,
+                    Context.MODE_PRIVATE);
+            String sequenceKey = KEY_SEQUENCE_PREFIX + mLocationSetting;
+            if (prefs.contains(sequenceKey) && mSequence <= prefs.getLong(sequenceKey, 0)) {
+                Log.d(LOG_TAG, "Dropping delta " + mSequence + " for " + mLocationSetting
+                        + ", " + prefs.getLong(sequenceKey, 0) + " was already applied");
+                return DROPPED;
+            }
+            long locationId = getLocationId(context);
+            if (locationId == -1) {
+                Log.d(LOG_TAG, "Dropping delta for " + mLocationSetting + ", it is not synced");
+                return DROPPED;
+            }
+
+            ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>(mDays.size());
+            for (ContentValues day : mDays) {
+                operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(day)
+                        .withValue(WeatherEntry.COLUMN_LOC_KEY, locationId)
+                        .build());
+            }
+            ContentProviderResult[] results;
+            try {
+                results = context.getContentResolver().applyBatch(
+                        WeatherContract.CONTENT_AUTHORITY, operations);
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(LOG_TAG, "Error storing delta " + mSequence + " for " + mLocationSetting, e);
+                return DROPPED;
+            }
+            prefs.edit().putLong(sequenceKey, mSequence).apply();
+
+            // As in a sync, a day stored as it already was comes back without a URI
+            int changed = 0;
+            for (ContentProviderResult result : results) {
+                if (result.uri != null) {
+                    changed++;
+                }
+            }
+            if (changed > 0 && mLocationSetting.equals(Utility.getPreferredLocation(context))) {
+                new FanOutDispatcher(context).dispatch(
+                        TodaySnapshot.query(context, mLocationSetting));
+            }
+            Log.d(LOG_TAG, "Applied delta " + mSequence + " for " + mLocationSetting + ", "
+                    + mDays.size() + " days, " + changed + " changed");
+            return changed;
+        }
+    }
+
+    private long getLocationId(Context context) {
+        Cursor cursor = context.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{mLocationSetting},
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static void clearAll(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+}
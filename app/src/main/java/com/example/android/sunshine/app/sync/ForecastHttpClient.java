@@ -0,0 +1,204 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads forecasts over connections that outlive a single request.
+ * <p/>
+ * HttpURLConnection keeps a pool of idle keep-alive connections per host, but a connection only
+ * goes back to it when its response body has been read to the end and closed.  Calling
+ * disconnect() throws it away instead.  {@link Response#close()} therefore drains and closes
+ * the body, and only disconnects when the body is too long to be worth draining.
+ * <p/>
+ * The forecast is asked for gzip compressed.  Setting Accept-Encoding ourselves means the
+ * platform leaves the body alone, so {@link Response#getReader()} decompresses it.
+ */
+class ForecastHttpClient {
+    static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_IDENTITY = "identity";
+
+    // A forecast is a few KB.  Anything longer left unread is not worth reading to save a
+    // connection.
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final boolean mCompression;
+
+    ForecastHttpClient() {
+        this(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS, true);
+    }
+
+    ForecastHttpClient(int connectTimeoutMillis, int readTimeoutMillis, boolean compression) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mCompression = compression;
+    }
+
+    /**
+     * Prepares a GET request.  Callers may add request headers to the connection before
+     * handing it to {@link #execute(HttpURLConnection)}.
+     */
+    HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(mConnectTimeoutMillis);
+        connection.setReadTimeout(mReadTimeoutMillis);
+        // Without an Accept-Encoding of our own, newer platforms quietly ask for gzip anyway
+        connection.setRequestProperty(HEADER_ACCEPT_ENCODING,
+                mCompression ? ENCODING_GZIP : ENCODING_IDENTITY);
+        return connection;
+    }
+
+    /**
+     * Sends the request and waits for the response headers.  The returned response must be
+     * closed.
+     */
+    Response execute(HttpURLConnection connection) throws IOException {
+        try {
+            connection.connect();
+            return new Response(connection, connection.getResponseCode());
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    static class Response implements ForecastSource.Response {
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private InputStream mBody;
+        private MeteredInputStream mWireBody;
+
+        Response(HttpURLConnection connection, int code) {
+            mConnection = connection;
+            mCode = code;
+        }
+
+        @Override
+        public int getCode() {
+            return mCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * @return the body, decompressed, as it arrives off the network.
+         */
+        @Override
+        public BufferedReader getReader() throws IOException {
+            mWireBody = new MeteredInputStream(mConnection.getInputStream());
+            InputStream body = mWireBody;
+            if (ENCODING_GZIP.equalsIgnoreCase(getHeader(HEADER_CONTENT_ENCODING))) {
+                body = new GZIPInputStream(body);
+            }
+            mBody = body;
+            // The parser closes what it reads from once it has the last day, which may be
+            // before the end of the body.  Leave that to close().
+            InputStream unclosable = new FilterInputStream(body) {
+                @Override
+                public void close() {
+                }
+            };
+            return new BufferedReader(new InputStreamReader(unclosable, "UTF-8"));
+        }
+
+        /**
+         * @return the body bytes read off the network so far, before decompression.
+         */
+        @Override
+        public long getBytesRead() {
+            return mWireBody == null ? 0 : mWireBody.mBytes;
+        }
+
+        /**
+         * @return how long reading the body has spent waiting for the network so far.
+         */
+        @Override
+        public long getReadNanos() {
+            return mWireBody == null ? 0 : mWireBody.mNanos;
+        }
+
+        /**
+         * Hands the connection back to the pool if the body can be finished cheaply.
+         */
+        @Override
+        public void close() {
+            if (mBody == null) {
+                // Nobody asked for the body.  A 304 has none, anything else is thrown away.
+                if (mCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    mConnection.disconnect();
+                    return;
+                }
+                try {
+                    mConnection.getInputStream().close();
+                } catch (IOException e) {
+                    mConnection.disconnect();
+                }
+                return;
+            }
+            try {
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+                while ((read = mBody.read(buffer)) != -1) {
+                    drained += read;
+                    if (drained > MAX_DRAIN_BYTES) {
+                        mConnection.disconnect();
+                        return;
+                    }
+                }
+                mBody.close();
+            } catch (IOException e) {
+                mConnection.disconnect();
+            }
+        }
+    }
+
+    // Counts the bytes and the time spent reading them
+    private static class MeteredInputStream extends FilterInputStream {
+        long mBytes;
+        long mNanos;
+
+        MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mNanos += System.nanoTime() - start;
+            if (b != -1) {
+                mBytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            mNanos += System.nanoTime() - start;
+            if (read > 0) {
+                mBytes += read;
+            }
+            return read;
+        }
+    }
+}
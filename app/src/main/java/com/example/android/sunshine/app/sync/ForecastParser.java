@@ -0,0 +1,460 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Reads an OpenWeatherMap daily forecast response and hands every day to a
+ * {@link ForecastHandler} as soon as its "list" element has been read.  The 3 hour forecast is
+ * read the same way, handing every period to a {@link HourlyForecastHandler}.
+ * <p/>
+ * The streaming path never holds more than the day currently being read, so memory use does
+ * not grow with the size of the response.  The String based path is kept for Gingerbread, which
+ * has no {@link JsonReader}.
+ */
+public class ForecastParser {
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // The 3 hour forecast keeps its values in child objects of each "list" element, and says
+    // when each period starts in seconds since the epoch.
+    static final String OWM_TIME = "dt";
+    static final String OWM_MAIN = "main";
+    static final String OWM_WIND = "wind";
+
+    /**
+     * Receives what every forecast response has, whatever its "list" holds.  The city is
+     * usually reported before the first element of the list, but callers should not rely on it.
+     */
+    public interface ResponseHandler {
+        /**
+         * Called when the server reported something other than HTTP_OK in the "cod" field.
+         * No further callbacks follow.
+         */
+        void onError(int errorCode);
+
+        void onCity(String cityName, double lat, double lon);
+    }
+
+    /**
+     * Receives the pieces of a daily forecast response in the order they are parsed.
+     */
+    public interface ForecastHandler extends ResponseHandler {
+        void onDay(int dayIndex, int weatherId, String description, double high, double low,
+                   double pressure, int humidity, double windSpeed, double windDirection);
+    }
+
+    /**
+     * Receives the pieces of a 3 hour forecast response in the order they are parsed.
+     */
+    public interface HourlyForecastHandler extends ResponseHandler {
+        /**
+         * @param time the start of the period, in milliseconds since the epoch.
+         */
+        void onPeriod(int periodIndex, long time, int weatherId, double temperature,
+                      double pressure, int humidity, double windSpeed, double windDirection);
+    }
+
+    private ForecastParser() {
+    }
+
+    /**
+     * Parses the forecast straight off a character stream.
+     *
+     * @throws IOException   if the stream could not be read
+     * @throws JSONException if the stream is not a well formed forecast
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static void parse(Reader in, ForecastHandler handler)
+            throws IOException, JSONException {
+        parse(in, handler, handler, null);
+    }
+
+    /**
+     * Parses a 3 hour forecast straight off a character stream.
+     *
+     * @throws IOException   if the stream could not be read
+     * @throws JSONException if the stream is not a well formed forecast
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static void parseHourly(Reader in, HourlyForecastHandler handler)
+            throws IOException, JSONException {
+        parse(in, handler, null, handler);
+    }
+
+    // Exactly one of dailyHandler and hourlyHandler is set, and says what the list holds
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void parse(Reader in, ResponseHandler handler, ForecastHandler dailyHandler,
+                              HourlyForecastHandler hourlyHandler)
+            throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // "cod" is a String on success and a number on failure.  nextString
+                    // copes with both.
+                    int errorCode = Integer.parseInt(reader.nextString());
+                    if (errorCode != HttpURLConnection.HTTP_OK) {
+                        handler.onError(errorCode);
+                        return;
+                    }
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, handler);
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    int index = 0;
+                    while (reader.hasNext()) {
+                        if (dailyHandler != null) {
+                            readDay(reader, index++, dailyHandler);
+                        } else {
+                            readPeriod(reader, index++, hourlyHandler);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // Keep the same failure contract as the org.json path, so the sync adapter can
+            // tell a broken payload apart from a broken connection.
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        } finally {
+            reader.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, ResponseHandler handler)
+            throws IOException, JSONException {
+        String cityName = null;
+        double cityLatitude = Double.NaN;
+        double cityLongitude = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        cityLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        cityLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || Double.isNaN(cityLatitude) || Double.isNaN(cityLongitude)) {
+            throw new JSONException("Incomplete " + OWM_CITY + " object");
+        }
+        handler.onCity(cityName, cityLatitude, cityLongitude);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDay(JsonReader reader, int dayIndex, ForecastHandler handler)
+            throws IOException, JSONException {
+        double pressure = Double.NaN;
+        int humidity = -1;
+        double windSpeed = Double.NaN;
+        double windDirection = Double.NaN;
+        double high = Double.NaN;
+        double low = Double.NaN;
+        String description = null;
+        int weatherId = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // Humidity is occasionally sent as a decimal, which nextInt refuses.
+                humidity = (int) reader.nextDouble();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(tempName)) {
+                        low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            description = reader.nextString();
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherId = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (description == null || weatherId == -1 || humidity == -1
+                || Double.isNaN(pressure) || Double.isNaN(windSpeed)
+                || Double.isNaN(windDirection) || Double.isNaN(high) || Double.isNaN(low)) {
+            throw new JSONException("Incomplete " + OWM_LIST + " element at index " + dayIndex);
+        }
+        handler.onDay(dayIndex, weatherId, description, high, low,
+                pressure, humidity, windSpeed, windDirection);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readPeriod(JsonReader reader, int periodIndex,
+                                   HourlyForecastHandler handler)
+            throws IOException, JSONException {
+        long time = -1;
+        double temperature = Double.NaN;
+        double pressure = Double.NaN;
+        int humidity = -1;
+        double windSpeed = Double.NaN;
+        double windDirection = Double.NaN;
+        int weatherId = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                time = reader.nextLong() * 1000;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        temperature = reader.nextDouble();
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        pressure = reader.nextDouble();
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        humidity = (int) reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        windSpeed = reader.nextDouble();
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        windDirection = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the weather code is kept, the description follows from it
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            weatherId = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (time < 0 || weatherId == -1 || humidity == -1 || Double.isNaN(temperature)
+                || Double.isNaN(pressure) || Double.isNaN(windSpeed)
+                || Double.isNaN(windDirection)) {
+            throw new JSONException("Incomplete " + OWM_LIST + " element at index " + periodIndex);
+        }
+        handler.onPeriod(periodIndex, time, weatherId, temperature, pressure, humidity,
+                windSpeed, windDirection);
+    }
+
+    /**
+     * Parses a forecast which has already been read into memory, using the org.json object
+     * model.  This is the only option before Honeycomb.
+     *
+     * @throws JSONException if the String is not a well formed forecast
+     */
+    public static void parse(String forecastJsonStr, ForecastHandler handler)
+            throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                handler.onError(errorCode);
+                return;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        String cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        handler.onCity(cityName, cityLatitude, cityLongitude);
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            readDay(weatherArray.getJSONObject(i), i, handler);
+        }
+    }
+
+    /**
+     * Reads one element of a daily forecast's "list", which may also come from elsewhere, like
+     * a pushed update.
+     */
+    static void readDay(JSONObject dayForecast, int dayIndex, ForecastHandler handler)
+            throws JSONException {
+        double pressure = dayForecast.getDouble(OWM_PRESSURE);
+        int humidity = dayForecast.getInt(OWM_HUMIDITY);
+        double windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
+        double windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+        JSONObject weatherObject =
+                dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+        String description = weatherObject.getString(OWM_DESCRIPTION);
+        int weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+
+        // Temperatures are in a child object called "temp".  Try not to name variables
+        // "temp" when working with temperature.  It confuses everybody.
+        JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+        double high = temperatureObject.getDouble(OWM_MAX);
+        double low = temperatureObject.getDouble(OWM_MIN);
+
+        handler.onDay(dayIndex, weatherId, description, high, low,
+                pressure, humidity, windSpeed, windDirection);
+    }
+
+    /**
+     * Parses a 3 hour forecast which has already been read into memory, using the org.json
+     * object model.
+     *
+     * @throws JSONException if the String is not a well formed forecast
+     */
+    public static void parseHourly(String forecastJsonStr, HourlyForecastHandler handler)
+            throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                handler.onError(errorCode);
+                return;
+            }
+        }
+
+        JSONArray periodArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        handler.onCity(cityJson.getString(OWM_CITY_NAME),
+                cityCoord.getDouble(OWM_LATITUDE), cityCoord.getDouble(OWM_LONGITUDE));
+
+        for (int i = 0; i < periodArray.length(); i++) {
+            JSONObject periodForecast = periodArray.getJSONObject(i);
+            JSONObject mainObject = periodForecast.getJSONObject(OWM_MAIN);
+            JSONObject windObject = periodForecast.getJSONObject(OWM_WIND);
+            int weatherId = periodForecast.getJSONArray(OWM_WEATHER).getJSONObject(0)
+                    .getInt(OWM_WEATHER_ID);
+
+            handler.onPeriod(i, periodForecast.getLong(OWM_TIME) * 1000, weatherId,
+                    mainObject.getDouble(OWM_TEMPERATURE),
+                    mainObject.getDouble(OWM_PRESSURE),
+                    mainObject.getInt(OWM_HUMIDITY),
+                    windObject.getDouble(OWM_WINDSPEED),
+                    windObject.getDouble(OWM_WIND_DIRECTION));
+        }
+    }
+}
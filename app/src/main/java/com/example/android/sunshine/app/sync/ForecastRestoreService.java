@@ -0,0 +1,21 @@
+package com.example.android.sunshine.app.sync;
+
+import android.app.IntentService;
+import android.content.Intent;
+
+/**
+ * Fills the database from the forecast cache when the app starts with an empty one, which is
+ * what an update that changes the database schema leaves behind.  Does nothing otherwise.
+ */
+public class ForecastRestoreService extends IntentService {
+    private static final String TAG = "ForecastRestoreService";
+
+    public ForecastRestoreService() {
+        super(TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        new SunshineSyncAdapter(this, false).restoreFromCache();
+    }
+}
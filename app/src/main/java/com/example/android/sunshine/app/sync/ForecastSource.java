@@ -0,0 +1,67 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Where the sync gets its forecasts from.  {@link OwmForecastSource} downloads them from
+ * OpenWeatherMap; tests and load runs can plug in a source of their own with
+ * {@link SunshineSyncAdapter#setForecastSource(ForecastSource)}.
+ * <p/>
+ * Responses look like HTTP ones whatever the source, since that is what the sync makes its
+ * decisions on: the status code, the validators and Retry-After.  Sources are called from
+ * several threads at once, one location per thread.
+ */
+interface ForecastSource {
+
+    /**
+     * @return what the circuit breaker keeps its state under, the same for as long as the
+     * forecasts come from the same place.
+     */
+    String getName();
+
+    /**
+     * @return whether {@link #fetchHourly(String, SyncMetrics)} can be called.
+     */
+    boolean hasHourly();
+
+    /**
+     * Asks for the daily forecast of a location.
+     *
+     * @param validators if not null, the forecast is only sent if it changed since the one
+     *                   they describe.  Otherwise the response is HTTP_NOT_MODIFIED.
+     * @return the response, which must be closed.
+     */
+    Response fetchDaily(String locationSetting, int numDays, ForecastValidators validators,
+                        SyncMetrics metrics) throws IOException;
+
+    /**
+     * Asks for the 3 hour forecast of a location.
+     *
+     * @return the response, which must be closed.
+     */
+    Response fetchHourly(String locationSetting, SyncMetrics metrics) throws IOException;
+
+    interface Response {
+        int getCode();
+
+        String getHeader(String name);
+
+        /**
+         * @return the body, which {@link #close()} closes.
+         */
+        BufferedReader getReader() throws IOException;
+
+        /**
+         * @return the body bytes read so far, as they were sent.
+         */
+        long getBytesRead();
+
+        /**
+         * @return how long reading the body has spent waiting for the source so far.
+         */
+        long getReadNanos();
+
+        void close();
+    }
+}
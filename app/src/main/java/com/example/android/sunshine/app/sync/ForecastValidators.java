@@ -0,0 +1,83 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Remembers the ETag and Last-Modified validators of the forecast last stored for each location
+ * setting, so that the next sync can ask the server whether anything changed at all.
+ * <p/>
+ * They live in their own preferences file rather than the default one, because
+ * SettingsActivity reacts to every change of the default preferences.
+ */
+class ForecastValidators {
+    private static final String PREFS_NAME = "forecast_validators";
+    private static final String KEY_ETAG_PREFIX = "etag_";
+    private static final String KEY_LAST_MODIFIED_PREFIX = "last_modified_";
+
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final SharedPreferences mPrefs;
+
+    ForecastValidators(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Turns the request into a conditional GET, if we have validators for this location.
+     * Must be called before the connection is opened.
+     */
+    void applyTo(HttpURLConnection connection, String locationSetting) {
+        String eTag = mPrefs.getString(KEY_ETAG_PREFIX + locationSetting, null);
+        if (eTag != null) {
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, eTag);
+        }
+        String lastModified = mPrefs.getString(KEY_LAST_MODIFIED_PREFIX + locationSetting, null);
+        if (lastModified != null) {
+            connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    String getETag(String locationSetting) {
+        return mPrefs.getString(KEY_ETAG_PREFIX + locationSetting, null);
+    }
+
+    String getLastModified(String locationSetting) {
+        return mPrefs.getString(KEY_LAST_MODIFIED_PREFIX + locationSetting, null);
+    }
+
+    /**
+     * Keeps the validators of a response whose forecast has been stored.  A response without
+     * validators clears the old ones, since they no longer describe what we have.
+     */
+    void save(String locationSetting, String eTag, String lastModified) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        putOrRemove(editor, KEY_ETAG_PREFIX + locationSetting, eTag);
+        putOrRemove(editor, KEY_LAST_MODIFIED_PREFIX + locationSetting, lastModified);
+        editor.apply();
+    }
+
+    void clear(String locationSetting) {
+        mPrefs.edit()
+                .remove(KEY_ETAG_PREFIX + locationSetting)
+                .remove(KEY_LAST_MODIFIED_PREFIX + locationSetting)
+                .apply();
+    }
+
+    static void clearAll(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, String value) {
+        if (value != null) {
+            editor.putString(key, value);
+        } else {
+            editor.remove(key);
+        }
+    }
+}
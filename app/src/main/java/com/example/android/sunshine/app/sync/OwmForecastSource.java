@@ -0,0 +1,113 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Downloads forecasts from OpenWeatherMap, or from a server which answers the same way.
+ */
+class OwmForecastSource implements ForecastSource {
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    static final String HOURLY_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast?";
+
+    private final String mForecastBaseUrl;
+    private final String mHourlyForecastBaseUrl;
+    private final ForecastHttpClient mHttpClient;
+
+    OwmForecastSource(ForecastHttpClient httpClient) {
+        this(FORECAST_BASE_URL, HOURLY_FORECAST_BASE_URL, httpClient);
+    }
+
+    /**
+     * @param hourlyForecastBaseUrl may be null, if the server has no 3 hour forecast.
+     */
+    OwmForecastSource(String forecastBaseUrl, String hourlyForecastBaseUrl,
+                      ForecastHttpClient httpClient) {
+        mForecastBaseUrl = forecastBaseUrl;
+        mHourlyForecastBaseUrl = hourlyForecastBaseUrl;
+        mHttpClient = httpClient;
+    }
+
+    String getForecastBaseUrl() {
+        return mForecastBaseUrl;
+    }
+
+    /**
+     * @return the host and port of the server, since that is what goes down.
+     */
+    @Override
+    public String getName() {
+        return Uri.parse(mForecastBaseUrl).getEncodedAuthority();
+    }
+
+    @Override
+    public boolean hasHourly() {
+        return mHourlyForecastBaseUrl != null;
+    }
+
+    @Override
+    public ForecastHttpClient.Response fetchDaily(String locationSetting, int numDays,
+                                                  ForecastValidators validators,
+                                                  SyncMetrics metrics) throws IOException {
+        long urlBuildStart = System.nanoTime();
+        // Construct the URL for the OpenWeatherMap query
+        final String DAYS_PARAM = "cnt";
+
+        Uri builtUri = buildForecastUri(mForecastBaseUrl, locationSetting)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .build();
+
+        URL url = new URL(builtUri.toString());
+        metrics.addUrlBuild(System.nanoTime() - urlBuildStart);
+
+        // Create the request to OpenWeatherMap, and open the connection
+        HttpURLConnection urlConnection = mHttpClient.open(url);
+        if (validators != null) {
+            validators.applyTo(urlConnection, locationSetting);
+        }
+        return execute(urlConnection, metrics);
+    }
+
+    @Override
+    public ForecastHttpClient.Response fetchHourly(String locationSetting, SyncMetrics metrics)
+            throws IOException {
+        long urlBuildStart = System.nanoTime();
+        URL url = new URL(
+                buildForecastUri(mHourlyForecastBaseUrl, locationSetting).build().toString());
+        metrics.addUrlBuild(System.nanoTime() - urlBuildStart);
+        return execute(mHttpClient.open(url), metrics);
+    }
+
+    private ForecastHttpClient.Response execute(HttpURLConnection connection, SyncMetrics metrics)
+            throws IOException {
+        long connectStart = System.nanoTime();
+        try {
+            return mHttpClient.execute(connection);
+        } finally {
+            metrics.addConnect(System.nanoTime() - connectStart);
+        }
+    }
+
+    private static Uri.Builder buildForecastUri(String baseUrl, String locationQuery) {
+        final String QUERY_PARAM = "q";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String APPID_PARAM = "APPID";
+
+        return Uri.parse(baseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, "json")
+                .appendQueryParameter(UNITS_PARAM, "metric")
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+}
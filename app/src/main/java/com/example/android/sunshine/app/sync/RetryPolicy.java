@@ -0,0 +1,43 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * How long to wait before trying the server again after a sync could not reach it.
+ * <p/>
+ * The wait doubles with every consecutive failure, from {@link #BASE_DELAY} up to
+ * {@link #MAX_DELAY}.  Only half of it is fixed; the other half is random, so that the devices
+ * which lost the server at the same moment don't all come back at the same moment too.  Until
+ * the wait reaches its cap, even the jitter can't make a longer run of failures wait less
+ * than a shorter one.
+ */
+class RetryPolicy {
+
+    // In seconds, like SyncResult.delayUntil
+    static final int BASE_DELAY = 30;
+    static final int MAX_DELAY = 60 * 60;
+
+    private final Random mRandom;
+
+    RetryPolicy() {
+        this(new Random());
+    }
+
+    RetryPolicy(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * @param failures          how many syncs in a row have failed, including the last one.
+     * @param retryAfterSeconds what the server asked for in a Retry-After header, or 0.
+     * @return the seconds to wait before the next attempt.
+     */
+    int getDelaySeconds(int failures, int retryAfterSeconds) {
+        int ceiling = BASE_DELAY << Math.min(Math.max(failures, 1) - 1, 16);
+        ceiling = Math.min(ceiling, MAX_DELAY);
+        int half = ceiling / 2;
+        int delay = half + mRandom.nextInt(ceiling - half + 1);
+        // A server that says when it will be back knows better than we do, within reason
+        return Math.min(Math.max(delay, retryAfterSeconds), MAX_DELAY);
+    }
+}
@@ -2,56 +2,51 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
+import android.annotation.TargetApi;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
-import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
-import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.example.android.sunshine.app.wear.WearSyncService;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -61,23 +56,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
-    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
 
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {
@@ -89,451 +69,937 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // How many locations are downloaded at the same time
+    private static final int MAX_CONCURRENT_FETCHES = 4;
+
+    // Not in HttpURLConnection, but sent by servers which are rate limiting us
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    private static final SyncRequests.Requester FRAMEWORK_REQUESTER =
+            new SyncRequests.Requester() {
+                @Override
+                public void requestSync(Context context) {
+                    Bundle bundle = new Bundle();
+                    bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+                    bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+                    ContentResolver.requestSync(getSyncAccount(context),
+                            context.getString(R.string.content_authority), bundle);
+                }
+            };
+
+    // One for the whole process, which is where every sync and every request for one happens
+    private static volatile SyncRequests sSyncRequests = new SyncRequests(FRAMEWORK_REQUESTER);
+
+    private SyncClock mClock = SyncClock.SYSTEM;
+    private final ForecastHttpClient mHttpClient = new ForecastHttpClient();
+    private ForecastSource mForecastSource = new OwmForecastSource(mHttpClient);
+    private final RetryPolicy mRetryPolicy = new RetryPolicy();
+    private final SyncScheduler mSyncScheduler;
+    private final ForecastCache mForecastCache;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mSyncScheduler = SyncScheduler.create(context);
+        mForecastCache = new ForecastCache(context);
+    }
+
+    /**
+     * Points the sync at another server, so that tests can run it against a local one.  The
+     * 3 hour forecast is left out until {@link #setHourlyForecastBaseUrl(String)} points it at
+     * the test server too.
+     */
+    void setForecastBaseUrl(String forecastBaseUrl) {
+        mForecastSource = new OwmForecastSource(forecastBaseUrl, null, mHttpClient);
+    }
+
+    void setHourlyForecastBaseUrl(String hourlyForecastBaseUrl) {
+        OwmForecastSource source = (OwmForecastSource) mForecastSource;
+        mForecastSource = new OwmForecastSource(source.getForecastBaseUrl(),
+                hourlyForecastBaseUrl, mHttpClient);
+    }
+
+    /**
+     * Takes the forecasts from somewhere other than OpenWeatherMap.
+     */
+    void setForecastSource(ForecastSource forecastSource) {
+        mForecastSource = forecastSource;
+    }
+
+    /**
+     * Lets tests move time along to see the circuit breaker close again.
+     */
+    void setSyncClock(SyncClock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Hands the syncs {@link #syncImmediately(Context)} asks for to requester instead of the
+     * framework, so that tests can run them, or back to the framework if it is null.
+     */
+    static void setSyncRequester(SyncRequests.Requester requester) {
+        sSyncRequests = new SyncRequests(requester == null ? FRAMEWORK_REQUESTER : requester);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
+        SyncRequests requests = sSyncRequests;
+        List<String> locationSettings = requests.onSyncStarted(getContext());
+        try {
+            performSync(locationSettings, requests, syncResult);
+        } finally {
+            requests.onSyncFinished();
+        }
+    }
+
+    private void performSync(List<String> locationSettings, SyncRequests requests,
+                             SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        // If the database was dropped, show the cached forecast while the sync goes for a new
+        // one, or instead of it when there's no network
+        restoreFromCache();
+
+        CircuitBreaker breaker = new CircuitBreaker(getContext(), mForecastSource.getName(),
+                mRetryPolicy, mClock);
+        if (breaker.isOpen()) {
+            // The server was down the last few times.  Don't ask again before it is due, and
+            // tell the framework not to start us again before then either.
+            Log.d(LOG_TAG, "Server down, not syncing until " + breaker.getOpenUntilMillis());
+            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            syncResult.delayUntil = breaker.getOpenUntilMillis() / 1000;
+            return;
+        }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        mForecastCache.retainOnly(locationSettings);
+        final ForecastValidators validators = new ForecastValidators(getContext());
+        final SyncMetrics metrics = new SyncMetrics();
+        metrics.setLocations(locationSettings.size());
+
+        // Every location spends most of its time waiting on the network, so fetch them side by
+        // side.  The pool is bounded so a long list of saved locations can't open a connection
+        // per location all at once.
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(locationSettings.size(), MAX_CONCURRENT_FETCHES));
+        List<Future<LocationFetch>> futures = new ArrayList<Future<LocationFetch>>();
+        for (final String locationSetting : locationSettings) {
+            futures.add(executor.submit(new Callable<LocationFetch>() {
+                @Override
+                public LocationFetch call() {
+                    return fetchLocation(locationSetting, validators, metrics);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        List<LocationFetch> fetches = new ArrayList<LocationFetch>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                fetches.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                // The sync was cancelled.  Whatever has been fetched so far is still worth
+                // keeping.
+                Log.w(LOG_TAG, "Sync interrupted", e);
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error fetching " + locationSettings.get(i), e.getCause());
+                LocationFetch failed = new LocationFetch(locationSettings.get(i));
+                failed.mStatus = LOCATION_STATUS_SERVER_DOWN;
+                fetches.add(failed);
+            }
+        }
+
+        // Report what went wrong to the framework.  An I/O error is a soft error, which it
+        // retries with its own backoff; a forecast we can't read won't get better by retrying.
+        int retryAfterSeconds = 0;
+        for (LocationFetch fetch : fetches) {
+            if (fetch.mStatus == LOCATION_STATUS_SERVER_DOWN) {
+                syncResult.stats.numIoExceptions++;
+                retryAfterSeconds = Math.max(retryAfterSeconds, fetch.mRetryAfterSeconds);
+            } else if (fetch.mStatus == LOCATION_STATUS_SERVER_INVALID) {
+                syncResult.stats.numParseExceptions++;
+            }
+            if (fetch.mStatus != LOCATION_STATUS_OK) {
+                metrics.addFailed();
+            }
+        }
+
+        int changed = storeWeatherData(fetches, validators, metrics, false);
+
+        // Let the scheduler see how much the forecast moved, to decide when to look again
+        int received = 0;
+        boolean reachedServer = false;
+        for (LocationFetch fetch : fetches) {
+            if (fetch.mStatus == LOCATION_STATUS_OK) {
+                reachedServer = true;
+            }
+            if (fetch.mCollector != null) {
+                received += fetch.mCollector.mRows.size();
+            }
+        }
+        syncResult.stats.numEntries += received;
+        if (changed >= 0) {
+            syncResult.stats.numUpdates += changed;
+        } else {
+            syncResult.databaseError = true;
+        }
+
+        if (reachedServer) {
+            breaker.onSuccess();
+        } else if (syncResult.stats.numIoExceptions > 0) {
+            int delay = breaker.onFailure(retryAfterSeconds);
+            syncResult.delayUntil = mClock.currentTimeMillis() / 1000 + delay;
+            Log.d(LOG_TAG, "Server down, retrying in " + delay + "s");
+        }
+
+        if (reachedServer && changed >= 0) {
+            mSyncScheduler.onSyncSucceeded(received, changed);
+        } else {
+            mSyncScheduler.onSyncFailed();
+        }
+        metrics.setMergedRequests(requests.takeMerged());
+        metrics.save(getContext());
+
+        // Whatever didn't make it into the database doesn't replace the cached responses
+        for (LocationFetch fetch : fetches) {
+            fetch.abortCache();
+        }
+    }
+
+    /**
+     * Downloads and parses the forecasts for a single location.  Runs on a worker thread and
+     * doesn't write anything, so several of these can run at once.
+     */
+    private LocationFetch fetchLocation(String locationQuery, ForecastValidators validators,
+                                        SyncMetrics metrics) {
+        LocationFetch fetch = fetchDaily(locationQuery, validators, metrics);
+        // The 3 hour forecast goes over the connection the daily one just handed back
+        if (fetch.mStatus == LOCATION_STATUS_OK && mForecastSource.hasHourly()) {
+            fetchHourly(fetch, metrics);
+        }
+        return fetch;
+    }
+
+    private LocationFetch fetchDaily(String locationQuery, ForecastValidators validators,
+                                     SyncMetrics metrics) {
+        LocationFetch fetch = new LocationFetch(locationQuery);
+
+        // Needs to be declared outside the try/catch so that it can be closed in the finally
+        // block.
+        ForecastSource.Response response = null;
 
         // Will contain the raw JSON response as a string.
         String forecastJsonStr = null;
 
-        String format = "json";
-        String units = "metric";
         int numDays = 14;
 
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+            // Only ask whether the forecast changed if we still have the one the validators
+            // describe.  The database may have been cleared since they were saved, and the
+            // cache may not have a copy yet.
+            ForecastValidators conditional = validators;
+            if (!hasForecastFor(locationQuery)
+                    || mForecastCache.getTime(locationQuery, ForecastCache.KIND_DAILY) == 0) {
+                validators.clear(locationQuery);
+                conditional = null;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
+            response = mForecastSource.fetchDaily(locationQuery, numDays, conditional, metrics);
+
+            if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // Nothing changed since the last sync, so there is nothing to parse, store or
+                // tell anybody about.
+                metrics.addNotModified();
+                fetch.mStatus = LOCATION_STATUS_OK;
+                return fetch;
+            }
+            if (response.getCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || response.getCode() == HTTP_TOO_MANY_REQUESTS) {
+                // The server is there but can't serve us right now, and may say for how long
+                fetch.mRetryAfterSeconds = parseRetryAfter(response.getHeader(HEADER_RETRY_AFTER));
+                fetch.mStatus = LOCATION_STATUS_SERVER_DOWN;
+                return fetch;
+            }
+            if (response.getCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                    && response.getCode() < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                // The server is up and turned the request down.  Asking again won't change its
+                // answer, so this isn't a failure to back off from.  There's no forecast to
+                // read either: the connection only has an error stream.
+                fetch.mStatus = response.getCode() == HttpURLConnection.HTTP_NOT_FOUND
+                        ? LOCATION_STATUS_INVALID : LOCATION_STATUS_SERVER_INVALID;
+                return fetch;
+            }
+
+            BufferedReader reader = response.getReader();
+            // Parsing pulls the body off the network as it goes.  Whatever time wasn't spent
+            // waiting for the network was spent parsing.
+            long bodyStart = System.nanoTime();
+
+            ForecastRowCollector collector = new ForecastRowCollector();
+            fetch.mDailyCache = newCacheEntry(locationQuery, ForecastCache.KIND_DAILY);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                // Parse straight off the connection, so the response is never held in memory.
+                // The cache gets a copy as it goes by.
+                parseForecast(fetch.mDailyCache == null ? reader : fetch.mDailyCache.tee(reader),
+                        collector);
+            } else {
+                // Read the input stream into a String
+                StringBuilder buffer = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+                    // But it does make debugging a *lot* easier if you print out the completed
+                    // buffer for debugging.
+                    buffer.append(line).append('\n');
+                }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+                if (buffer.length() == 0) {
+                    // Stream was empty.  No point in parsing.
+                    fetch.mStatus = LOCATION_STATUS_SERVER_DOWN;
+                    return fetch;
+                }
+                forecastJsonStr = buffer.toString();
+                if (fetch.mDailyCache != null) {
+                    fetch.mDailyCache.write(forecastJsonStr);
+                }
+                ForecastParser.parse(forecastJsonStr, collector);
             }
+            metrics.addParse(System.nanoTime() - bodyStart - response.getReadNanos());
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            switch (collector.mErrorCode) {
+                case 0:
+                    if (collector.mCityName == null && collector.mRows.size() > 0) {
+                        throw new JSONException("Forecast has no " + ForecastParser.OWM_CITY);
+                    }
+                    fetch.mCollector = collector;
+                    fetch.mETag = response.getHeader(ForecastValidators.HEADER_ETAG);
+                    fetch.mLastModified =
+                            response.getHeader(ForecastValidators.HEADER_LAST_MODIFIED);
+                    fetch.mStatus = LOCATION_STATUS_OK;
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    fetch.mStatus = LOCATION_STATUS_INVALID;
+                    break;
+                default:
+                    fetch.mStatus = LOCATION_STATUS_SERVER_DOWN;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            fetch.mStatus = LOCATION_STATUS_SERVER_DOWN;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            fetch.mStatus = LOCATION_STATUS_SERVER_INVALID;
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+            if (response != null) {
+                // Leaves the connection in the pool for the next location, if it can
+                response.close();
+                metrics.addDownload(response.getReadNanos(), response.getBytesRead());
             }
         }
-        return;
+        return fetch;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p/>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Downloads and parses the 3 hour forecast for a location whose daily forecast came
+     * through.  It only adds detail, so the location's status doesn't depend on it: if it
+     * can't be had, the periods stored so far are kept until the next sync.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+    private void fetchHourly(LocationFetch fetch, SyncMetrics metrics) {
+        ForecastSource.Response response = null;
+        try {
+            response = mForecastSource.fetchHourly(fetch.mLocationSetting, metrics);
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, "No 3 hour forecast for " + fetch.mLocationSetting + ", HTTP "
+                        + response.getCode());
+                return;
+            }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+            BufferedReader reader = response.getReader();
+            long bodyStart = System.nanoTime();
+            HourlyRowCollector collector = new HourlyRowCollector();
+            fetch.mHourlyCache = newCacheEntry(fetch.mLocationSetting, ForecastCache.KIND_HOURLY);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                parseHourlyForecast(fetch.mHourlyCache == null ? reader : fetch.mHourlyCache.tee(reader),
+                        collector);
+            } else {
+                String forecastJsonStr = readFully(reader);
+                if (fetch.mHourlyCache != null) {
+                    fetch.mHourlyCache.write(forecastJsonStr);
+                }
+                ForecastParser.parseHourly(forecastJsonStr, collector);
+            }
+            metrics.addParse(System.nanoTime() - bodyStart - response.getReadNanos());
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+            if (collector.mErrorCode == 0) {
+                fetch.mHourlyCollector = collector;
+            } else {
+                Log.w(LOG_TAG, "No 3 hour forecast for " + fetch.mLocationSetting + ", error "
+                        + collector.mErrorCode);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+        } finally {
+            if (response != null) {
+                response.close();
+                metrics.addDownload(response.getReadNanos(), response.getBytesRead());
+            }
+        }
+    }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    /**
+     * @return an entry for the response about to be parsed, or null if it can't be cached.  A
+     * forecast which can't be cached is still worth storing.
+     */
+    private ForecastCache.Entry newCacheEntry(String locationSetting, String kind) {
+        try {
+            return mForecastCache.newEntry(locationSetting, kind);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Not caching the forecast for " + locationSetting, e);
+            return null;
+        }
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * Fills an empty database from the forecasts the cache kept from earlier syncs, without
+     * going to the network.  After an update has dropped the database, this is what makes the
+     * forecast show up again right away, even offline.
+     *
+     * @return true if any forecast was restored.
+     */
+    boolean restoreFromCache() {
+        if (hasAnyWeather()) {
+            return false;
+        }
+        ForecastValidators validators = new ForecastValidators(getContext());
+        List<LocationFetch> fetches = new ArrayList<LocationFetch>();
+        for (String locationSetting : Utility.getSyncLocations(getContext())) {
+            LocationFetch fetch = restoreLocation(locationSetting, validators);
+            if (fetch.hasDailyRows() || fetch.hasHourlyRows()) {
+                fetches.add(fetch);
+            }
+        }
+        if (fetches.isEmpty()) {
+            return false;
+        }
+        Log.d(LOG_TAG, "Restoring " + fetches.size() + " Locations from the cache");
+        return storeWeatherData(fetches, validators, new SyncMetrics(), true) >= 0;
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    private LocationFetch restoreLocation(String locationSetting, ForecastValidators validators) {
+        LocationFetch fetch = new LocationFetch(locationSetting);
+        fetch.mStatus = LOCATION_STATUS_OK;
+        // The validators were saved along with the cached response, so they still describe it
+        fetch.mETag = validators.getETag(locationSetting);
+        fetch.mLastModified = validators.getLastModified(locationSetting);
 
+        Reader reader = null;
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            reader = mForecastCache.open(locationSetting, ForecastCache.KIND_DAILY);
+            if (reader != null) {
+                // The first day of a cached forecast is the day it was downloaded on
+                ForecastRowCollector collector = new ForecastRowCollector(
+                        mForecastCache.getTime(locationSetting, ForecastCache.KIND_DAILY));
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    parseForecast(reader, collector);
+                } else {
+                    ForecastParser.parse(readFully(reader), collector);
                 }
+                if (collector.mErrorCode == 0) {
+                    fetch.mCollector = collector;
+                }
+                reader.close();
+                reader = null;
             }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+            reader = mForecastCache.open(locationSetting, ForecastCache.KIND_HOURLY);
+            if (reader != null) {
+                HourlyRowCollector collector = new HourlyRowCollector();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    parseHourlyForecast(reader, collector);
+                } else {
+                    ForecastParser.parseHourly(readFully(reader), collector);
+                }
+                if (collector.mErrorCode == 0) {
+                    fetch.mHourlyCollector = collector;
+                }
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Error restoring the cached forecast for " + locationSetting, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Nothing more we can do
+                }
+            }
+        }
+        return fetch;
+    }
 
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
+    private static String readFully(Reader reader) throws IOException {
+        StringBuilder buffer = new StringBuilder();
+        char[] chars = new char[4096];
+        int read;
+        while ((read = reader.read(chars)) != -1) {
+            buffer.append(chars, 0, read);
+        }
+        return buffer.toString();
+    }
 
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void parseHourlyForecast(Reader forecastReader, HourlyRowCollector collector)
+            throws IOException, JSONException {
+        ForecastParser.parseHourly(forecastReader, collector);
+    }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+    /**
+     * @return the seconds a Retry-After header asks for, or 0 if there is none.  Only the
+     * delta-seconds form is understood; a date is treated as no header at all.
+     */
+    private static int parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * Read the forecast straight off the network stream, building one row per day as soon as
+     * that day has been parsed.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void parseForecast(Reader forecastReader, ForecastRowCollector collector)
+            throws IOException, JSONException {
+        ForecastParser.parse(forecastReader, collector);
+    }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+    /**
+     * Writes every fetched forecast, daily and 3 hourly, the locations it belongs to and the
+     * removal of the days and periods that are now in the past as a single batch.  The
+     * provider applies it in one transaction and notifies each affected URI once, after the
+     * commit.  If any row actually changed, everybody interested is told that there is new
+     * weather.
+     *
+     * @param restoring true if the forecasts come from the cache rather than the server.  They
+     *                  say nothing about whether the server can be reached, and aren't news
+     *                  worth a notification.
+     * @return the number of weather rows that changed, or -1 if the batch could not be applied.
+     */
+    private int storeWeatherData(List<LocationFetch> fetches, ForecastValidators validators,
+                                 SyncMetrics metrics, boolean restoring) {
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+        List<LocationFetch> received = new ArrayList<LocationFetch>();
+        for (LocationFetch fetch : fetches) {
+            if (!restoring && fetch.mLocationSetting.equals(preferredLocation)) {
+                setLocationStatus(getContext(), fetch.mStatus);
+            }
+            if (fetch.hasDailyRows() || fetch.hasHourlyRows()) {
+                received.add(fetch);
+            }
+        }
+        if (received.isEmpty()) {
+            Log.d(LOG_TAG, "Sync Complete. " + fetches.size() + " Locations, nothing new");
+            return 0;
+        }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+        Map<String, Long> locationIds = getLocationIds(received);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        List<Integer> weatherOperations = new ArrayList<Integer>();
+        int hourlyRows = 0;
+        int julianStartDay = -1;
+
+        for (LocationFetch fetch : received) {
+            // Either forecast knows where the location is
+            ResponseCollector city = fetch.hasDailyRows() ? fetch.mCollector : fetch.mHourlyCollector;
+            Long locationId = locationIds.get(fetch.mLocationSetting);
+            int locationOperation = -1;
+            if (locationId == null) {
+                // A new location.  Its weather rows pick up the row ID from the result of this
+                // insert, further down the same batch.
+                locationOperation = operations.size();
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withValue(WeatherContract.LocationEntry.COLUMN_CITY_NAME, city.mCityName)
+                        .withValue(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, fetch.mLocationSetting)
+                        .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LAT, city.mCityLatitude)
+                        .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LONG, city.mCityLongitude)
+                        .build());
+            }
+            if (fetch.hasDailyRows()) {
+                for (ContentValues weatherValues : fetch.mCollector.mRows) {
+                    weatherOperations.add(operations.size());
+                    operations.add(buildLocationInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                            weatherValues, WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                            locationId, locationOperation));
+                }
+                julianStartDay = fetch.mCollector.mJulianStartDay;
+            }
+            if (fetch.hasHourlyRows()) {
+                for (ContentValues hourlyValues : fetch.mHourlyCollector.mRows) {
+                    operations.add(buildLocationInsert(WeatherContract.HourlyWeatherEntry.CONTENT_URI,
+                            hourlyValues, WeatherContract.HourlyWeatherEntry.COLUMN_LOC_KEY,
+                            locationId, locationOperation));
+                }
+                hourlyRows += fetch.mHourlyCollector.mRows.size();
+            }
+        }
 
+        // move old data into the archive, so the weather table only holds the forecast
+        int weatherDeleteOperation = -1;
+        if (julianStartDay != -1) {
             Time dayTime = new Time();
-            dayTime.setToNow();
+            weatherDeleteOperation = operations.size();
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.buildWeatherArchivingUri())
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))})
+                    .build());
+        }
+        if (hourlyRows > 0) {
+            // A period is over once its 3 hours have passed
+            long periodsOver = mClock.currentTimeMillis()
+                    - WeatherContract.HourlyWeatherEntry.PERIOD_MILLIS;
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.HourlyWeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.HourlyWeatherEntry.COLUMN_TIME + " <= ?",
+                            new String[]{Long.toString(periodsOver)})
+                    .build());
+        }
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        ContentProviderResult[] results;
+        long dbWriteStart = System.nanoTime();
+        try {
+            results = getContext().getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error storing the forecast", e);
+            return -1;
+        }
+        // The writes and the delete of the old rows together, one transaction can't be timed
+        // in parts
+        long dbWriteNanos = System.nanoTime() - dbWriteStart;
+
+        // Only now that the rows are in do the validators and the cache describe what we have
+        for (LocationFetch fetch : received) {
+            validators.save(fetch.mLocationSetting, fetch.mETag, fetch.mLastModified);
+            fetch.commitCache();
+        }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
-
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                getContext().startService(new Intent(getContext(), WearSyncService.class));
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        // The provider reports a weather row that was already stored as it is with a count of
+        // 0 rather than a URI.  If the whole forecast is the same as the one we had, the
+        // widgets, Muzei, the notification and the watch are already showing it.
+        int changed = 0;
+        for (int index : weatherOperations) {
+            if (results[index].uri != null) {
+                changed++;
+            }
+        }
+        metrics.setDbWrite(dbWriteNanos, weatherOperations.size(), changed,
+                weatherDeleteOperation == -1 ? 0 : results[weatherDeleteOperation].count);
+
+        if (changed > 0) {
+            long fanOutStart = System.nanoTime();
+            // Before the fan-out, so that the notification finds the art in the cache too
+            prefetchArt(received, preferredLocation);
+            new FanOutDispatcher(getContext()).dispatch(getToday(received, preferredLocation),
+                    !restoring);
+            metrics.setFanOut(System.nanoTime() - fanOutStart);
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + fetches.size() + " Locations, "
+                + weatherOperations.size() + " Received, " + changed + " Changed, "
+                + hourlyRows + " 3 Hour Periods");
+        return changed;
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        }
-    }
-
-    private void updateWidgets() {
-        Context context = getContext();
-        // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
-        context.sendBroadcast(dataUpdatedIntent);
-    }
-
-    private void updateMuzei() {
-        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
-        // Muzei background on lower API level devices
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
-        }
-    }
-
-    private void notifyWeather() {
-        Context context = getContext();
-        //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if (displayNotifications) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+    /**
+     * Builds the insert of a row which belongs to a location, either one already stored or
+     * one inserted earlier in the same batch.
+     */
+    private static ContentProviderOperation buildLocationInsert(Uri uri, ContentValues values,
+                                                                String locationKey,
+                                                                Long locationId,
+                                                                int locationOperation) {
+        ContentProviderOperation.Builder builder = ContentProviderOperation
+                .newInsert(uri)
+                .withValues(values);
+        if (locationOperation == -1) {
+            builder.withValue(locationKey, locationId);
+        } else {
+            builder.withValueBackReference(locationKey, locationOperation);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Downloads the art for the forecast the app shows, the preferred location's, so the first
+     * scroll through it after the sync doesn't have to.
+     */
+    private void prefetchArt(List<LocationFetch> received, String preferredLocation) {
+        for (LocationFetch fetch : received) {
+            if (fetch.mLocationSetting.equals(preferredLocation) && fetch.hasDailyRows()) {
+                new ArtPrefetcher(getContext()).prefetch(fetch.mCollector.mRows);
+            }
+        }
+    }
+
+    /**
+     * Takes today's weather for the preferred location from the forecast just stored, and only
+     * goes back to the provider when this sync did not receive today for that location.
+     */
+    private TodaySnapshot getToday(List<LocationFetch> received, String preferredLocation) {
+        // A forecast restored from the cache starts on the day it was downloaded, which may
+        // be long gone, so look today up by its date rather than take the first day
+        long today = new ForecastRowCollector(mClock.currentTimeMillis()).getDate(0);
+        for (LocationFetch fetch : received) {
+            if (fetch.mLocationSetting.equals(preferredLocation) && fetch.hasDailyRows()) {
+                for (ContentValues weatherValues : fetch.mCollector.mRows) {
+                    if (weatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)
+                            == today) {
+                        return TodaySnapshot.fromValues(getContext(), preferredLocation,
+                                weatherValues);
                     }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
                 }
-                cursor.close();
             }
         }
+        return TodaySnapshot.query(getContext(), preferredLocation);
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Looks up the row IDs of the locations that are already in the database, with a single
+     * query for all of them.
      *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName        A human-readable city name, e.g "Mountain View"
-     * @param lat             the latitude of the city
-     * @param lon             the longitude of the city
-     * @return the row ID of the added location.
+     * @return the row ID of every known location, by location setting.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
+    private Map<String, Long> getLocationIds(List<LocationFetch> fetches) {
+        StringBuilder selection = new StringBuilder(
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " IN (");
+        String[] selectionArgs = new String[fetches.size()];
+        for (int i = 0; i < fetches.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = fetches.get(i).mLocationSetting;
+        }
+        selection.append(')');
 
-        // First, check if the location with this city name exists in the db
+        Map<String, Long> locationIds = new HashMap<String, Long>();
         Cursor locationCursor = getContext().getContentResolver().query(
                 WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection.toString(),
+                selectionArgs,
                 null);
+        if (locationCursor != null) {
+            while (locationCursor.moveToNext()) {
+                locationIds.put(locationCursor.getString(1), locationCursor.getLong(0));
+            }
+            locationCursor.close();
+        }
+        return locationIds;
+    }
 
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
+    /**
+     * @return true if the database holds any daily weather at all.
+     */
+    private boolean hasAnyWeather() {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI.buildUpon().appendQueryParameter(
+                        WeatherContract.WeatherEntry.PARAM_LIMIT, "1").build(),
+                new String[]{WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasWeather = cursor.moveToFirst();
+        cursor.close();
+        return hasWeather;
+    }
 
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+    /**
+     * @return true if the database holds a forecast for the location from today on.
+     */
+    private boolean hasForecastFor(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, mClock.currentTimeMillis(), 0, 1),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
 
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
+    /**
+     * What a single location's fetch came back with.  mCollector is only set when the server
+     * sent a new forecast; a 304 leaves it null with a status of LOCATION_STATUS_OK.
+     * mHourlyCollector is only set when the 3 hour forecast could be had as well.
+     */
+    private static class LocationFetch {
+        final String mLocationSetting;
+        @LocationStatus int mStatus = LOCATION_STATUS_UNKNOWN;
+        ForecastRowCollector mCollector;
+        HourlyRowCollector mHourlyCollector;
+        ForecastCache.Entry mDailyCache;
+        ForecastCache.Entry mHourlyCache;
+        String mETag;
+        String mLastModified;
+        int mRetryAfterSeconds;
+
+        LocationFetch(String locationSetting) {
+            mLocationSetting = locationSetting;
+        }
 
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+        boolean hasDailyRows() {
+            return mCollector != null && !mCollector.mRows.isEmpty();
         }
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        boolean hasHourlyRows() {
+            return mHourlyCollector != null && !mHourlyCollector.mRows.isEmpty();
+        }
+
+        // Only the responses whose rows were stored go into the cache
+        void commitCache() {
+            if (mDailyCache != null && hasDailyRows()) {
+                mDailyCache.commit();
+            }
+            if (mHourlyCache != null && hasHourlyRows()) {
+                mHourlyCache.commit();
+            }
+        }
+
+        void abortCache() {
+            if (mDailyCache != null) {
+                mDailyCache.abort();
+            }
+            if (mHourlyCache != null) {
+                mHourlyCache.abort();
+            }
+        }
+    }
+
+    /**
+     * Keeps what every forecast response says about the request and the city.
+     */
+    private static class ResponseCollector implements ForecastParser.ResponseHandler {
+        String mCityName;
+        double mCityLatitude;
+        double mCityLongitude;
+        int mErrorCode;
+
+        @Override
+        public void onError(int errorCode) {
+            mErrorCode = errorCode;
+        }
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            mCityName = cityName;
+            mCityLatitude = lat;
+            mCityLongitude = lon;
+        }
+    }
+
+    /**
+     * Turns each parsed 3 hour period into a row for the hourly weather table.
+     */
+    private static class HourlyRowCollector extends ResponseCollector
+            implements ForecastParser.HourlyForecastHandler {
+        final List<ContentValues> mRows = new ArrayList<ContentValues>();
+
+        @Override
+        public void onPeriod(int periodIndex, long time, int weatherId, double temperature,
+                             double pressure, int humidity, double windSpeed,
+                             double windDirection) {
+            ContentValues hourlyValues = new ContentValues();
+
+            hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_TIME, time);
+            hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_WEATHER_ID, weatherId);
+            hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_TEMP, temperature);
+            hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_HUMIDITY, humidity);
+            hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_PRESSURE, pressure);
+            hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+            hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_DEGREES, windDirection);
+
+            mRows.add(hourlyValues);
+        }
+    }
+
+    /**
+     * Turns each parsed day into a row for the weather table.  The location key is filled in
+     * when the rows are stored, so parsing never has to touch the database.
+     */
+    private static class ForecastRowCollector extends ResponseCollector
+            implements ForecastParser.ForecastHandler {
+        final Vector<ContentValues> mRows = new Vector<ContentValues>();
+        final Time mDayTime;
+        final int mJulianStartDay;
+
+        ForecastRowCollector() {
+            this(System.currentTimeMillis());
+        }
+
+        /**
+         * @param downloadTime when the forecast was downloaded, since its first day is the day
+         *                     it was downloaded on.
+         */
+        ForecastRowCollector(long downloadTime) {
+            // OWM returns daily forecasts based upon the local time of the city that is being
+            // asked for, which means that we need to know the GMT offset to translate this data
+            // properly.
+
+            // Since this data is also sent in-order and the first day is always the
+            // current day, we're going to take advantage of that to get a nice
+            // normalized UTC date for all of our weather.
+
+            Time dayTime = new Time();
+            dayTime.set(downloadTime);
+
+            // we start at the day returned by local time. Otherwise this is a mess.
+            mJulianStartDay = Time.getJulianDay(downloadTime, dayTime.gmtoff);
+
+            // now we work exclusively in UTC
+            mDayTime = new Time();
+        }
+
+        long getDate(int dayIndex) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            return mDayTime.setJulianDay(mJulianStartDay + dayIndex);
+        }
+
+        @Override
+        public void onDay(int dayIndex, int weatherId, String description, double high,
+                          double low, double pressure, int humidity, double windSpeed,
+                          double windDirection) {
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, getDate(dayIndex));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+            mRows.add(weatherValues);
+        }
     }
 
     /**
@@ -556,16 +1022,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately, unless a sync that will fetch
+     * every location is already waiting to run or running.  See {@link SyncRequests}.
      *
      * @param context The context used to access the account service
+     * @return true if a sync was requested, false if the request was merged into another.
      */
-    public static void syncImmediately(Context context) {
-        Bundle bundle = new Bundle();
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+    public static boolean syncImmediately(Context context) {
+        return sSyncRequests.request(context);
     }
 
     /**
@@ -626,6 +1090,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        // After an update which dropped the database, this gets the forecast back from the
+        // cache long before a sync could
+        context.startService(new Intent(context, ForecastRestoreService.class));
     }
 
     /**
@@ -0,0 +1,17 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Where the sync scheduling code gets the time from.  Tests replace it to run a scheduling
+ * policy over weeks of simulated time.
+ */
+public interface SyncClock {
+
+    SyncClock SYSTEM = new SyncClock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    long currentTimeMillis();
+}
@@ -0,0 +1,66 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * What a {@link SyncPolicy} knows about the syncs that ran so far.  Rather than a list of past
+ * syncs, it keeps a running summary that fits in a few preferences.
+ */
+public class SyncHistory {
+
+    // How much the latest sync counts towards the volatility, against all the earlier ones
+    private static final float VOLATILITY_WEIGHT = 0.3f;
+
+    private float mVolatility;
+    private int mConsecutiveFailures;
+    private long mLastSyncMillis;
+
+    public SyncHistory() {
+    }
+
+    public SyncHistory(float volatility, int consecutiveFailures, long lastSyncMillis) {
+        mVolatility = volatility;
+        mConsecutiveFailures = consecutiveFailures;
+        mLastSyncMillis = lastSyncMillis;
+    }
+
+    /**
+     * Records a sync which reached the server.
+     *
+     * @param rowsReceived the number of weather rows the server sent, 0 if it sent nothing new
+     * @param rowsChanged  how many of those differed from the stored ones
+     */
+    public void recordSuccess(int rowsReceived, int rowsChanged, long nowMillis) {
+        // Any change at all says as much about the weather as how many days it touched
+        float change = 0f;
+        if (rowsChanged > 0 && rowsReceived > 0) {
+            change = 0.5f + 0.5f * Math.min(1f, (float) rowsChanged / rowsReceived);
+        }
+        mVolatility = VOLATILITY_WEIGHT * change + (1 - VOLATILITY_WEIGHT) * mVolatility;
+        mConsecutiveFailures = 0;
+        mLastSyncMillis = nowMillis;
+    }
+
+    /**
+     * Records a sync which could not get a forecast from the server.  The volatility is left
+     * alone, since nothing was learned about the forecast.
+     */
+    public void recordFailure(long nowMillis) {
+        mConsecutiveFailures++;
+        mLastSyncMillis = nowMillis;
+    }
+
+    /**
+     * @return between 0, when recent syncs found nothing new, and 1, when every recent sync
+     * found every row changed.
+     */
+    public float getVolatility() {
+        return mVolatility;
+    }
+
+    public int getConsecutiveFailures() {
+        return mConsecutiveFailures;
+    }
+
+    public long getLastSyncMillis() {
+        return mLastSyncMillis;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times the phases of one sync and counts what went through it, then stores the result as a
+ * row of the sync_metrics table.
+ * <p/>
+ * The fetch phases are recorded from the worker threads that download the locations
+ * concurrently, so they are kept in atomics.  The rest only ever runs on the sync thread.
+ */
+class SyncMetrics {
+    private final String LOG_TAG = SyncMetrics.class.getSimpleName();
+
+    private final long mStartTime = System.currentTimeMillis();
+    private final long mStartNanos = System.nanoTime();
+
+    private final AtomicLong mUrlBuildNanos = new AtomicLong();
+    private final AtomicLong mConnectNanos = new AtomicLong();
+    private final AtomicLong mDownloadNanos = new AtomicLong();
+    private final AtomicLong mParseNanos = new AtomicLong();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicInteger mNotModified = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+
+    private long mDbWriteNanos;
+    private long mFanOutNanos;
+    private int mLocations;
+    private int mRowsReceived;
+    private int mRowsChanged;
+    private int mRowsDeleted;
+    private int mMergedRequests;
+
+    void addUrlBuild(long nanos) {
+        mUrlBuildNanos.addAndGet(nanos);
+    }
+
+    void addConnect(long nanos) {
+        mConnectNanos.addAndGet(nanos);
+    }
+
+    void addDownload(long nanos, long bytes) {
+        mDownloadNanos.addAndGet(nanos);
+        mBytes.addAndGet(bytes);
+    }
+
+    void addParse(long nanos) {
+        mParseNanos.addAndGet(nanos);
+    }
+
+    void addNotModified() {
+        mNotModified.incrementAndGet();
+    }
+
+    void addFailed() {
+        mFailed.incrementAndGet();
+    }
+
+    void setLocations(int locations) {
+        mLocations = locations;
+    }
+
+    /**
+     * Records the database write.  The old rows are deleted by the same batch, in the same
+     * transaction as the new ones are written, so there is no separate time for the delete:
+     * it is part of nanos, and only its row count is known apart.
+     */
+    void setDbWrite(long nanos, int rowsReceived, int rowsChanged, int rowsDeleted) {
+        mDbWriteNanos = nanos;
+        mRowsReceived = rowsReceived;
+        mRowsChanged = rowsChanged;
+        mRowsDeleted = rowsDeleted;
+    }
+
+    void setFanOut(long nanos) {
+        mFanOutNanos = nanos;
+    }
+
+    void setMergedRequests(int mergedRequests) {
+        mMergedRequests = mergedRequests;
+    }
+
+    ContentValues toContentValues() {
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_START_TIME, mStartTime);
+        values.put(SyncMetricsEntry.COLUMN_TOTAL_MILLIS, toMillis(System.nanoTime() - mStartNanos));
+        values.put(SyncMetricsEntry.COLUMN_LOCATIONS, mLocations);
+        values.put(SyncMetricsEntry.COLUMN_NOT_MODIFIED, mNotModified.get());
+        values.put(SyncMetricsEntry.COLUMN_FAILED, mFailed.get());
+        values.put(SyncMetricsEntry.COLUMN_MERGED_REQUESTS, mMergedRequests);
+        values.put(SyncMetricsEntry.COLUMN_URL_BUILD_MILLIS, toMillis(mUrlBuildNanos.get()));
+        values.put(SyncMetricsEntry.COLUMN_CONNECT_MILLIS, toMillis(mConnectNanos.get()));
+        values.put(SyncMetricsEntry.COLUMN_DOWNLOAD_MILLIS, toMillis(mDownloadNanos.get()));
+        values.put(SyncMetricsEntry.COLUMN_PARSE_MILLIS, toMillis(mParseNanos.get()));
+        values.put(SyncMetricsEntry.COLUMN_DB_WRITE_MILLIS, toMillis(mDbWriteNanos));
+        values.put(SyncMetricsEntry.COLUMN_FAN_OUT_MILLIS, toMillis(mFanOutNanos));
+        values.put(SyncMetricsEntry.COLUMN_BYTES, mBytes.get());
+        values.put(SyncMetricsEntry.COLUMN_ROWS_RECEIVED, mRowsReceived);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_CHANGED, mRowsChanged);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_DELETED, mRowsDeleted);
+        return values;
+    }
+
+    /**
+     * Stores the metrics.  A sync that could not record its metrics still succeeded, so
+     * failures are only logged.
+     */
+    void save(Context context) {
+        ContentValues values = toContentValues();
+        try {
+            context.getContentResolver().insert(SyncMetricsEntry.CONTENT_URI, values);
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error storing sync metrics", e);
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Decides how long to wait before the next periodic sync.
+ */
+public interface SyncPolicy {
+
+    /**
+     * @param history   the syncs so far, including the one that just finished
+     * @param nowMillis the time the decision is made at
+     * @return the sync interval, in seconds
+     */
+    int getSyncInterval(SyncHistory history, long nowMillis);
+}
@@ -0,0 +1,96 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Merges the requests for an immediate sync into the sync that is going to serve them.
+ * <p/>
+ * Syncs never run side by side, and each one fetches the locations it finds when it starts.
+ * A request made while a requested sync is still waiting to start is therefore served by it,
+ * and so is one made while a sync is running, as long as that sync fetches every location the
+ * request needs.  A request for a location the running sync doesn't have, like the one the
+ * settings make when the location changes, queues a single sync to run after it, which every
+ * request until then is merged into.
+ * <p/>
+ * The locations are read under the same lock the requests are checked with, so a request
+ * can't slip in between a sync reading them and the sync being known to run.
+ */
+class SyncRequests {
+
+    /**
+     * Asks the framework for a sync.
+     */
+    interface Requester {
+        void requestSync(Context context);
+    }
+
+    // A requested sync that hasn't started by then is asked for again, in case the framework
+    // dropped it.  Asking twice does no harm, it merges identical requests that are pending.
+    private static final long PENDING_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    private final Requester mRequester;
+
+    // When the sync that was asked for last was requested, or -1 once a sync has started
+    private long mPendingSince = -1;
+    // The locations the running sync fetches, or null when none is running
+    private Set<String> mRunning;
+    private int mMerged;
+
+    SyncRequests(Requester requester) {
+        mRequester = requester;
+    }
+
+    /**
+     * Asks for a sync of every location, unless a sync which will fetch them all is already
+     * waiting to start or running.
+     *
+     * @return true if a sync was requested, false if the request was merged into another.
+     */
+    boolean request(Context context) {
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            boolean pending = mPendingSince != -1 && now - mPendingSince < PENDING_TIMEOUT_MILLIS;
+            if (pending || (mRunning != null
+                    && mRunning.containsAll(Utility.getSyncLocations(context)))) {
+                mMerged++;
+                return false;
+            }
+            mPendingSince = now;
+        }
+        mRequester.requestSync(context);
+        return true;
+    }
+
+    /**
+     * Marks a sync as running, whichever way it was started.  Any sync that starts serves the
+     * requests still waiting, since it reads the locations as they are now.
+     *
+     * @return the locations the sync has to fetch.
+     */
+    synchronized List<String> onSyncStarted(Context context) {
+        List<String> locationSettings = Utility.getSyncLocations(context);
+        mPendingSince = -1;
+        mRunning = new HashSet<String>(locationSettings);
+        return locationSettings;
+    }
+
+    synchronized void onSyncFinished() {
+        mRunning = null;
+    }
+
+    /**
+     * @return how many requests were merged into another since the last call.
+     */
+    synchronized int takeMerged() {
+        int merged = mMerged;
+        mMerged = 0;
+        return merged;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Re-registers the periodic sync after every sync, at the interval the {@link SyncPolicy}
+ * picks from the {@link SyncHistory}.
+ * <p/>
+ * The history and the interval currently registered live in their own preferences file, for
+ * the same reason as {@link ForecastValidators}.
+ */
+public class SyncScheduler {
+    private final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    private static final String PREFS_NAME = "sync_schedule";
+    private static final String KEY_VOLATILITY = "volatility";
+    private static final String KEY_CONSECUTIVE_FAILURES = "consecutive_failures";
+    private static final String KEY_LAST_SYNC = "last_sync";
+    private static final String KEY_SYNC_INTERVAL = "sync_interval";
+
+    private final Context mContext;
+    private final SyncPolicy mPolicy;
+    private final SyncClock mClock;
+    private final SharedPreferences mPrefs;
+
+    public SyncScheduler(Context context, SyncPolicy policy, SyncClock clock) {
+        mContext = context;
+        mPolicy = policy;
+        mClock = clock;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the scheduler the sync adapter uses.
+     */
+    public static SyncScheduler create(Context context) {
+        return new SyncScheduler(context, new AdaptiveSyncPolicy(), SyncClock.SYSTEM);
+    }
+
+    /**
+     * Records a sync which reached the server and reschedules the next one.
+     *
+     * @param rowsReceived the number of weather rows the server sent
+     * @param rowsChanged  how many of those differed from the stored ones
+     */
+    public void onSyncSucceeded(int rowsReceived, int rowsChanged) {
+        SyncHistory history = loadHistory();
+        history.recordSuccess(rowsReceived, rowsChanged, mClock.currentTimeMillis());
+        reschedule(history);
+    }
+
+    /**
+     * Records a sync which could not get a forecast and reschedules the next one.
+     */
+    public void onSyncFailed() {
+        SyncHistory history = loadHistory();
+        history.recordFailure(mClock.currentTimeMillis());
+        reschedule(history);
+    }
+
+    /**
+     * @return the interval the periodic sync is registered with, in seconds.
+     */
+    public int getSyncInterval() {
+        return mPrefs.getInt(KEY_SYNC_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    private SyncHistory loadHistory() {
+        return new SyncHistory(
+                mPrefs.getFloat(KEY_VOLATILITY, 0f),
+                mPrefs.getInt(KEY_CONSECUTIVE_FAILURES, 0),
+                mPrefs.getLong(KEY_LAST_SYNC, 0));
+    }
+
+    private void reschedule(SyncHistory history) {
+        int syncInterval = mPolicy.getSyncInterval(history, mClock.currentTimeMillis());
+        boolean changed = syncInterval != getSyncInterval();
+
+        SharedPreferences.Editor editor = mPrefs.edit();
+        editor.putFloat(KEY_VOLATILITY, history.getVolatility());
+        editor.putInt(KEY_CONSECUTIVE_FAILURES, history.getConsecutiveFailures());
+        editor.putLong(KEY_LAST_SYNC, history.getLastSyncMillis());
+        editor.putInt(KEY_SYNC_INTERVAL, syncInterval);
+        editor.apply();
+
+        if (changed) {
+            Log.d(LOG_TAG, "Syncing every " + syncInterval + "s, volatility "
+                    + history.getVolatility() + ", failures " + history.getConsecutiveFailures());
+            // Keep the same proportion of flex time as the fixed schedule had
+            SunshineSyncAdapter.configurePeriodicSync(mContext, syncInterval,
+                    syncInterval * SunshineSyncAdapter.SYNC_FLEXTIME
+                            / SunshineSyncAdapter.SYNC_INTERVAL);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Today's weather for one location, as every consumer outside the app's own screens shows it:
+ * the Today widget, Muzei, the daily notification and the watch.
+ * <p/>
+ * The sync builds one of these from the rows it just wrote and hands it to each consumer inside
+ * the intent that wakes it up, so that none of them has to query the provider for the same row.
+ * Consumers woken up by anything else fall back to {@link #get(Context, Intent)}, which runs
+ * the query once.
+ */
+public class TodaySnapshot {
+    public static final String EXTRA_TODAY_SNAPSHOT =
+            "com.example.android.sunshine.app.extra.TODAY_SNAPSHOT";
+
+    private static final String KEY_LOCATION_SETTING = "location_setting";
+    private static final String KEY_DATE = "date";
+    private static final String KEY_WEATHER_ID = "weather_id";
+    private static final String KEY_DESCRIPTION = "description";
+    private static final String KEY_HIGH = "high";
+    private static final String KEY_LOW = "low";
+    private static final String KEY_FORMATTED_HIGH = "formatted_high";
+    private static final String KEY_FORMATTED_LOW = "formatted_low";
+
+    private static final String[] TODAY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    private final String mLocationSetting;
+    private final long mDate;
+    private final int mWeatherId;
+    private final String mDescription;
+    private final double mHigh;
+    private final double mLow;
+    private final String mFormattedHigh;
+    private final String mFormattedLow;
+
+    private TodaySnapshot(String locationSetting, long date, int weatherId, String description,
+                          double high, double low, String formattedHigh, String formattedLow) {
+        mLocationSetting = locationSetting;
+        mDate = date;
+        mWeatherId = weatherId;
+        mDescription = description;
+        mHigh = high;
+        mLow = low;
+        mFormattedHigh = formattedHigh;
+        mFormattedLow = formattedLow;
+    }
+
+    private static TodaySnapshot create(Context context, String locationSetting, long date,
+                                        int weatherId, String description, double high,
+                                        double low) {
+        return new TodaySnapshot(locationSetting, date, weatherId, description, high, low,
+                Utility.formatTemperature(context, high), Utility.formatTemperature(context, low));
+    }
+
+    /**
+     * Builds the snapshot from a weather row the sync is about to store, without touching the
+     * provider.
+     */
+    static TodaySnapshot fromValues(Context context, String locationSetting,
+                                    ContentValues weatherValues) {
+        return create(context, locationSetting,
+                weatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                weatherValues.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                weatherValues.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+    }
+
+    /**
+     * Reads the first row from today onwards for the location.
+     *
+     * @return the snapshot, or null if there is no weather for today yet.
+     */
+    public static TodaySnapshot query(Context context, String locationSetting) {
+        // Only today's row, rather than the whole forecast copied into the cursor window
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis(), 0, 1);
+        Cursor data = context.getContentResolver().query(weatherForLocationUri, TODAY_COLUMNS,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (data == null) {
+            return null;
+        }
+        try {
+            if (!data.moveToFirst()) {
+                return null;
+            }
+            return create(context, locationSetting,
+                    data.getLong(INDEX_DATE),
+                    data.getInt(INDEX_WEATHER_ID),
+                    data.getString(INDEX_SHORT_DESC),
+                    data.getDouble(INDEX_MAX_TEMP),
+                    data.getDouble(INDEX_MIN_TEMP));
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * Returns the snapshot the sync attached to the intent, as long as it is still for the
+     * preferred location.  Otherwise, queries the provider for it.
+     *
+     * @return the snapshot, or null if there is no weather for today yet.
+     */
+    public static TodaySnapshot get(Context context, Intent intent) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        TodaySnapshot snapshot = intent == null ? null : fromIntent(intent);
+        if (snapshot != null && snapshot.mLocationSetting.equals(locationSetting)) {
+            return snapshot;
+        }
+        return query(context, locationSetting);
+    }
+
+    /**
+     * @return the snapshot attached to the intent, or null if there isn't one.
+     */
+    public static TodaySnapshot fromIntent(Intent intent) {
+        Bundle bundle = intent.getBundleExtra(EXTRA_TODAY_SNAPSHOT);
+        if (bundle == null) {
+            return null;
+        }
+        return new TodaySnapshot(
+                bundle.getString(KEY_LOCATION_SETTING),
+                bundle.getLong(KEY_DATE),
+                bundle.getInt(KEY_WEATHER_ID),
+                bundle.getString(KEY_DESCRIPTION),
+                bundle.getDouble(KEY_HIGH),
+                bundle.getDouble(KEY_LOW),
+                bundle.getString(KEY_FORMATTED_HIGH),
+                bundle.getString(KEY_FORMATTED_LOW));
+    }
+
+    /**
+     * Attaches the snapshot to the intent.  It travels as a plain Bundle, so that no class
+     * loader is needed to read it back.
+     */
+    public Intent addTo(Intent intent) {
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_LOCATION_SETTING, mLocationSetting);
+        bundle.putLong(KEY_DATE, mDate);
+        bundle.putInt(KEY_WEATHER_ID, mWeatherId);
+        bundle.putString(KEY_DESCRIPTION, mDescription);
+        bundle.putDouble(KEY_HIGH, mHigh);
+        bundle.putDouble(KEY_LOW, mLow);
+        bundle.putString(KEY_FORMATTED_HIGH, mFormattedHigh);
+        bundle.putString(KEY_FORMATTED_LOW, mFormattedLow);
+        return intent.putExtra(EXTRA_TODAY_SNAPSHOT, bundle);
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public long getDate() {
+        return mDate;
+    }
+
+    public int getWeatherId() {
+        return mWeatherId;
+    }
+
+    public String getDescription() {
+        return mDescription;
+    }
+
+    public double getHigh() {
+        return mHigh;
+    }
+
+    public double getLow() {
+        return mLow;
+    }
+
+    public String getFormattedHigh() {
+        return mFormattedHigh;
+    }
+
+    public String getFormattedLow() {
+        return mFormattedLow;
+    }
+
+    public int getIconResourceId() {
+        return Utility.getIconResourceForWeatherCondition(mWeatherId);
+    }
+
+    public int getArtResourceId() {
+        return Utility.getArtResourceForWeatherCondition(mWeatherId);
+    }
+}
@@ -2,16 +2,12 @@ package com.example.android.sunshine.app.wear;
 
 import android.app.IntentService;
 import android.content.Intent;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
 
-import com.example.android.sunshine.app.R;
-import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.TodaySnapshot;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
@@ -22,23 +18,15 @@ import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
 import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WearSyncService extends IntentService implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
 
     private static final String TAG = "WEAR_SYNC";
     private GoogleApiClient mGoogleApiClient;
-
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
-    private static final int INDEX_MAX_TEMP = 2;
-    private static final int INDEX_MIN_TEMP = 3;
+    // Starts not handled yet.  Every start sends today's weather as it is once handled, so of
+    // a burst, like MainActivity resumed over and over, only the last one has to be sent.
+    private final AtomicInteger mQueued = new AtomicInteger();
 
     public WearSyncService() {
         super(TAG);
@@ -53,60 +41,35 @@ public class WearSyncService extends IntentService implements GoogleApiClient.Co
                 .build();
     }
 
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mQueued.incrementAndGet();
+        return super.onStartCommand(intent, flags, startId);
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
+        if (mQueued.decrementAndGet() > 0) {
+            Log.d(TAG, "Merged into a later request");
+            return;
+        }
         create();
         mGoogleApiClient.connect();
 
 
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
-        }
-        if (!data.moveToFirst()) {
-            data.close();
+        // Use today's data the sync sent along, or get it from the ContentProvider
+        TodaySnapshot today = TodaySnapshot.get(this, intent);
+        if (today == null) {
             return;
         }
-
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
+        String description = today.getDescription();
+        String formattedMaxTemperature = today.getFormattedHigh();
+        String formattedMinTemperature = today.getFormattedLow();
 
 
         PutDataMapRequest putDataMapRequest = PutDataMapRequest.create("/wear-sync");
-        int art = 0;
-        if (weatherId >= 200 && weatherId <= 232) {
-            art = R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            art = R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            art = R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            art = R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            art = R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            art = R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            art = R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            art = R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            art = R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            art = R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            art = R.drawable.ic_cloudy;
-        }
+        // Utility answers -1 for weather it has no icon for, the watch expects 0
+        int art = Math.max(0, today.getIconResourceId());
 
 
         putDataMapRequest.getDataMap().putString("desc", description);
@@ -23,6 +23,7 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.TodaySnapshot;
 
 /**
  * Provider for a horizontally expandable widget showing today's weather.
@@ -47,7 +48,13 @@ public class TodayWidgetProvider extends AppWidgetProvider {
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
+            Intent serviceIntent = new Intent(context, TodayWidgetIntentService.class);
+            // Pass on today's weather, so the service doesn't have to look it up again
+            TodaySnapshot today = TodaySnapshot.fromIntent(intent);
+            if (today != null) {
+                today.addTo(serviceIntent);
+            }
+            context.startService(serviceIntent);
         }
     }
 }